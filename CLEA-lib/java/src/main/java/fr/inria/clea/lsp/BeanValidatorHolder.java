@@ -0,0 +1,17 @@
+/*
+* Copyright (C) Inria, 2021
+*/
+package fr.inria.clea.lsp;
+
+import javax.validation.Validation;
+import javax.validation.Validator;
+
+/**
+ * Bean Validation of the annotations, bootstrapped once on first use (Validator instances are thread-safe)
+ */
+final class BeanValidatorHolder {
+    static final Validator VALIDATOR = Validation.buildDefaultValidatorFactory().getValidator();
+
+    private BeanValidatorHolder() {
+    }
+}
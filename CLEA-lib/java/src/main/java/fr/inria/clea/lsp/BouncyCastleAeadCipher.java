@@ -0,0 +1,40 @@
+/*
+* Copyright (C) Inria, 2021
+*/
+package fr.inria.clea.lsp;
+
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.engines.AESEngine;
+import org.bouncycastle.crypto.modes.GCMBlockCipher;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+/**
+ * AES-256-GCM in pure Java with the BouncyCastle lightweight API. 
+ * The GCM multiplication tables are reused from one message to the next.
+ */
+public class BouncyCastleAeadCipher implements CleaAeadCipher {
+    private final GCMBlockCipher cipher = new GCMBlockCipher(new AESEngine());
+
+    @Override
+    public int encrypt(byte[] key, byte[] iv, byte[] aad, int aadOff, int aadLen, byte[] in, int inOff, int inLen,
+            byte[] out, int outOff) throws InvalidCipherTextException {
+        return this.process(true, key, iv, aad, aadOff, aadLen, in, inOff, inLen, out, outOff);
+    }
+
+    @Override
+    public int decrypt(byte[] key, byte[] iv, byte[] aad, int aadOff, int aadLen, byte[] in, int inOff, int inLen,
+            byte[] out, int outOff) throws InvalidCipherTextException {
+        return this.process(false, key, iv, aad, aadOff, aadLen, in, inOff, inLen, out, outOff);
+    }
+
+    private int process(boolean forEncryption, byte[] key, byte[] iv, byte[] aad, int aadOff, int aadLen, 
+            byte[] in, int inOff, int inLen, byte[] out, int outOff) throws InvalidCipherTextException {
+        cipher.init(forEncryption, new AEADParameters(new KeyParameter(key), 8 * CleaEciesEncoder.TAG_BYTES_SIZE, iv));
+        if (aad != null && aadLen > 0) {
+            cipher.processAADBytes(aad, aadOff, aadLen);
+        }
+        int pos = cipher.processBytes(in, inOff, inLen, out, outOff);
+        return pos + cipher.doFinal(out, outOff + pos);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+* Copyright (C) Inria, 2021
+*/
+package fr.inria.clea.lsp;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECMultiplier;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.FixedPointCombMultiplier;
+import org.bouncycastle.math.ec.FixedPointUtil;
+import org.bouncycastle.math.ec.WNafUtil;
+import org.bouncycastle.util.BigIntegers;
+
+/**
+ * ECDH backend using only the BouncyCastle lightweight API and its optimized
+ * secp256r1 arithmetic (SecP256R1Curve from CustomNamedCurves):
+ * <ul>
+ * <li>encapsulation with fixed-point comb multiplications, the tables of G and of
+ * the authority public keys being precomputed once</li>
+ * <li>batch decapsulation sharing the field inversion of the normalization of the secrets
+ * (Montgomery's simultaneous inversion)</li>
+ * </ul>
+ */
+public class BouncyCastleCryptoBackend implements CleaCryptoBackend {
+    /* Fixed-point multiplier using the comb tables precomputed for G and for the authority public keys */
+    static final ECMultiplier FIXED_POINT_MULTIPLIER = new FixedPointCombMultiplier();
+    /* Source of randomness for the ephemeral keys (thread-safe) */
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+    static {
+        /* Comb table of the generator G, built once per JVM */
+        FixedPointUtil.precompute(CleaEciesEncoder.EC_PARAMETERS.getG());
+    }
+
+    @Override
+    public void encapsulate(CleaPublicKey publicKey, byte[] c0, byte[] secret) {
+        /* Generate C0, both G and PK_HA are fixed points with precomputed comb tables */
+        BigInteger r = generateEphemeralSecret(); // r
+        ECPoint C0_Q = FIXED_POINT_MULTIPLIER.multiply(CleaEciesEncoder.EC_PARAMETERS.getG(), r); // r * G
+        byte[] encodedC0 = C0_Q.getEncoded(true); // C0 = E(r * G)
+        System.arraycopy(encodedC0, 0, c0, 0, CleaEciesEncoder.C0_BYTES_SIZE);
+
+        /* Generate secret S */
+        ECPoint S_Q = FIXED_POINT_MULTIPLIER.multiply(publicKey.getQ(), r); // S = r * D(PK_HA)
+        encodeSecret(S_Q.normalize(), secret); // S.X
+    }
+
+    @Override
+    public void decapsulate(CleaPrivateKey privateKey, byte[] c0, byte[] secret) {
+        ECPoint S_Q = sharedPoint(privateKey, c0); // S = x * D(C0)
+        encodeSecret(S_Q.normalize(), secret); // S.X
+    }
+
+    @Override
+    public void decapsulateAll(CleaPrivateKey privateKey, byte[][] c0s, byte[][] secrets, Exception[] failures) {
+        int size = c0s.length;
+        ECPoint[] points = new ECPoint[size];
+        int[] indexes = new int[size];
+        int nbPoints = 0;
+        /* ECDH in projective coordinates */
+        for (int i = 0; i < size; i++) {
+            if (c0s[i] == null) {
+                continue;
+            }
+            try {
+                points[nbPoints] = sharedPoint(privateKey, c0s[i]);
+                indexes[nbPoints++] = i;
+            } catch (RuntimeException e) {
+                failures[i] = e;
+            }
+        }
+        /* One shared field inversion for all the secrets */
+        CleaEciesEncoder.EC_PARAMETERS.getCurve().normalizeAll(points, 0, nbPoints, null);
+        for (int k = 0; k < nbPoints; k++) {
+            encodeSecret(points[k], secrets[indexes[k]]);
+        }
+    }
+
+    /**
+     * @return S = x * D(C0), in projective coordinates
+     */
+    private static ECPoint sharedPoint(CleaPrivateKey privateKey, byte[] c0) {
+        ECCurve curve = CleaEciesEncoder.EC_PARAMETERS.getCurve();
+        ECPoint S_Q = curve.decodePoint(c0).multiply(privateKey.getD());
+        if (S_Q.isInfinity()) {
+            throw new IllegalArgumentException("Invalid ephemeral public key C0");
+        }
+        return S_Q;
+    }
+
+    private static void encodeSecret(ECPoint normalizedPoint, byte[] secret) {
+        byte[] x = normalizedPoint.getAffineXCoord().getEncoded();
+        System.arraycopy(x, 0, secret, 0, SECRET_BYTES_SIZE);
+    }
+
+    /**
+     * Generate the ephemeral secret r of an encryption, with the same constraints
+     * as the BouncyCastle EC key pair generator: 1 <= r < n and a minimal NAF weight.
+     *
+     * @return random scalar r
+     */
+    static BigInteger generateEphemeralSecret() {
+        BigInteger n = CleaEciesEncoder.EC_PARAMETERS.getN();
+        int minWeight = n.bitLength() >>> 2;
+        BigInteger r;
+        do {
+            r = BigIntegers.createRandomBigInteger(n.bitLength(), SECURE_RANDOM);
+        } while (r.compareTo(BigInteger.ONE) < 0 || r.compareTo(n) >= 0 || WNafUtil.getNafWeight(r) < minWeight);
+        return r;
+    }
+}
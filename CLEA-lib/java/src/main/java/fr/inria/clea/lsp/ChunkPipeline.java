@@ -0,0 +1,133 @@
+/*
+* Copyright (C) Inria, 2021
+*/
+package fr.inria.clea.lsp;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/**
+ * Ordered and bounded pipeline of the bulk processors: the chunks of a run are processed in
+ * parallel by an executor, at most a few of them being in flight at a time so that the memory
+ * stays bounded, and handed back to the calling thread in the submission order.
+ *
+ * The settings are kept between the runs. A pipeline can be reused but not shared between threads.
+ *
+ * @see LspStreamProcessor
+ * @see LocationFleetGenerator
+ */
+class ChunkPipeline {
+    private Executor executor = ForkJoinPool.commonPool();
+    private int chunkSize;
+    private int maxChunksInFlight = 2 * Runtime.getRuntime().availableProcessors();
+
+    ChunkPipeline(int chunkSize) {
+        this.setChunkSize(chunkSize);
+    }
+
+    /**
+     * @param executor executor running the chunks, the maximum number of chunks in flight
+     *                 being set to twice the parallelism of a ForkJoinPool
+     */
+    void setExecutor(Executor executor) {
+        this.executor = Objects.requireNonNull(executor, "executor must not be null");
+        if (executor instanceof ForkJoinPool) {
+            this.maxChunksInFlight = 2 * ((ForkJoinPool) executor).getParallelism();
+        }
+    }
+
+    void setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    int getChunkSize() {
+        return this.chunkSize;
+    }
+
+    void setMaxChunksInFlight(int maxChunksInFlight) {
+        if (maxChunksInFlight < 1) {
+            throw new IllegalArgumentException("Maximum number of chunks in flight must be positive: " + maxChunksInFlight);
+        }
+        this.maxChunksInFlight = maxChunksInFlight;
+    }
+
+    /**
+     * @param consumer receiver of the processed chunks, called on the calling thread in the submission order
+     * @return a new run with the current settings
+     */
+    <C> Run<C> start(ChunkConsumer<C> consumer) {
+        return new Run<>(this.executor, this.maxChunksInFlight, consumer);
+    }
+
+    /**
+     * Receiver of the processed chunks of a run
+     */
+    @FunctionalInterface
+    interface ChunkConsumer<C> {
+        /**
+         * @throws IOException to stop the run
+         */
+        void accept(C chunk) throws IOException;
+    }
+
+    /**
+     * Chunks in flight of a run
+     */
+    static class Run<C> {
+        private final Executor executor;
+        private final int maxChunksInFlight;
+        private final ChunkConsumer<C> consumer;
+        private final Deque<CompletableFuture<C>> inFlight = new ArrayDeque<>();
+
+        private Run(Executor executor, int maxChunksInFlight, ChunkConsumer<C> consumer) {
+            this.executor = executor;
+            this.maxChunksInFlight = maxChunksInFlight;
+            this.consumer = consumer;
+        }
+
+        /**
+         * Start the processing of a chunk, after handing the oldest chunks to the consumer
+         * while there are too many in flight
+         *
+         * @param task processing of the chunk, run by the executor
+         * @throws IOException if the processing of an older chunk or the consumer fails
+         */
+        void submit(Supplier<C> task) throws IOException {
+            while (this.inFlight.size() >= this.maxChunksInFlight) {
+                this.emit(this.inFlight.poll());
+            }
+            this.inFlight.add(CompletableFuture.supplyAsync(task, this.executor));
+        }
+
+        /**
+         * Hand the remaining chunks to the consumer once processed
+         *
+         * @throws IOException if the processing of a chunk or the consumer fails
+         */
+        void finish() throws IOException {
+            while (!this.inFlight.isEmpty()) {
+                this.emit(this.inFlight.poll());
+            }
+        }
+
+        private void emit(CompletableFuture<C> future) throws IOException {
+            C chunk;
+            try {
+                chunk = future.join();
+            } catch (CompletionException e) {
+                throw new IOException("Chunk processing failed", e.getCause());
+            }
+            this.consumer.accept(chunk);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+* Copyright (C) Inria, 2021
+*/
+package fr.inria.clea.lsp;
+
+import org.bouncycastle.crypto.InvalidCipherTextException;
+
+/**
+ * AES-256-GCM data encapsulation mechanism (DEM) of the ECIES-KEM scheme used by 
+ * {@link CleaEciesEncoder}, with a tag of TAG_BYTES_SIZE bytes.
+ *
+ * Implementations keep the state of their cipher between two calls and are not 
+ * thread-safe: the encoder uses one instance per thread.
+ *
+ * @see <a href="https://hal.inria.fr/hal-03146022">CLEA protocol</a>
+ */
+public interface CleaAeadCipher {
+
+    /**
+     * Encrypt and authenticate a message.
+     *
+     * @param key    256-bits AES key
+     * @param iv     96-bits IV
+     * @param aad    additional data authenticated but not encrypted, may be null
+     * @param aadOff offset of the additional data
+     * @param aadLen length of the additional data
+     * @param in     buffer holding the message
+     * @param inOff  offset of the message
+     * @param inLen  length of the message
+     * @param out    buffer receiving [encrypted message | tag], may be the input buffer
+     *               at the same offset to encrypt in place
+     * @param outOff offset in the output buffer
+     * @return the number of bytes written in the output buffer
+     */
+    int encrypt(byte[] key, byte[] iv, byte[] aad, int aadOff, int aadLen, byte[] in, int inOff, int inLen, 
+            byte[] out, int outOff) throws InvalidCipherTextException;
+
+    /**
+     * Decrypt and authenticate a message.
+     *
+     * @param key    256-bits AES key
+     * @param iv     96-bits IV
+     * @param aad    additional data authenticated but not encrypted, may be null
+     * @param aadOff offset of the additional data
+     * @param aadLen length of the additional data
+     * @param in     buffer holding [encrypted message | tag]
+     * @param inOff  offset of the encrypted message
+     * @param inLen  length of the encrypted message with its tag
+     * @param out    buffer receiving the decrypted message
+     * @param outOff offset in the output buffer
+     * @return the number of bytes written in the output buffer
+     * @throws InvalidCipherTextException if the tag does not match
+     */
+    int decrypt(byte[] key, byte[] iv, byte[] aad, int aadOff, int aadLen, byte[] in, int inOff, int inLen, 
+            byte[] out, int outOff) throws InvalidCipherTextException;
+
+    /**
+     * @return the AES-GCM of the JDK providers (intrinsified by HotSpot with AES-NI/CLMUL)
+     *         when available, the BouncyCastle one otherwise
+     */
+    static CleaAeadCipher newInstance() {
+        return JdkAeadCipher.isAvailable() ? new JdkAeadCipher() : new BouncyCastleAeadCipher();
+    }
+}
@@ -0,0 +1,149 @@
+/*
+* Copyright (C) Inria, 2021
+*/
+package fr.inria.clea.lsp;
+
+import java.util.Collections;
+import java.util.Iterator;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.ElementKind;
+import javax.validation.Path;
+import javax.validation.ValidationException;
+import javax.validation.metadata.ConstraintDescriptor;
+
+/**
+ * Constraint violation reported by the hand-written validators, with the message and the
+ * property of the Bean Validation annotations they replace. There is no constraint descriptor.
+ */
+final class CleaConstraintViolation<T> implements ConstraintViolation<T> {
+    private final String message;
+    private final T rootBean;
+    private final PropertyPath propertyPath;
+    private final Object invalidValue;
+
+    CleaConstraintViolation(String message, T rootBean, String propertyName, Object invalidValue) {
+        this.message = message;
+        this.rootBean = rootBean;
+        this.propertyPath = new PropertyPath(propertyName);
+        this.invalidValue = invalidValue;
+    }
+
+    @Override
+    public String getMessage() {
+        return this.message;
+    }
+
+    @Override
+    public String getMessageTemplate() {
+        return this.message;
+    }
+
+    @Override
+    public T getRootBean() {
+        return this.rootBean;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Class<T> getRootBeanClass() {
+        return (Class<T>) this.rootBean.getClass();
+    }
+
+    @Override
+    public Object getLeafBean() {
+        return this.rootBean;
+    }
+
+    @Override
+    public Object[] getExecutableParameters() {
+        return null;
+    }
+
+    @Override
+    public Object getExecutableReturnValue() {
+        return null;
+    }
+
+    @Override
+    public Path getPropertyPath() {
+        return this.propertyPath;
+    }
+
+    @Override
+    public Object getInvalidValue() {
+        return this.invalidValue;
+    }
+
+    @Override
+    public ConstraintDescriptor<?> getConstraintDescriptor() {
+        return null;
+    }
+
+    @Override
+    public <U> U unwrap(Class<U> type) {
+        if (type.isInstance(this)) {
+            return type.cast(this);
+        }
+        throw new ValidationException("Cannot unwrap to " + type.getName());
+    }
+
+    @Override
+    public String toString() {
+        return "CleaConstraintViolation{propertyPath=" + this.propertyPath + ", message='" + this.message + "'}";
+    }
+
+    /**
+     * Path made of a single property node
+     */
+    private static final class PropertyPath implements Path, Path.Node {
+        private final String name;
+
+        PropertyPath(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Iterator<Path.Node> iterator() {
+            return Collections.<Path.Node>singletonList(this).iterator();
+        }
+
+        @Override
+        public String getName() {
+            return this.name;
+        }
+
+        @Override
+        public boolean isInIterable() {
+            return false;
+        }
+
+        @Override
+        public Integer getIndex() {
+            return null;
+        }
+
+        @Override
+        public Object getKey() {
+            return null;
+        }
+
+        @Override
+        public ElementKind getKind() {
+            return ElementKind.PROPERTY;
+        }
+
+        @Override
+        public <N extends Path.Node> N as(Class<N> nodeType) {
+            if (nodeType.isInstance(this)) {
+                return nodeType.cast(this);
+            }
+            throw new ClassCastException("Cannot cast a property node to " + nodeType.getName());
+        }
+
+        @Override
+        public String toString() {
+            return this.name;
+        }
+    }
+}
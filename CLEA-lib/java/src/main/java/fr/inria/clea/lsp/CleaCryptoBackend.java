@@ -0,0 +1,62 @@
+/*
+* Copyright (C) Inria, 2021
+*/
+package fr.inria.clea.lsp;
+
+/**
+ * Elliptic curve part (ECDH key encapsulation mechanism) of the ECIES-KEM
+ * scheme used by {@link CleaEciesEncoder}. The KDF and the AES-GCM data
+ * encapsulation mechanism are common to all the backends.
+ *
+ * Implementations must be thread-safe: a backend is shared by all the
+ * encryptions/decryptions of an encoder.
+ *
+ * @see <a href="https://hal.inria.fr/hal-03146022">CLEA protocol</a>
+ */
+public interface CleaCryptoBackend {
+    /* Size in bytes of the shared secret S.X */
+    int SECRET_BYTES_SIZE = 32;
+
+    /**
+     * Encapsulation: generate an ephemeral secret r, the ephemeral public key C0 = r * G
+     * and the shared secret S = r * PK.
+     *
+     * @param publicKey EC public key of the recipient
+     * @param c0        buffer of C0_BYTES_SIZE bytes receiving E(C0) in compressed format
+     * @param secret    buffer of SECRET_BYTES_SIZE bytes receiving S.X
+     */
+    void encapsulate(CleaPublicKey publicKey, byte[] c0, byte[] secret);
+
+    /**
+     * Decapsulation: compute the shared secret S = x * D(C0).
+     *
+     * @param privateKey EC private key of the recipient
+     * @param c0         ephemeral public key in compressed format (C0_BYTES_SIZE bytes)
+     * @param secret     buffer of SECRET_BYTES_SIZE bytes receiving S.X
+     * @throws IllegalArgumentException if C0 is not a valid point of the curve
+     */
+    void decapsulate(CleaPrivateKey privateKey, byte[] c0, byte[] secret);
+
+    /**
+     * Decapsulation of a batch of messages with the same private key.
+     * The default implementation decapsulates the messages one by one.
+     *
+     * @param privateKey EC private key of the recipient
+     * @param c0s        ephemeral public keys in compressed format, null entries are skipped
+     * @param secrets    buffers of SECRET_BYTES_SIZE bytes receiving S.X, at the index of each C0
+     * @param failures   array receiving the reason of the failure at the index of each
+     *                   C0 that cannot be decapsulated
+     */
+    default void decapsulateAll(CleaPrivateKey privateKey, byte[][] c0s, byte[][] secrets, Exception[] failures) {
+        for (int i = 0; i < c0s.length; i++) {
+            if (c0s[i] == null) {
+                continue;
+            }
+            try {
+                this.decapsulate(privateKey, c0s[i], secrets[i]);
+            } catch (RuntimeException e) {
+                failures[i] = e;
+            }
+        }
+    }
+}
@@ -7,10 +7,11 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
+import java.nio.Buffer;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
-import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.MessageDigest;
@@ -23,26 +24,18 @@ import java.security.spec.InvalidKeySpecException;
 import java.time.Instant;
 import java.util.Arrays;
 import java.util.UUID;
+import java.util.function.Supplier;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 
+import org.bouncycastle.asn1.x9.X9ECParameters;
 import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.ec.CustomNamedCurves;
 import org.bouncycastle.crypto.digests.SHA256Digest;
-import org.bouncycastle.crypto.engines.AESEngine;
-import org.bouncycastle.crypto.generators.KDF1BytesGenerator;
-import org.bouncycastle.crypto.modes.GCMBlockCipher;
-import org.bouncycastle.crypto.params.AEADParameters;
-import org.bouncycastle.crypto.params.ISO18033KDFParameters;
-import org.bouncycastle.crypto.params.KeyParameter;
-import org.bouncycastle.jce.ECNamedCurveTable;
 import org.bouncycastle.jce.interfaces.ECPrivateKey;
 import org.bouncycastle.jce.interfaces.ECPublicKey;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
-import org.bouncycastle.jce.spec.ECParameterSpec;
-import org.bouncycastle.jce.spec.ECPrivateKeySpec;
-import org.bouncycastle.jce.spec.ECPublicKeySpec;
-import org.bouncycastle.math.ec.ECPoint;
 import org.bouncycastle.util.encoders.Hex;
 
 import fr.inria.clea.lsp.exception.CleaEncryptionException;
@@ -65,9 +58,11 @@ import lombok.extern.slf4j.Slf4j;
 public class CleaEciesEncoder {
 
     /* Type of the elliptic curve */
-    private final String curveName = "secp256r1";
+    static final String CURVE_NAME = "secp256r1";
+    /* Domain parameters of the elliptic curve with its optimized arithmetic, resolved once per JVM */
+    static final X9ECParameters EC_PARAMETERS = CustomNamedCurves.getByName(CURVE_NAME);
     /* Parameter iv fixed 96-bits for AES-256-GCM */
-    private final byte[] iv = { (byte) 0xf0, (byte) 0xf1, (byte) 0xf2, (byte) 0xf3, (byte) 0xf4, (byte) 0xf5,
+    private static final byte[] IV = { (byte) 0xf0, (byte) 0xf1, (byte) 0xf2, (byte) 0xf3, (byte) 0xf4, (byte) 0xf5,
             (byte) 0xf6, (byte) 0xf7, (byte) 0xf8, (byte) 0xf9, (byte) 0xfa, (byte) 0xfb };
 
     /* Size in bytes of the ephemeral public key */
@@ -81,8 +76,48 @@ public class CleaEciesEncoder {
     /* Size in bytes of locContactMsg to be encrypted with AES-256-GCM */
     public static final int LOC_BYTES_SIZE = 16;
 
+    /* Per-thread KDF and AES-GCM state, with the default AES-GCM implementation */
+    private static final ThreadLocal<EciesContext> DEFAULT_CONTEXT = 
+            ThreadLocal.withInitial(() -> new EciesContext(CleaAeadCipher.newInstance()));
+    /* Elliptic curve part of the scheme (ECDH key encapsulation) */
+    private final CleaCryptoBackend cryptoBackend;
+    /* Per-thread KDF and AES-GCM state of this encoder */
+    private final ThreadLocal<EciesContext> contexts;
+    /* Last public key parsed by the String-based encrypt, to keep its precomputed tables */
+    private volatile CleaPublicKey lastPublicKey;
+
     public CleaEciesEncoder() {
-        Security.addProvider(new BouncyCastleProvider());
+        this(new BouncyCastleCryptoBackend());
+    }
+
+    /**
+     * @param cryptoBackend implementation of the elliptic curve part of the scheme
+     */
+    public CleaEciesEncoder(CleaCryptoBackend cryptoBackend) {
+        registerProvider();
+        this.cryptoBackend = cryptoBackend;
+        this.contexts = DEFAULT_CONTEXT;
+    }
+
+    /**
+     * @param cryptoBackend     implementation of the elliptic curve part of the scheme
+     * @param aeadCipherFactory creates the AES-GCM implementation used by each thread, 
+     *                          instead of the one chosen by {@link CleaAeadCipher#newInstance()}
+     */
+    public CleaEciesEncoder(CleaCryptoBackend cryptoBackend, Supplier<CleaAeadCipher> aeadCipherFactory) {
+        registerProvider();
+        this.cryptoBackend = cryptoBackend;
+        this.contexts = ThreadLocal.withInitial(() -> new EciesContext(aeadCipherFactory.get()));
+    }
+
+    /**
+     * Register the BouncyCastle provider once per JVM: building the provider is costly
+     * and the encoders are often created by the thousand (one per location)
+     */
+    private static void registerProvider() {
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
     }
 
     /**
@@ -96,7 +131,7 @@ public class CleaEciesEncoder {
      */
     public String[] genKeysPair(boolean publicKeyCompressed) throws Exception {
         KeyPairGenerator kpg = KeyPairGenerator.getInstance("EC", "BC");
-        kpg.initialize(new ECGenParameterSpec(curveName), new SecureRandom());
+        kpg.initialize(new ECGenParameterSpec(CURVE_NAME), new SecureRandom());
         KeyPair keyPair = kpg.generateKeyPair();
         ECPrivateKey privKey = (ECPrivateKey) keyPair.getPrivate();
         ECPublicKey pubKey = (ECPublicKey) keyPair.getPublic();
@@ -109,41 +144,27 @@ public class CleaEciesEncoder {
     }
 
     /**
-     * Get an EC private key (ECPrivateKey)
-     * 
-     * @param privateKey string format of the key
+     * Encrypt data respecting ECIES-KEM using: - SECP256R1 ECDH as KEM - KDF1 using
+     * SHA256 hash as KDF - AES-256-GCM with a fixed 96-bits IV as DEM and TAG.
      * 
-     * @return ECPrivateKey
-     */
-    private ECPrivateKey getECPrivateKey(String privateKey) throws NoSuchAlgorithmException, InvalidKeySpecException {
-
-        BigInteger keyInt = new BigInteger(privateKey, 16);
-
-        ECParameterSpec ecParameterSpec = ECNamedCurveTable.getParameterSpec(curveName);
-        ECPrivateKeySpec privateKeySpec = new ECPrivateKeySpec(keyInt, ecParameterSpec);
-        KeyFactory keyFactory = KeyFactory.getInstance("EC");
-        ECPrivateKey privKey = (ECPrivateKey) keyFactory.generatePrivate(privateKeySpec);
-
-        return privKey;
-    }
-
-    /**
-     * Get an EC public key (ECPublicKey)
+     * @param header  First HEADER_BYTES_SIZE bytes in Cléa protocol take as associated data in the
+     *                scheme. If null no additional data required
+     * @param message Message of MSG_BYTES_SIZE bytes in Cléa protocol
+     * @param publicKey  EC public key required for encryption in String format
      * 
-     * @param publicKey string format of the key
-     * @throws NoSuchAlgorithmException 
-     * @throws InvalidKeySpecException 
+     * @return return data encrypted [header | encrypted message with tag |
+     *         C0=ephemeral public key]
+     * @throws IOException 
      */
-    private ECPublicKey getECPublicKey(String publicKey) throws NoSuchAlgorithmException, InvalidKeySpecException {
-
-        byte[] keyBytes = Hex.decode(publicKey);
-        ECParameterSpec ecParameterSpec = ECNamedCurveTable.getParameterSpec(curveName);
-        ECPublicKeySpec publicKeySpec = new ECPublicKeySpec(ecParameterSpec.getCurve().decodePoint(keyBytes),
-                ecParameterSpec);
-        KeyFactory keyFactory = KeyFactory.getInstance("EC");
-        ECPublicKey pubKey = (ECPublicKey) keyFactory.generatePublic(publicKeySpec);
-
-        return pubKey;
+    public byte[] encrypt(byte[] header, byte[] message, String publicKey) 
+            throws NoSuchAlgorithmException, InvalidKeySpecException, NoSuchProviderException, 
+                InvalidAlgorithmParameterException, IllegalStateException, InvalidCipherTextException, IOException {
+        CleaPublicKey cleaPublicKey = this.lastPublicKey;
+        if (cleaPublicKey == null || !cleaPublicKey.getHex().equals(publicKey)) {
+            cleaPublicKey = CleaPublicKey.fromHex(publicKey);
+            this.lastPublicKey = cleaPublicKey;
+        }
+        return this.encrypt(header, message, cleaPublicKey);
     }
 
     /**
@@ -153,52 +174,61 @@ public class CleaEciesEncoder {
      * @param header  First HEADER_BYTES_SIZE bytes in Cléa protocol take as associated data in the
      *                scheme. If null no additional data required
      * @param message Message of MSG_BYTES_SIZE bytes in Cléa protocol
-     * @param publicKey  EC public key required for encryption in String format
+     * @param publicKey  EC public key required for encryption, already parsed
      * 
      * @return return data encrypted [header | encrypted message with tag |
      *         C0=ephemeral public key]
-     * @throws IOException 
      */
-    public byte[] encrypt(byte[] header, byte[] message, String publicKey) 
-            throws NoSuchAlgorithmException, InvalidKeySpecException, NoSuchProviderException, 
-                InvalidAlgorithmParameterException, IllegalStateException, InvalidCipherTextException, IOException {
-        /* Public Key */
-        ECPublicKey ecPublicKey = getECPublicKey(publicKey);
-        /* Generate C0 */
-        KeyPairGenerator kpg = KeyPairGenerator.getInstance("EC", "BC");
-        kpg.initialize(new ECGenParameterSpec(curveName), new SecureRandom());
-        KeyPair keyPair = kpg.generateKeyPair();
-        BigInteger r = ((ECPrivateKey) keyPair.getPrivate()).getD(); // r
-        ECPoint C0_Q = ((ECPublicKey) keyPair.getPublic()).getQ(); // r * G
-        byte C0[] = C0_Q.getEncoded(true); // C0 = E(r * G)
+    public byte[] encrypt(byte[] header, byte[] message, CleaPublicKey publicKey) 
+            throws IllegalStateException, InvalidCipherTextException, IOException {
+        int headerLen = header != null ? header.length : 0;
+        byte[] out = new byte[headerLen + message.length + TAG_BYTES_SIZE + C0_BYTES_SIZE];
+        if (header != null) {
+            System.arraycopy(header, 0, out, 0, headerLen);
+        }
+        System.arraycopy(message, 0, out, headerLen, message.length);
+        this.encrypt(out, 0, headerLen, message.length, publicKey);
+        return out;
+    }
 
-        /* Generate secret S */
-        ECPoint S_Q = ecPublicKey.getQ().multiply(r); // S = r * D(PK_HA)
-        //byte S[] = S_Q.getEncoded(true); // E(S)
-        byte S[] = S_Q.normalize().getAffineXCoord().getEncoded(); // S.X
+    /**
+     * Encrypt in place data respecting ECIES-KEM, the buffer holding [header | message] 
+     * and receiving [header | encrypted message with tag | C0=ephemeral public key].
+     * 
+     * @param buffer     buffer holding the data to encrypt, of at least 
+     *                   headerLen + messageLen + TAG_BYTES_SIZE + C0_BYTES_SIZE bytes from offset
+     * @param offset     offset of the data in the buffer
+     * @param headerLen  length of the header taken as associated data, 0 if none
+     * @param messageLen length of the message to encrypt
+     * @param publicKey  EC public key required for encryption, already parsed
+     * @return the length of the encrypted data
+     * @throws InvalidCipherTextException if the encryption fails, the message is then wiped
+     */
+    public int encrypt(byte[] buffer, int offset, int headerLen, int messageLen, CleaPublicKey publicKey) 
+            throws IllegalStateException, InvalidCipherTextException {
+        int length = headerLen + messageLen + TAG_BYTES_SIZE + C0_BYTES_SIZE;
+        if (offset < 0 || buffer.length - offset < length) {
+            throw new IndexOutOfBoundsException("Buffer too small for " + length + " encrypted bytes at offset " + offset);
+        }
+        EciesContext context = this.contexts.get();
+        int c0Off = offset + length - C0_BYTES_SIZE;
 
-        /* Generate AES key using KDF1 */
-        KDF1BytesGenerator kdf = new KDF1BytesGenerator(new SHA256Digest());
-        byte[] key = new byte[32]; // 256-bits AES key
-        kdf.init(new ISO18033KDFParameters(concat(C0, S)));
-        kdf.generateBytes(key, 0, key.length);
+        /* Generate C0 = E(r * G) and secret S.X = (r * D(PK_HA)).X */
+        this.cryptoBackend.encapsulate(publicKey, context.c0, context.secret);
 
-        /* Encode message with AES-GCM */
-        GCMBlockCipher cipher = new GCMBlockCipher(new AESEngine());
-        AEADParameters params = new AEADParameters(new KeyParameter(key), 8 * TAG_BYTES_SIZE, iv);
-        cipher.init(true, params);
-        byte[] out = new byte[message.length + TAG_BYTES_SIZE];
+        /* Generate AES key using KDF1 */
+        context.deriveKey(context.c0, 0, context.secret);
+        Arrays.fill(context.secret, (byte) 0);
 
-        if (header != null) {
-            cipher.processAADBytes(header, 0, header.length);
-        }
-        int pos = cipher.processBytes(message, 0, message.length, out, 0);
-        cipher.doFinal(out, pos);
-        if (header != null) {
-            out = concat(header, out);
+        /* Encode message with AES-GCM in place, with the header as additional data */
+        try {
+            context.encrypt(buffer, offset, headerLen, buffer, offset + headerLen, messageLen, buffer, offset + headerLen);
+        } catch (InvalidCipherTextException | RuntimeException e) {
+            Arrays.fill(buffer, offset + headerLen, offset + length, (byte) 0);
+            throw e;
         }
-
-        return concat(out, C0);
+        System.arraycopy(context.c0, 0, buffer, c0Off, C0_BYTES_SIZE);
+        return length;
     }
 
     /**
@@ -213,46 +243,208 @@ public class CleaEciesEncoder {
      */
     public byte[] decrypt(byte[] encryptedMessage, String privateKeyString, boolean header) 
             throws NoSuchAlgorithmException, InvalidKeySpecException, IOException, IllegalStateException, InvalidCipherTextException { 
-        /* Private Key */
-        ECPrivateKey privateKey = getECPrivateKey(privateKeyString);
+        return this.decrypt(encryptedMessage, CleaPrivateKey.fromHex(privateKeyString), header);
+    }
+
+    /**
+     * Decrypt data respecting ECIES-KEM using: - SECP256R1 ECDH as KEM - KDF1 using
+     * SHA256 hash as KDF - AES-256-GCM with a fixed 96-bits IV as DEM and TAG.
+     * 
+     * @param encryptedMessage Message of 44 bytes in Cléa protocol
+     * @param privateKey    EC private key required for decryption, already parsed
+     * @param header        indicates if there is an header (HEADER_BYTES_SIZE) as
+     *                      additionnal data or not
+     * @return return data decrypted [header | decrypted message]
+     */
+    public byte[] decrypt(byte[] encryptedMessage, CleaPrivateKey privateKey, boolean header) 
+            throws IOException, IllegalStateException, InvalidCipherTextException { 
+        byte[] out = new byte[decryptedLength(encryptedMessage.length)];
+        this.decrypt(encryptedMessage, 0, encryptedMessage.length, privateKey, header, out, 0);
+        return out;
+    }
+
+    /**
+     * Decrypt data respecting ECIES-KEM into a buffer supplied by the caller. 
+     * The KDF and AES-GCM states are reused from one call to the next on the same thread, 
+     * so that a decryption loop does not allocate beyond the EC arithmetic and the 
+     * AES-GCM key setup.
+     * 
+     * @param in            buffer holding the encrypted data [header | encrypted message with tag | C0]
+     * @param inOff         offset of the encrypted data in the buffer
+     * @param inLen         length of the encrypted data
+     * @param privateKey    EC private key required for decryption, already parsed
+     * @param header        indicates if there is an header (HEADER_BYTES_SIZE) as
+     *                      additionnal data or not
+     * @param out           buffer receiving the data decrypted [header | decrypted message], 
+     *                      of at least decryptedLength(inLen) bytes from outOff
+     * @param outOff        offset of the decrypted data in the output buffer
+     * @return the number of bytes written in the output buffer
+     * @throws InvalidCipherTextException if the authentication tag does not match, the output 
+     *                      buffer is then wiped
+     */
+    public int decrypt(byte[] in, int inOff, int inLen, CleaPrivateKey privateKey, boolean header, byte[] out, int outOff) 
+            throws IllegalStateException, InvalidCipherTextException {
+        checkEncryptedLength(inLen, header);
+        if (inOff < 0 || in.length - inOff < inLen) {
+            throw new IndexOutOfBoundsException("Buffer too small for " + inLen + " encrypted bytes at offset " + inOff);
+        }
+        if (outOff < 0 || out.length - outOff < decryptedLength(inLen)) {
+            throw new IndexOutOfBoundsException("Buffer too small for " + decryptedLength(inLen) 
+                    + " decrypted bytes at offset " + outOff);
+        }
+        EciesContext context = this.contexts.get();
         /* Get C0 */
-        ECParameterSpec ecParameterSpec = ECNamedCurveTable.getParameterSpec(curveName);
-        byte C0[] = Arrays.copyOfRange(encryptedMessage, encryptedMessage.length - C0_BYTES_SIZE, encryptedMessage.length);
-        ECPoint C0_Q = ecParameterSpec.getCurve().decodePoint(C0);
-
-        /* Generate secret S */
-        ECPoint S_Q = C0_Q.multiply(privateKey.getD()); // S = x * D(C0)
-        //byte S[] = S_Q.getEncoded(true); // E(S)   
-        byte S[] = S_Q.normalize().getAffineXCoord().getEncoded(); // S.X
-    
+        System.arraycopy(in, inOff + inLen - C0_BYTES_SIZE, context.c0, 0, C0_BYTES_SIZE);
+
+        /* Generate secret S.X = (x * D(C0)).X */
+        this.cryptoBackend.decapsulate(privateKey, context.c0, context.secret);
+
+        return decryptMessage(context, context.secret, in, inOff, inLen, header, out, outOff);
+    }
+
+    /**
+     * Decrypt a batch of data respecting ECIES-KEM with the same private key.
+     * The shared secrets S of the whole batch are computed together by the crypto backend
+     * (the BouncyCastle backend shares one field inversion for the normalization of all of 
+     * them, Montgomery's simultaneous inversion) before running KDF1 and AES-GCM on each message.
+     * 
+     * @param encryptedMessages encrypted data [header | encrypted message with tag | C0], 
+     *                      null entries are skipped
+     * @param privateKey    EC private key required for decryption, already parsed
+     * @param header        indicates if there is an header (HEADER_BYTES_SIZE) as
+     *                      additionnal data or not
+     * @param failures      optional array (may be null) receiving, at the index of each message 
+     *                      that cannot be decrypted, the reason of the failure
+     * @return the data decrypted [header | decrypted message], in the input order, with null 
+     *                      entries for the messages that cannot be decrypted
+     */
+    public byte[][] decryptAll(byte[][] encryptedMessages, CleaPrivateKey privateKey, boolean header, Exception[] failures) {
+        int size = encryptedMessages.length;
+        byte[][] c0s = new byte[size][];
+        byte[][] secrets = new byte[size][];
+        Exception[] errors = new Exception[size];
+        byte[][] decryptedMessages = new byte[size][];
+        EciesContext context = this.contexts.get();
+        for (int i = 0; i < size; i++) {
+            byte[] in = encryptedMessages[i];
+            if (in == null) {
+                continue;
+            }
+            try {
+                checkEncryptedLength(in.length, header);
+                c0s[i] = Arrays.copyOfRange(in, in.length - C0_BYTES_SIZE, in.length);
+                secrets[i] = new byte[CleaCryptoBackend.SECRET_BYTES_SIZE];
+            } catch (InvalidCipherTextException e) {
+                errors[i] = e;
+            }
+        }
+        /* ECDH of the whole batch */
+        this.cryptoBackend.decapsulateAll(privateKey, c0s, secrets, errors);
+        /* KDF1 and AES-GCM message by message */
+        for (int i = 0; i < size; i++) {
+            if (c0s[i] == null || errors[i] != null) {
+                continue;
+            }
+            byte[] in = encryptedMessages[i];
+            byte[] out = new byte[decryptedLength(in.length)];
+            try {
+                decryptMessage(context, secrets[i], in, 0, in.length, header, out, 0);
+                decryptedMessages[i] = out;
+            } catch (InvalidCipherTextException | RuntimeException e) {
+                errors[i] = e;
+            }
+        }
+        if (failures != null) {
+            System.arraycopy(errors, 0, failures, 0, size);
+        }
+        return decryptedMessages;
+    }
+
+    private static void checkEncryptedLength(int inLen, boolean header) throws InvalidCipherTextException {
+        if (decryptedLength(inLen) < (header ? HEADER_BYTES_SIZE : 0)) {
+            throw new InvalidCipherTextException("Bad encrypted message length: " + inLen);
+        }
+    }
+
+    /**
+     * DEM part of the decryption: derive the AES key from C0 (last bytes of the input) and S.X, 
+     * then decrypt and authenticate the message with AES-GCM.
+     */
+    private static int decryptMessage(EciesContext context, byte[] S, byte[] in, int inOff, int inLen, boolean header, 
+            byte[] out, int outOff) throws InvalidCipherTextException {
+        int headerLen = header ? HEADER_BYTES_SIZE : 0;
+        int outLen = decryptedLength(inLen);
+
         /* Generate AES key using KDF1 */
-        KDF1BytesGenerator kdf = new KDF1BytesGenerator(new SHA256Digest());
-        byte[] key = new byte[32]; // 256-bits AES key
-        kdf.init(new ISO18033KDFParameters(concat(C0, S)));
-        kdf.generateBytes(key, 0, key.length);
+        context.deriveKey(in, inOff + inLen - C0_BYTES_SIZE, S);
+        Arrays.fill(S, (byte) 0);
 
         /* Decode message with AES-GCM */
-        GCMBlockCipher cipher = new GCMBlockCipher(new AESEngine());
-        AEADParameters params = new AEADParameters(new KeyParameter(key), 8 * TAG_BYTES_SIZE, iv);
-        cipher.init(false, params);
-
-        byte[] out;
-        int pos;
-        /* With or without header as additional data */
-        if (header) {
-            out = new byte[encryptedMessage.length - C0_BYTES_SIZE - HEADER_BYTES_SIZE - TAG_BYTES_SIZE];
-            cipher.processAADBytes(encryptedMessage, 0, HEADER_BYTES_SIZE);
-            pos = cipher.processBytes(encryptedMessage, HEADER_BYTES_SIZE,
-                    encryptedMessage.length - C0_BYTES_SIZE - HEADER_BYTES_SIZE, out, 0);
-            cipher.doFinal(out, pos);
-            out = concat(Arrays.copyOfRange(encryptedMessage, 0, HEADER_BYTES_SIZE), out);
+        try {
+            /* With or without header as additional data */
+            context.decrypt(in, inOff, headerLen, in, inOff + headerLen, inLen - C0_BYTES_SIZE - headerLen, out, outOff + headerLen);
+            if (header) {
+                System.arraycopy(in, inOff, out, outOff, HEADER_BYTES_SIZE);
+            }
+        } catch (InvalidCipherTextException | RuntimeException e) {
+            /* never leave unauthenticated plaintext in the caller buffer */
+            Arrays.fill(out, outOff, outOff + outLen, (byte) 0);
+            throw e;
+        }
+        return outLen;
+    }
+
+    /**
+     * Decrypt data respecting ECIES-KEM from and into buffers supplied by the caller, 
+     * see {@link #decrypt(byte[], int, int, CleaPrivateKey, boolean, byte[], int)}.
+     * The remaining bytes of the input buffer are decrypted and written at the position 
+     * of the output buffer. Both positions are advanced on success.
+     * 
+     * @return the number of bytes written in the output buffer
+     */
+    public int decrypt(ByteBuffer in, CleaPrivateKey privateKey, boolean header, ByteBuffer out) 
+            throws IllegalStateException, InvalidCipherTextException {
+        int inLen = in.remaining();
+        int outLen = decryptedLength(inLen);
+        if (outLen > out.remaining()) {
+            throw new BufferOverflowException();
+        }
+        byte[] inArray, outArray;
+        int inOff, outOff;
+        EciesContext context = this.contexts.get();
+        if (in.hasArray()) {
+            inArray = in.array();
+            inOff = in.arrayOffset() + in.position();
+        } else {
+            inArray = context.inScratch(inLen);
+            inOff = 0;
+            in.duplicate().get(inArray, 0, inLen);
+        }
+        if (out.hasArray()) {
+            outArray = out.array();
+            outOff = out.arrayOffset() + out.position();
         } else {
-            out = new byte[encryptedMessage.length - C0_BYTES_SIZE - TAG_BYTES_SIZE];
-            pos = cipher.processBytes(encryptedMessage, 0, encryptedMessage.length - C0_BYTES_SIZE, out, 0);
-            cipher.doFinal(out, pos);
+            outArray = context.outScratch(outLen);
+            outOff = 0;
         }
+        this.decrypt(inArray, inOff, inLen, privateKey, header, outArray, outOff);
+        if (!out.hasArray()) {
+            out.put(outArray, 0, outLen);
+            Arrays.fill(outArray, 0, outLen, (byte) 0);
+        } else {
+            /* through Buffer, ByteBuffer.position(int) being a Java 9 covariant override */
+            ((Buffer) out).position(out.position() + outLen);
+        }
+        ((Buffer) in).position(in.position() + inLen);
+        return outLen;
+    }
 
-        return out;
+    /**
+     * @param encryptedLength length of the encrypted data [header | encrypted message with tag | C0]
+     * @return the length of the decrypted data [header | decrypted message]
+     */
+    public static int decryptedLength(int encryptedLength) {
+        return encryptedLength - C0_BYTES_SIZE - TAG_BYTES_SIZE;
     }
 
     /**
@@ -264,9 +456,11 @@ public class CleaEciesEncoder {
      * @param permanentLocationSecretKey  Permanent location secret key (hexastring format)
      * @return LTKey (Temporary Location Key)
      * @throws CleaEncryptionException 
+     * @see LocationTemporaryKeyDeriver to derive the keys of many periods
      */
     public byte[] computeLocationTemporarySecretKey(String permanentLocationSecretKey, Instant periodStartTime) throws CleaEncryptionException {
-        log.info("permanentLocationSecretKey: {}, periodStartTime= {}", permanentLocationSecretKey, periodStartTime);
+        /* never log the permanent location secret key */
+        log.debug("periodStartTime= {}", periodStartTime);
         try {
             byte[] concatKey = this.concat(instantToBytes(periodStartTime), Hex.decode(permanentLocationSecretKey));
             MessageDigest msg = MessageDigest.getInstance("SHA-256");
@@ -374,4 +568,73 @@ public class CleaEciesEncoder {
         return buffer.array();
     }
 
+    /**
+     * Per-thread cryptographic state reused between encryptions/decryptions: 
+     * KDF digest, AES-GCM cipher and working buffers.
+     */
+    private static final class EciesContext {
+        /* KDF1 counter of the single 32-bytes block, starting at 0 */
+        private static final byte[] KDF_COUNTER = new byte[4];
+
+        private final SHA256Digest kdfDigest = new SHA256Digest();
+        private final CleaAeadCipher aeadCipher;
+        private final byte[] key = new byte[32]; // 256-bits AES key
+        private final byte[] c0 = new byte[C0_BYTES_SIZE];
+        private final byte[] secret = new byte[CleaCryptoBackend.SECRET_BYTES_SIZE];
+        private byte[] inScratch = new byte[0];
+        private byte[] outScratch = new byte[0];
+
+        EciesContext(CleaAeadCipher aeadCipher) {
+            this.aeadCipher = aeadCipher;
+        }
+
+        /**
+         * KDF1 (ISO-18033-2) with SHA256, for a single output block:
+         * key = SHA256(C0 | S | counter=0)
+         */
+        void deriveKey(byte[] c0, int c0Off, byte[] secret) {
+            kdfDigest.update(c0, c0Off, C0_BYTES_SIZE);
+            kdfDigest.update(secret, 0, secret.length);
+            kdfDigest.update(KDF_COUNTER, 0, KDF_COUNTER.length);
+            kdfDigest.doFinal(key, 0);
+        }
+
+        /**
+         * AES-GCM encryption with the derived key, which is wiped afterwards
+         */
+        void encrypt(byte[] aad, int aadOff, int aadLen, byte[] in, int inOff, int inLen, byte[] out, int outOff)
+                throws InvalidCipherTextException {
+            try {
+                aeadCipher.encrypt(key, IV, aad, aadOff, aadLen, in, inOff, inLen, out, outOff);
+            } finally {
+                Arrays.fill(key, (byte) 0);
+            }
+        }
+
+        /**
+         * AES-GCM decryption with the derived key, which is wiped afterwards
+         */
+        void decrypt(byte[] aad, int aadOff, int aadLen, byte[] in, int inOff, int inLen, byte[] out, int outOff)
+                throws InvalidCipherTextException {
+            try {
+                aeadCipher.decrypt(key, IV, aad, aadOff, aadLen, in, inOff, inLen, out, outOff);
+            } finally {
+                Arrays.fill(key, (byte) 0);
+            }
+        }
+
+        byte[] inScratch(int length) {
+            if (inScratch.length < length) {
+                inScratch = new byte[length];
+            }
+            return inScratch;
+        }
+
+        byte[] outScratch(int length) {
+            if (outScratch.length < length) {
+                outScratch = new byte[length];
+            }
+            return outScratch;
+        }
+    }
 }
@@ -0,0 +1,196 @@
+/*
+* Copyright (C) Inria, 2021
+*/
+package fr.inria.clea.lsp;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Crypto backend precomputing the encapsulations of the encryptions ahead of time, for the devices
+ * with idle CPU between two encryptions but needing the next one as soon as possible (e.g. the
+ * renewal of a dynamic QR code).
+ *
+ * The expensive part of an ECIES-KEM encryption does not depend on the message: the ephemeral
+ * secret r, C0 = r * G and S = r * PK. A low-priority background thread computes these (C0, S.X)
+ * pairs with the wrapped backend, up to a given depth per public key. An encryption then takes a
+ * precomputed pair, which is used exactly once and wiped, and only runs the KDF and AES-GCM. When
+ * the reservoir of a key is empty, the pair is computed on the calling thread. The decapsulations
+ * are delegated to the wrapped backend.
+ *
+ * <pre>
+ * CleaEciesEncoder encoder = new CleaEciesEncoder(new CleaEphemeralKeyReservoir(new BouncyCastleCryptoBackend()));
+ * </pre>
+ *
+ * The reservoir of a public key is created at its first encryption, or ahead of time by
+ * {@link #reserve(CleaPublicKey)}. The precomputed secrets stay in memory until used or until
+ * the reservoir is closed.
+ *
+ * @see <a href="https://hal.inria.fr/hal-03146022">CLEA protocol</a>
+ */
+@Slf4j
+public class CleaEphemeralKeyReservoir implements CleaCryptoBackend, AutoCloseable {
+    /* Default number of precomputed encapsulations per public key */
+    public static final int DEFAULT_DEPTH = 16;
+    /* Size in bytes of a precomputed encapsulation: | C0 | S.X | */
+    private static final int TUPLE_BYTES_SIZE = CleaEciesEncoder.C0_BYTES_SIZE + SECRET_BYTES_SIZE;
+
+    private final CleaCryptoBackend cryptoBackend;
+    private final int depth;
+    private final Map<CleaPublicKey, BlockingQueue<byte[]>> reservoirs = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+    private final AtomicBoolean refillScheduled = new AtomicBoolean();
+    /* Guards the closed flag: no precomputed encapsulation is added once the reservoirs are drained */
+    private final Object lock = new Object();
+    private boolean closed;
+
+    public CleaEphemeralKeyReservoir(CleaCryptoBackend cryptoBackend) {
+        this(cryptoBackend, DEFAULT_DEPTH);
+    }
+
+    /**
+     * @param cryptoBackend backend computing the encapsulations and the decapsulations
+     * @param depth         number of precomputed encapsulations per public key
+     */
+    public CleaEphemeralKeyReservoir(CleaCryptoBackend cryptoBackend, int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Depth must be positive: " + depth);
+        }
+        this.cryptoBackend = Objects.requireNonNull(cryptoBackend, "cryptoBackend must not be null");
+        this.depth = depth;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "clea-ephemeral-key-reservoir");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Start the precomputation of the encapsulations for a public key, before its first encryption
+     *
+     * @param publicKey EC public key of the recipient
+     */
+    public void reserve(CleaPublicKey publicKey) {
+        this.reservoir(publicKey);
+        this.scheduleRefill();
+    }
+
+    /**
+     * @param publicKey EC public key of the recipient
+     * @return the number of precomputed encapsulations available for the key
+     */
+    public int getAvailable(CleaPublicKey publicKey) {
+        BlockingQueue<byte[]> reservoir = this.reservoirs.get(publicKey);
+        return Objects.isNull(reservoir) ? 0 : reservoir.size();
+    }
+
+    @Override
+    public void encapsulate(CleaPublicKey publicKey, byte[] c0, byte[] secret) {
+        byte[] tuple = this.reservoir(publicKey).poll();
+        if (Objects.isNull(tuple)) {
+            /* reservoir empty: encapsulate on the calling thread */
+            this.cryptoBackend.encapsulate(publicKey, c0, secret);
+        } else {
+            System.arraycopy(tuple, 0, c0, 0, CleaEciesEncoder.C0_BYTES_SIZE);
+            System.arraycopy(tuple, CleaEciesEncoder.C0_BYTES_SIZE, secret, 0, SECRET_BYTES_SIZE);
+            Arrays.fill(tuple, (byte) 0);
+        }
+        this.scheduleRefill();
+    }
+
+    @Override
+    public void decapsulate(CleaPrivateKey privateKey, byte[] c0, byte[] secret) {
+        this.cryptoBackend.decapsulate(privateKey, c0, secret);
+    }
+
+    @Override
+    public void decapsulateAll(CleaPrivateKey privateKey, byte[][] c0s, byte[][] secrets, Exception[] failures) {
+        this.cryptoBackend.decapsulateAll(privateKey, c0s, secrets, failures);
+    }
+
+    /**
+     * Stop the background thread and wipe the precomputed encapsulations
+     */
+    @Override
+    public void close() {
+        synchronized (this.lock) {
+            this.closed = true;
+        }
+        this.executor.shutdownNow();
+        for (BlockingQueue<byte[]> reservoir : this.reservoirs.values()) {
+            byte[] tuple;
+            while (Objects.nonNull(tuple = reservoir.poll())) {
+                Arrays.fill(tuple, (byte) 0);
+            }
+        }
+    }
+
+    private BlockingQueue<byte[]> reservoir(CleaPublicKey publicKey) {
+        return this.reservoirs.computeIfAbsent(Objects.requireNonNull(publicKey, "publicKey must not be null"),
+                key -> new ArrayBlockingQueue<>(this.depth));
+    }
+
+    private void scheduleRefill() {
+        if (this.refillScheduled.compareAndSet(false, true)) {
+            try {
+                this.executor.execute(this::refill);
+            } catch (RejectedExecutionException e) {
+                /* closed */
+                this.refillScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Fill the reservoirs of all the public keys up to the depth
+     */
+    private void refill() {
+        this.refillScheduled.set(false);
+        try {
+            boolean filled;
+            do {
+                filled = false;
+                for (Map.Entry<CleaPublicKey, BlockingQueue<byte[]>> entry : this.reservoirs.entrySet()) {
+                    BlockingQueue<byte[]> reservoir = entry.getValue();
+                    if (reservoir.remainingCapacity() == 0 || Thread.currentThread().isInterrupted()) {
+                        continue;
+                    }
+                    byte[] tuple = new byte[TUPLE_BYTES_SIZE];
+                    byte[] c0 = new byte[CleaEciesEncoder.C0_BYTES_SIZE];
+                    byte[] secret = new byte[SECRET_BYTES_SIZE];
+                    this.cryptoBackend.encapsulate(entry.getKey(), c0, secret);
+                    System.arraycopy(c0, 0, tuple, 0, c0.length);
+                    System.arraycopy(secret, 0, tuple, c0.length, secret.length);
+                    Arrays.fill(secret, (byte) 0);
+                    if (this.offer(reservoir, tuple)) {
+                        filled = true;
+                    } else {
+                        Arrays.fill(tuple, (byte) 0);
+                    }
+                }
+            } while (filled);
+        } catch (RuntimeException e) {
+            log.error("Cannot precompute the ephemeral keys", e);
+        }
+    }
+
+    /**
+     * @return false if the reservoir is full or closed, the tuple being then left to the caller
+     */
+    private boolean offer(BlockingQueue<byte[]> reservoir, byte[] tuple) {
+        synchronized (this.lock) {
+            return !this.closed && reservoir.offer(tuple);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+* Copyright (C) Inria, 2021
+*/
+package fr.inria.clea.lsp;
+
+import java.math.BigInteger;
+import java.util.Objects;
+
+import lombok.EqualsAndHashCode;
+
+/**
+ * EC private key of an authority (e.g. SK_SA or SK_MCTA) on the CLEA curve
+ * (secp256r1), parsed once from its hexadecimal representation.
+ *
+ * Instances are immutable and can be shared between threads, so that a backend
+ * decrypting many messages with the same key does not parse it again for each one.
+ *
+ * @see <a href="https://hal.inria.fr/hal-03146022">CLEA protocol</a>
+ */
+@EqualsAndHashCode
+public final class CleaPrivateKey {
+    /* secret scalar of the key */
+    private final BigInteger d;
+
+    private CleaPrivateKey(BigInteger d) {
+        this.d = d;
+    }
+
+    /**
+     * Parse an EC private key
+     *
+     * @param privateKey private key in hexadecimal format
+     * @return the parsed private key
+     * @throws IllegalArgumentException if the key is not a valid secp256r1 private key
+     */
+    public static CleaPrivateKey fromHex(String privateKey) {
+        Objects.requireNonNull(privateKey, "privateKey must not be null");
+        BigInteger d = new BigInteger(privateKey, 16);
+        BigInteger n = CleaEciesEncoder.EC_PARAMETERS.getN();
+        if (d.signum() <= 0 || d.compareTo(n) >= 0) {
+            throw new IllegalArgumentException("Private key out of the curve order range");
+        }
+        return new CleaPrivateKey(d);
+    }
+
+    /**
+     * @return the secret scalar of the key
+     */
+    public BigInteger getD() {
+        return d;
+    }
+
+    /**
+     * @return the private key in hexadecimal format
+     */
+    public String toHex() {
+        return d.toString(16);
+    }
+
+    @Override
+    public String toString() {
+        /* never log the secret value */
+        return "CleaPrivateKey[secp256r1]";
+    }
+}
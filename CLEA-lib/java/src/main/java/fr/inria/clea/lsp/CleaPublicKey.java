@@ -0,0 +1,94 @@
+/*
+* Copyright (C) Inria, 2021
+*/
+package fr.inria.clea.lsp;
+
+import java.util.Objects;
+
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.FixedPointUtil;
+import org.bouncycastle.util.encoders.Hex;
+
+import lombok.EqualsAndHashCode;
+
+/**
+ * EC public key of an authority (e.g. PK_SA or PK_MCTA) on the CLEA curve
+ * (secp256r1), decoded once from its hexadecimal representation.
+ *
+ * Instances are immutable and can be shared between threads. The comb table
+ * used for the fixed-point multiplications of the encryption is built once,
+ * when the key is parsed.
+ *
+ * @see <a href="https://hal.inria.fr/hal-03146022">CLEA protocol</a>
+ */
+@EqualsAndHashCode
+public final class CleaPublicKey {
+    /* public point of the key, in normalized (affine) coordinates */
+    private final ECPoint q;
+    /* key as given when parsed */
+    @EqualsAndHashCode.Exclude
+    private final String hex;
+
+    private CleaPublicKey(ECPoint q, String hex) {
+        this.q = q;
+        this.hex = hex;
+    }
+
+    /**
+     * Parse an EC public key
+     *
+     * @param publicKey public key in hexadecimal format, compressed [02 or 03 | X]
+     *                  or uncompressed [04 | X | Y]
+     * @return the parsed public key
+     * @throws IllegalArgumentException if the key is not a point of the curve or is the point at infinity
+     */
+    public static CleaPublicKey fromHex(String publicKey) {
+        Objects.requireNonNull(publicKey, "publicKey must not be null");
+        ECPoint q;
+        try {
+            q = CleaEciesEncoder.EC_PARAMETERS.getCurve().decodePoint(Hex.decode(publicKey)).normalize();
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid public key: " + e.getMessage(), e);
+        }
+        if (q.isInfinity()) {
+            throw new IllegalArgumentException("Invalid public key: point at infinity");
+        }
+        /* The key is a fixed point for all encryptions: build its comb table once */
+        FixedPointUtil.precompute(q);
+        return new CleaPublicKey(q, publicKey);
+    }
+
+    /**
+     * @return the public point of the key
+     */
+    public ECPoint getQ() {
+        return q;
+    }
+
+    /**
+     * @return the key in the hexadecimal format it was parsed from
+     */
+    String getHex() {
+        return hex;
+    }
+
+    /**
+     * @param compressed True to get the compressed format of the key
+     * @return the encoded public key
+     */
+    public byte[] getEncoded(boolean compressed) {
+        return q.getEncoded(compressed);
+    }
+
+    /**
+     * @return the public key in hexadecimal (compressed) format
+     */
+    public String toHex() {
+        return Hex.toHexString(this.getEncoded(true));
+    }
+
+    @Override
+    public String toString() {
+        return "CleaPublicKey[" + this.toHex() + "]";
+    }
+}
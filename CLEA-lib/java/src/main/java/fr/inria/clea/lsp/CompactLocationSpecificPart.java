@@ -0,0 +1,309 @@
+/*
+* Copyright (C) Inria, 2021
+*/
+package fr.inria.clea.lsp;
+
+import java.util.Objects;
+import java.util.UUID;
+
+import fr.inria.clea.lsp.utils.TimeUtils;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+
+/**
+ * Compact and immutable Location Specific Part (LSP) contents, for the backends keeping millions
+ * of decoded visits in memory: the LTId is held as two longs, the times as NTP timestamps in an int,
+ * the venue fields packed in one int:
+ * | staff (1) | LTKey present (1) | pad (4) | CRIexp (5) | venueType (5) | venueCat1 (4) | venueCat2 (4) | periodDuration (8) |
+ * and the LTKey inline as four longs, or dropped once the LTId has been verified.
+ *
+ * The conversion from and to a {@link LocationSpecificPart} is lossless for the values fitting the
+ * binary layout of the LSP, i.e. for all the decoded LSPs.
+ *
+ * @see <a href="https://hal.inria.fr/hal-03146022">CLEA protocol</a>
+ */
+@EqualsAndHashCode
+@ToString
+public final class CompactLocationSpecificPart {
+    private static final int STAFF_SHIFT = 31;
+    private static final int LT_KEY_PRESENT_SHIFT = 30;
+    private static final int CRI_EXP_SHIFT = 21;
+    private static final int VENUE_TYPE_SHIFT = 16;
+    private static final int VENUE_CAT1_SHIFT = 12;
+    private static final int VENUE_CAT2_SHIFT = 8;
+
+    private final long locationTemporaryPublicIdMostSignificantBits;
+    private final long locationTemporaryPublicIdLeastSignificantBits;
+    /* | version (3) | type (3) | */
+    private final byte versionAndType;
+    /* | staff | LTKey present | pad | CRIexp | venueType | venueCat1 | venueCat2 | periodDuration | */
+    private final int venueFields;
+    private final int compressedPeriodStartTime;
+    /* NTP timestamp in seconds, unsigned */
+    private final int qrCodeValidityStartTime;
+    /* LTKey, big-endian, zero when dropped */
+    @ToString.Exclude
+    private final long locationTemporarySecretKey0;
+    @ToString.Exclude
+    private final long locationTemporarySecretKey1;
+    @ToString.Exclude
+    private final long locationTemporarySecretKey2;
+    @ToString.Exclude
+    private final long locationTemporarySecretKey3;
+    /* null if absent */
+    private final byte[] encryptedLocationContactMessage;
+
+    private CompactLocationSpecificPart(long locationTemporaryPublicIdMostSignificantBits,
+            long locationTemporaryPublicIdLeastSignificantBits, byte versionAndType, int venueFields,
+            int compressedPeriodStartTime, int qrCodeValidityStartTime, long locationTemporarySecretKey0,
+            long locationTemporarySecretKey1, long locationTemporarySecretKey2, long locationTemporarySecretKey3,
+            byte[] encryptedLocationContactMessage) {
+        this.locationTemporaryPublicIdMostSignificantBits = locationTemporaryPublicIdMostSignificantBits;
+        this.locationTemporaryPublicIdLeastSignificantBits = locationTemporaryPublicIdLeastSignificantBits;
+        this.versionAndType = versionAndType;
+        this.venueFields = venueFields;
+        this.compressedPeriodStartTime = compressedPeriodStartTime;
+        this.qrCodeValidityStartTime = qrCodeValidityStartTime;
+        this.locationTemporarySecretKey0 = locationTemporarySecretKey0;
+        this.locationTemporarySecretKey1 = locationTemporarySecretKey1;
+        this.locationTemporarySecretKey2 = locationTemporarySecretKey2;
+        this.locationTemporarySecretKey3 = locationTemporarySecretKey3;
+        this.encryptedLocationContactMessage = encryptedLocationContactMessage;
+    }
+
+    /**
+     * @param lsp LSP whose fields fit the binary layout of the LSP (e.g. a decoded one)
+     * @return the compact form of the LSP, with copies of the LTKey and the encrypted location contact message
+     * @throws IllegalArgumentException if a field does not fit the binary layout of the LSP
+     * @throws NullPointerException if the LTId or the QR code validity start time is missing
+     */
+    public static CompactLocationSpecificPart from(LocationSpecificPart lsp) {
+        UUID locationTemporaryPublicId = Objects.requireNonNull(lsp.getLocationTemporaryPublicId(),
+                LocationSpecificPart.LOCATION_TEMPORARY_PUBLIC_ID_VALIDATION_MESSAGE);
+        long qrCodeValidityStartTime = TimeUtils.ntpTimestampFromInstant(Objects.requireNonNull(
+                lsp.getQrCodeValidityStartTime(), LocationSpecificPart.QR_CODE_VALIDITY_START_TIME_VALIDATION_MESSAGE));
+        byte[] locationTemporarySecretKey = lsp.getLocationTemporarySecretKey();
+        boolean locationTemporarySecretKeyPresent = Objects.nonNull(locationTemporarySecretKey);
+        if (locationTemporarySecretKeyPresent
+                && locationTemporarySecretKey.length != LocationSpecificPartCodec.LT_KEY_BYTES_SIZE) {
+            throw new IllegalArgumentException(LocationSpecificPart.LOCATION_TEMPORARY_SECRET_KEY_SIZE_VALIDATION_MESSAGE);
+        }
+        return new CompactLocationSpecificPart(
+                locationTemporaryPublicId.getMostSignificantBits(),
+                locationTemporaryPublicId.getLeastSignificantBits(),
+                (byte) (checkField(lsp.getVersion(), 3, "version") << 3 | checkField(lsp.getType(), 3, "type")),
+                venueFields(lsp.isStaff(), locationTemporarySecretKeyPresent,
+                        checkField(lsp.getQrCodeRenewalIntervalExponentCompact(), 5, "qrCodeRenewalIntervalExponentCompact"),
+                        checkField(lsp.getVenueType(), 5, "venueType"),
+                        checkField(lsp.getVenueCategory1(), 4, "venueCategory1"),
+                        checkField(lsp.getVenueCategory2(), 4, "venueCategory2"),
+                        checkField(lsp.getPeriodDuration(), 8, "periodDuration")),
+                checkField(lsp.getCompressedPeriodStartTime(), 24, "compressedPeriodStartTime"),
+                (int) checkField(qrCodeValidityStartTime, 32, "qrCodeValidityStartTime"),
+                locationTemporarySecretKeyPresent ? LocationSpecificPartCodec.getLong(locationTemporarySecretKey, 0) : 0,
+                locationTemporarySecretKeyPresent ? LocationSpecificPartCodec.getLong(locationTemporarySecretKey, 8) : 0,
+                locationTemporarySecretKeyPresent ? LocationSpecificPartCodec.getLong(locationTemporarySecretKey, 16) : 0,
+                locationTemporarySecretKeyPresent ? LocationSpecificPartCodec.getLong(locationTemporarySecretKey, 24) : 0,
+                Objects.isNull(lsp.getEncryptedLocationContactMessage()) ? null : lsp.getEncryptedLocationContactMessage().clone());
+    }
+
+    /**
+     * @param view view of a decrypted LSP
+     * @param keepLocationTemporarySecretKey false to drop the LTKey, e.g. once the LTId has been verified
+     * @return the compact form of the LSP, with a copy of the encrypted location contact message
+     */
+    public static CompactLocationSpecificPart from(LocationSpecificPartView view, boolean keepLocationTemporarySecretKey) {
+        return new CompactLocationSpecificPart(
+                view.getLocationTemporaryPublicIdMostSignificantBits(),
+                view.getLocationTemporaryPublicIdLeastSignificantBits(),
+                (byte) (view.getVersion() << 3 | view.getType()),
+                venueFields(view.isStaff(), keepLocationTemporarySecretKey, view.getQrCodeRenewalIntervalExponentCompact(),
+                        view.getVenueType(), view.getVenueCategory1(), view.getVenueCategory2(), view.getPeriodDuration()),
+                view.getCompressedPeriodStartTime(),
+                (int) view.getQrCodeValidityStartTime(),
+                keepLocationTemporarySecretKey ? view.getLocationTemporarySecretKeyBits(0) : 0,
+                keepLocationTemporarySecretKey ? view.getLocationTemporarySecretKeyBits(1) : 0,
+                keepLocationTemporarySecretKey ? view.getLocationTemporarySecretKeyBits(2) : 0,
+                keepLocationTemporarySecretKey ? view.getLocationTemporarySecretKeyBits(3) : 0,
+                view.getEncryptedLocationContactMessage());
+    }
+
+    private static int venueFields(boolean staff, boolean locationTemporarySecretKeyPresent,
+            int qrCodeRenewalIntervalExponentCompact, int venueType, int venueCategory1, int venueCategory2,
+            int periodDuration) {
+        return (staff ? 1 << STAFF_SHIFT : 0)
+                | (locationTemporarySecretKeyPresent ? 1 << LT_KEY_PRESENT_SHIFT : 0)
+                | qrCodeRenewalIntervalExponentCompact << CRI_EXP_SHIFT
+                | venueType << VENUE_TYPE_SHIFT
+                | venueCategory1 << VENUE_CAT1_SHIFT
+                | venueCategory2 << VENUE_CAT2_SHIFT
+                | periodDuration;
+    }
+
+    private static int checkField(int value, int nbBits, String name) {
+        return (int) checkField((long) value, nbBits, name);
+    }
+
+    private static long checkField(long value, int nbBits, String name) {
+        if (value < 0 || value >= 1L << nbBits) {
+            throw new IllegalArgumentException(name + " does not fit in " + nbBits + " bits: " + value);
+        }
+        return value;
+    }
+
+    /**
+     * @return the same LSP without its LTKey (e.g. once the LTId has been verified)
+     */
+    public CompactLocationSpecificPart withoutLocationTemporarySecretKey() {
+        if (!this.isLocationTemporarySecretKeyPresent()) {
+            return this;
+        }
+        return new CompactLocationSpecificPart(this.locationTemporaryPublicIdMostSignificantBits,
+                this.locationTemporaryPublicIdLeastSignificantBits, this.versionAndType,
+                this.venueFields & ~(1 << LT_KEY_PRESENT_SHIFT), this.compressedPeriodStartTime,
+                this.qrCodeValidityStartTime, 0, 0, 0, 0, this.encryptedLocationContactMessage);
+    }
+
+    /**
+     * @return the fields as a new LocationSpecificPart, with copies of the LTKey (null if dropped)
+     *         and the encrypted location contact message
+     */
+    public LocationSpecificPart toLocationSpecificPart() {
+        return LocationSpecificPart.builder()
+                .version(this.getVersion())
+                .type(this.getType())
+                .locationTemporaryPublicId(this.getLocationTemporaryPublicId())
+                .staff(this.isStaff())
+                .qrCodeRenewalIntervalExponentCompact(this.getQrCodeRenewalIntervalExponentCompact())
+                .venueType(this.getVenueType())
+                .venueCategory1(this.getVenueCategory1())
+                .venueCategory2(this.getVenueCategory2())
+                .periodDuration(this.getPeriodDuration())
+                .compressedPeriodStartTime(this.getCompressedPeriodStartTime())
+                .qrCodeValidityStartTime(TimeUtils.instantFromTimestamp(this.getQrCodeValidityStartTime()))
+                .locationTemporarySecretKey(this.getLocationTemporarySecretKey())
+                .encryptedLocationContactMessage(this.getEncryptedLocationContactMessage())
+                .build();
+    }
+
+    public int getVersion() {
+        return this.versionAndType >>> 3;
+    }
+
+    public int getType() {
+        return this.versionAndType & 0x07;
+    }
+
+    public long getLocationTemporaryPublicIdMostSignificantBits() {
+        return this.locationTemporaryPublicIdMostSignificantBits;
+    }
+
+    public long getLocationTemporaryPublicIdLeastSignificantBits() {
+        return this.locationTemporaryPublicIdLeastSignificantBits;
+    }
+
+    /**
+     * @return the LTId as a new UUID
+     */
+    public UUID getLocationTemporaryPublicId() {
+        return new UUID(this.locationTemporaryPublicIdMostSignificantBits, this.locationTemporaryPublicIdLeastSignificantBits);
+    }
+
+    public boolean isStaff() {
+        return this.venueFields < 0;
+    }
+
+    public boolean isLocationContactMessagePresent() {
+        return Objects.nonNull(this.encryptedLocationContactMessage);
+    }
+
+    public int getQrCodeRenewalIntervalExponentCompact() {
+        return (this.venueFields >>> CRI_EXP_SHIFT) & 0x1F;
+    }
+
+    /**
+     * @return the number of seconds between a new QR code generation.
+     * @see LocationSpecificPart#getQrCodeRenewalInterval()
+     */
+    public int getQrCodeRenewalInterval() {
+        int exponent = this.getQrCodeRenewalIntervalExponentCompact();
+        return (exponent == LocationSpecificPart.QRCODE_NO_RENEWAL) ? 0 : 1 << exponent;
+    }
+
+    public int getVenueType() {
+        return (this.venueFields >>> VENUE_TYPE_SHIFT) & 0x1F;
+    }
+
+    public int getVenueCategory1() {
+        return (this.venueFields >>> VENUE_CAT1_SHIFT) & 0x0F;
+    }
+
+    public int getVenueCategory2() {
+        return (this.venueFields >>> VENUE_CAT2_SHIFT) & 0x0F;
+    }
+
+    public int getPeriodDuration() {
+        return this.venueFields & 0xFF;
+    }
+
+    public int getCompressedPeriodStartTime() {
+        return this.compressedPeriodStartTime;
+    }
+
+    /**
+     * @return starting time of the period, NTP timestamp in seconds
+     */
+    public long getPeriodStartTime() {
+        return (long) this.compressedPeriodStartTime * TimeUtils.NB_SECONDS_PER_HOUR;
+    }
+
+    /**
+     * @return starting time of the QR code validity timespan, NTP timestamp in seconds
+     */
+    public long getQrCodeValidityStartTime() {
+        return Integer.toUnsignedLong(this.qrCodeValidityStartTime);
+    }
+
+    /**
+     * Indicates if the LTKey is kept
+     */
+    public boolean isLocationTemporarySecretKeyPresent() {
+        return (this.venueFields & (1 << LT_KEY_PRESENT_SHIFT)) != 0;
+    }
+
+    /**
+     * Copy the temporary location key for the period
+     *
+     * @param out    buffer receiving the LTKey (LT_KEY_BYTES_SIZE bytes)
+     * @param outOff offset of the LTKey in the buffer
+     * @throws IllegalStateException if the LTKey has been dropped
+     */
+    public void getLocationTemporarySecretKey(byte[] out, int outOff) {
+        if (!this.isLocationTemporarySecretKeyPresent()) {
+            throw new IllegalStateException("Location temporary secret key dropped");
+        }
+        LocationSpecificPartCodec.putLong(this.locationTemporarySecretKey0, out, outOff);
+        LocationSpecificPartCodec.putLong(this.locationTemporarySecretKey1, out, outOff + 8);
+        LocationSpecificPartCodec.putLong(this.locationTemporarySecretKey2, out, outOff + 16);
+        LocationSpecificPartCodec.putLong(this.locationTemporarySecretKey3, out, outOff + 24);
+    }
+
+    /**
+     * @return a copy of the LTKey, null if it has been dropped
+     */
+    public byte[] getLocationTemporarySecretKey() {
+        if (!this.isLocationTemporarySecretKeyPresent()) {
+            return null;
+        }
+        byte[] locationTemporarySecretKey = new byte[LocationSpecificPartCodec.LT_KEY_BYTES_SIZE];
+        this.getLocationTemporarySecretKey(locationTemporarySecretKey, 0);
+        return locationTemporarySecretKey;
+    }
+
+    /**
+     * @return a copy of the encrypted location contact message, null if absent
+     */
+    public byte[] getEncryptedLocationContactMessage() {
+        return Objects.isNull(this.encryptedLocationContactMessage) ? null : this.encryptedLocationContactMessage.clone();
+    }
+}
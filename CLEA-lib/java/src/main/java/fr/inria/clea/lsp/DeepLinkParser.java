@@ -0,0 +1,116 @@
+/*
+* Copyright (C) Inria, 2021
+*/
+package fr.inria.clea.lsp;
+
+import java.util.Objects;
+
+import fr.inria.clea.lsp.exception.CleaEncodingException;
+import fr.inria.clea.lsp.utils.Base64UrlUtils;
+
+/**
+ * Parser of the deep links (COUNTRY_SPECIFIC_PREFIX | LSP in Base64url) scanned from the QR codes,
+ * or of the bare LSPs in Base64url, decoding the encrypted LSP into a buffer supplied by the caller.
+ *
+ * The length of the LSP is checked before any decoding, so that a malformed link is rejected
+ * without decryption. A parser holds no state and can be shared between threads.
+ *
+ * @see <a href="https://hal.inria.fr/hal-03146022">CLEA protocol</a>
+ */
+public class DeepLinkParser {
+    /* Size in bytes of an encrypted LSP without location contact message */
+    public static final int LSP_BYTES_SIZE = CleaEciesEncoder.HEADER_BYTES_SIZE + CleaEciesEncoder.MSG_BYTES_SIZE
+            + CleaEciesEncoder.TAG_BYTES_SIZE + CleaEciesEncoder.C0_BYTES_SIZE;
+    /* Size in bytes of an encrypted LSP with its encrypted location contact message */
+    public static final int LSP_WITH_CONTACT_BYTES_SIZE = LSP_BYTES_SIZE + CleaEciesEncoder.LOC_BYTES_SIZE
+            + CleaEciesEncoder.TAG_BYTES_SIZE + CleaEciesEncoder.C0_BYTES_SIZE;
+
+    private final String prefix;
+
+    public DeepLinkParser() {
+        this(Location.COUNTRY_SPECIFIC_PREFIX);
+    }
+
+    /**
+     * @param prefix country specific prefix of the deep links
+     */
+    public DeepLinkParser(String prefix) {
+        this.prefix = Objects.requireNonNull(prefix, "prefix must not be null");
+    }
+
+    /**
+     * Decode a deep link or a bare LSP
+     *
+     * @param deepLink deep link or LSP in Base64url
+     * @return the encrypted LSP (base64-decoded)
+     * @throws CleaEncodingException if the link is not a LSP in Base64url of a valid length
+     */
+    public byte[] parse(CharSequence deepLink) throws CleaEncodingException {
+        int start = this.lspStart(deepLink, 0, deepLink.length());
+        byte[] out = new byte[this.lspLength(deepLink, start, deepLink.length())];
+        this.decode(deepLink, start, deepLink.length(), out, 0);
+        return out;
+    }
+
+    /**
+     * Decode a deep link or a bare LSP held in a range of a larger text (e.g. an upload payload)
+     *
+     * @param text   text holding the deep link
+     * @param start  index of the first character of the deep link
+     * @param end    index following the last character of the deep link
+     * @param out    buffer receiving the encrypted LSP, at least LSP_WITH_CONTACT_BYTES_SIZE bytes
+     *               from outOff to hold any LSP
+     * @param outOff offset of the encrypted LSP in the buffer
+     * @return the length of the encrypted LSP, LSP_BYTES_SIZE or LSP_WITH_CONTACT_BYTES_SIZE
+     * @throws CleaEncodingException     if the link is not a LSP in Base64url of a valid length
+     * @throws IndexOutOfBoundsException if the buffer is too small for the LSP
+     */
+    public int parse(CharSequence text, int start, int end, byte[] out, int outOff) throws CleaEncodingException {
+        int lspStart = this.lspStart(text, start, end);
+        int length = this.lspLength(text, lspStart, end);
+        if (outOff < 0 || out.length - outOff < length) {
+            throw new IndexOutOfBoundsException("Buffer too small for a LSP of " + length + " bytes at offset " + outOff);
+        }
+        return this.decode(text, lspStart, end, out, outOff);
+    }
+
+    /**
+     * @return the index of the LSP, following the prefix if present
+     */
+    private int lspStart(CharSequence text, int start, int end) {
+        int prefixLength = this.prefix.length();
+        if (end - start < prefixLength) {
+            return start;
+        }
+        for (int i = 0; i < prefixLength; i++) {
+            if (text.charAt(start + i) != this.prefix.charAt(i)) {
+                return start;
+            }
+        }
+        return start + prefixLength;
+    }
+
+    /**
+     * @return the length of the encrypted LSP in Base64url, checked before decoding
+     */
+    private int lspLength(CharSequence text, int start, int end) throws CleaEncodingException {
+        int length;
+        try {
+            length = Base64UrlUtils.decodedLength(text, start, end);
+        } catch (IllegalArgumentException e) {
+            throw new CleaEncodingException("Bad LSP length: " + (end - start) + " characters");
+        }
+        if (length != LSP_BYTES_SIZE && length != LSP_WITH_CONTACT_BYTES_SIZE) {
+            throw new CleaEncodingException("Bad LSP length: " + (end - start) + " characters");
+        }
+        return length;
+    }
+
+    private int decode(CharSequence text, int start, int end, byte[] out, int outOff) throws CleaEncodingException {
+        try {
+            return Base64UrlUtils.decode(text, start, end, out, outOff);
+        } catch (IllegalArgumentException e) {
+            throw new CleaEncodingException(e.getMessage());
+        }
+    }
+}
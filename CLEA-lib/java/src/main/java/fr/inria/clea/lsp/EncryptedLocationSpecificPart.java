@@ -60,6 +60,8 @@ public class EncryptedLocationSpecificPart {
     }
     
     public byte[] binaryEncodedHeader() {
-        return new LocationSpecificPartEncoder().binaryEncodedHeader(this.type, this.version, this.locationTemporaryPublicId);
+        byte[] header = new byte[CleaEciesEncoder.HEADER_BYTES_SIZE];
+        LocationSpecificPartCodec.encodeHeader(this.version, this.type, this.locationTemporaryPublicId, header, 0);
+        return header;
     }
 }
@@ -0,0 +1,105 @@
+/*
+* Copyright (C) Inria, 2021
+*/
+package fr.inria.clea.lsp;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.bouncycastle.crypto.InvalidCipherTextException;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * AES-256-GCM with Cipher("AES/GCM/NoPadding") of the default JDK provider (SunJCE on HotSpot),
+ * whose AES and GHASH are intrinsified with the AES-NI and CLMUL instructions when the CPU has them.
+ */
+@Slf4j
+public class JdkAeadCipher implements CleaAeadCipher {
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    /* Result of the availability check, done once per JVM */
+    private static volatile Boolean available;
+
+    private final Cipher cipher;
+
+    /**
+     * @throws IllegalStateException if AES-256-GCM is not provided by the JDK
+     */
+    public JdkAeadCipher() {
+        try {
+            this.cipher = Cipher.getInstance(TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public int encrypt(byte[] key, byte[] iv, byte[] aad, int aadOff, int aadLen, byte[] in, int inOff, int inLen,
+            byte[] out, int outOff) throws InvalidCipherTextException {
+        try {
+            this.init(Cipher.ENCRYPT_MODE, key, iv, aad, aadOff, aadLen);
+            return cipher.doFinal(in, inOff, inLen, out, outOff);
+        } catch (GeneralSecurityException e) {
+            throw new InvalidCipherTextException("AES-GCM encryption failed", e);
+        }
+    }
+
+    @Override
+    public int decrypt(byte[] key, byte[] iv, byte[] aad, int aadOff, int aadLen, byte[] in, int inOff, int inLen,
+            byte[] out, int outOff) throws InvalidCipherTextException {
+        try {
+            this.init(Cipher.DECRYPT_MODE, key, iv, aad, aadOff, aadLen);
+            /* the plaintext is only released once the tag is checked */
+            return cipher.doFinal(in, inOff, inLen, out, outOff);
+        } catch (GeneralSecurityException e) {
+            throw new InvalidCipherTextException("AES-GCM decryption failed", e);
+        }
+    }
+
+    private void init(int mode, byte[] key, byte[] iv, byte[] aad, int aadOff, int aadLen) throws GeneralSecurityException {
+        cipher.init(mode, new SecretKeySpec(key, "AES"), new GCMParameterSpec(8 * CleaEciesEncoder.TAG_BYTES_SIZE, iv));
+        if (aad != null && aadLen > 0) {
+            cipher.updateAAD(aad, aadOff, aadLen);
+        }
+    }
+
+    /**
+     * Check once that the JDK provides AES-256-GCM (e.g. not restricted by the crypto policy
+     * of an old JRE) and that it gives the same output as the BouncyCastle implementation.
+     *
+     * @return true if the JDK implementation can be used
+     */
+    public static boolean isAvailable() {
+        Boolean result = available;
+        if (result == null) {
+            result = selfTest();
+            available = result;
+        }
+        return result;
+    }
+
+    private static boolean selfTest() {
+        byte[] key = new byte[32];
+        byte[] iv = new byte[12];
+        byte[] aad = new byte[CleaEciesEncoder.HEADER_BYTES_SIZE];
+        byte[] message = new byte[CleaEciesEncoder.MSG_BYTES_SIZE];
+        for (int i = 0; i < message.length; i++) {
+            message[i] = (byte) i;
+        }
+        int outLen = message.length + CleaEciesEncoder.TAG_BYTES_SIZE;
+        try {
+            byte[] jdk = new byte[outLen];
+            byte[] bc = new byte[outLen];
+            new JdkAeadCipher().encrypt(key, iv, aad, 0, aad.length, message, 0, message.length, jdk, 0);
+            new BouncyCastleAeadCipher().encrypt(key, iv, aad, 0, aad.length, message, 0, message.length, bc, 0);
+            return Arrays.equals(jdk, bc);
+        } catch (InvalidCipherTextException | RuntimeException e) {
+            log.warn("AES-GCM of the JDK not available, falling back to BouncyCastle: {}", e.getMessage());
+            return false;
+        }
+    }
+}
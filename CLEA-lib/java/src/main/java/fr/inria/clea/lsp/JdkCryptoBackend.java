@@ -0,0 +1,138 @@
+/*
+* Copyright (C) Inria, 2021
+*/
+package fr.inria.clea.lsp;
+
+import java.math.BigInteger;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPrivateKeySpec;
+import java.security.spec.ECPublicKeySpec;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.KeyAgreement;
+
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.util.BigIntegers;
+
+import fr.inria.clea.lsp.exception.CleaEncryptionException;
+
+/**
+ * ECDH backend using the default JCA providers of the JDK (SunEC on HotSpot):
+ * KeyPairGenerator("EC") for the ephemeral keys and KeyAgreement("ECDH") for the
+ * shared secrets. The compressed C0 is decoded with the BouncyCastle curve, which
+ * also validates that it is a point of the curve.
+ *
+ * The JCA forms of the authority keys are cached, so the keys should be long-lived
+ * (e.g. PK_SA, SK_SA, PK_MCTA).
+ */
+public class JdkCryptoBackend implements CleaCryptoBackend {
+    private final ECParameterSpec ecParameterSpec;
+    private final Map<CleaPublicKey, PublicKey> publicKeys = new ConcurrentHashMap<>();
+    private final Map<CleaPrivateKey, PrivateKey> privateKeys = new ConcurrentHashMap<>();
+    /* JCA engines are not thread-safe */
+    private final ThreadLocal<KeyFactory> keyFactory;
+    private final ThreadLocal<KeyAgreement> keyAgreement;
+    private final ThreadLocal<KeyPairGenerator> keyPairGenerator;
+
+    public JdkCryptoBackend() throws CleaEncryptionException {
+        try {
+            AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+            parameters.init(new ECGenParameterSpec(CleaEciesEncoder.CURVE_NAME));
+            this.ecParameterSpec = parameters.getParameterSpec(ECParameterSpec.class);
+            /* fail fast if EC or ECDH are not available */
+            KeyFactory.getInstance("EC");
+            KeyAgreement.getInstance("ECDH");
+        } catch (GeneralSecurityException e) {
+            throw new CleaEncryptionException(e);
+        }
+        this.keyFactory = ThreadLocal.withInitial(() -> {
+            try {
+                return KeyFactory.getInstance("EC");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        this.keyAgreement = ThreadLocal.withInitial(() -> {
+            try {
+                return KeyAgreement.getInstance("ECDH");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        this.keyPairGenerator = ThreadLocal.withInitial(() -> {
+            try {
+                KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+                generator.initialize(this.ecParameterSpec);
+                return generator;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    @Override
+    public void encapsulate(CleaPublicKey publicKey, byte[] c0, byte[] secret) {
+        KeyPair ephemeralKeyPair = this.keyPairGenerator.get().generateKeyPair();
+        java.security.spec.ECPoint w = ((ECPublicKey) ephemeralKeyPair.getPublic()).getW();
+        /* C0 = E(r * G) in compressed format: [02 or 03 | X] */
+        c0[0] = (byte) (w.getAffineY().testBit(0) ? 0x03 : 0x02);
+        BigIntegers.asUnsignedByteArray(w.getAffineX(), c0, 1, CleaEciesEncoder.C0_BYTES_SIZE - 1);
+        this.agree(ephemeralKeyPair.getPrivate(), this.jcaPublicKey(publicKey), secret);
+    }
+
+    @Override
+    public void decapsulate(CleaPrivateKey privateKey, byte[] c0, byte[] secret) {
+        ECPoint C0_Q = CleaEciesEncoder.EC_PARAMETERS.getCurve().decodePoint(c0).normalize();
+        if (C0_Q.isInfinity()) {
+            throw new IllegalArgumentException("Invalid ephemeral public key C0");
+        }
+        this.agree(this.jcaPrivateKey(privateKey), this.jcaPublicKey(C0_Q), secret);
+    }
+
+    private void agree(PrivateKey privateKey, PublicKey publicKey, byte[] secret) {
+        try {
+            KeyAgreement agreement = this.keyAgreement.get();
+            agreement.init(privateKey);
+            agreement.doPhase(publicKey, true);
+            /* S.X */
+            agreement.generateSecret(secret, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private PublicKey jcaPublicKey(CleaPublicKey publicKey) {
+        return this.publicKeys.computeIfAbsent(publicKey, key -> this.jcaPublicKey(key.getQ()));
+    }
+
+    private PublicKey jcaPublicKey(ECPoint point) {
+        java.security.spec.ECPoint w = new java.security.spec.ECPoint(point.getAffineXCoord().toBigInteger(),
+                point.getAffineYCoord().toBigInteger());
+        try {
+            return this.keyFactory.get().generatePublic(new ECPublicKeySpec(w, this.ecParameterSpec));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private PrivateKey jcaPrivateKey(CleaPrivateKey privateKey) {
+        return this.privateKeys.computeIfAbsent(privateKey, key -> {
+            BigInteger d = key.getD();
+            try {
+                return this.keyFactory.get().generatePrivate(new ECPrivateKeySpec(d, this.ecParameterSpec));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalArgumentException(e);
+            }
+        });
+    }
+}
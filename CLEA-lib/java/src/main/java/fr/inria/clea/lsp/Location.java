@@ -1,22 +1,30 @@
 package fr.inria.clea.lsp;
 
+import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.Base64;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
 
 import fr.devnied.bitlib.BytesUtils;
 import fr.inria.clea.lsp.exception.CleaCryptoException;
 import fr.inria.clea.lsp.exception.CleaEncryptionException;
+import fr.inria.clea.lsp.utils.Base64UrlUtils;
+import fr.inria.clea.lsp.utils.TimeUtils;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
-@Builder
 @Slf4j
 public class Location {
     public static final String COUNTRY_SPECIFIC_PREFIX = "https://tac.gouv.fr?v=0#";
+    /* Maximum length in characters of a deep link, with the location contact message */
+    public static final int DEEP_LINK_MAX_LENGTH = COUNTRY_SPECIFIC_PREFIX.length() 
+            + Base64UrlUtils.encodedLength(DeepLinkParser.LSP_WITH_CONTACT_BYTES_SIZE);
+    /* Number of periods published by getPeriod: the current one and the next one computed ahead of time */
+    private static final int PUBLISHED_PERIODS = 2;
     private String permanentLocationSecretKey;
     private String serverAuthorityPublicKey;
     private String manualContactTracingAuthorityPublicKey;
@@ -26,6 +34,26 @@ public class Location {
     private LocationContact contact;
     @Getter
     private LocationSpecificPart locationSpecificPart;
+
+    /* Encoders kept for the lifetime of the location, sharing the ECIES encoder */
+    private LocationSpecificPartEncoder locationSpecificPartEncoder;
+    private LocationContactMessageEncoder locationContactMessageEncoder;
+    /* Encrypted location contact message of the current period, null until first needed */
+    private byte[] encryptedLocationContactMessage;
+    /* Latest periods published by getPeriod, shared by the threads, the latest first */
+    private final AtomicReference<LocationPeriod[]> publishedPeriods = new AtomicReference<>(new LocationPeriod[0]);
+
+    @Builder
+    private Location(String permanentLocationSecretKey, String serverAuthorityPublicKey,
+            String manualContactTracingAuthorityPublicKey, CleaEciesEncoder cleaEncoder, LocationContact contact,
+            LocationSpecificPart locationSpecificPart) {
+        this.permanentLocationSecretKey = permanentLocationSecretKey;
+        this.serverAuthorityPublicKey = serverAuthorityPublicKey;
+        this.manualContactTracingAuthorityPublicKey = manualContactTracingAuthorityPublicKey;
+        this.cleaEncoder = cleaEncoder;
+        this.contact = contact;
+        this.locationSpecificPart = locationSpecificPart;
+    }
     
     /**
      * Create a new deep link (that can be encoded as a QR code)
@@ -64,12 +92,109 @@ public class Location {
      * @throws CleaEncryptionException
      */
     public String newDeepLink(Instant periodStartTime, Instant qrCodeValidityStartTime) throws CleaCryptoException {
-        if(!this.locationSpecificPart.getPeriodStartTime().equals(periodStartTime)){
-            this.setPeriodStartTime(periodStartTime);
-        }
-        this.setQrCodeValidityStartTime(periodStartTime, qrCodeValidityStartTime);
+        this.setTimes(periodStartTime, qrCodeValidityStartTime);
         return COUNTRY_SPECIFIC_PREFIX + this.getLocationSpecificPartEncryptedBase64();
     }
+
+    /**
+     * Create a new deep link (that can be encoded as a QR code) into a buffer supplied by the caller,
+     * at the given period start time with a QR code validaty starting at the given time.
+     * 
+     * @param periodStartTime Starting time of the period. A period necessarily starts at a round hour.
+     * @param qrCodeValidityStartTime Starting time of the QR code validity timespan.
+     * @param out buffer receiving the deep link, of at least DEEP_LINK_MAX_LENGTH characters from outOff
+     * @param outOff offset of the deep link in the buffer
+     * @return the number of characters of the deep link
+     * @throws CleaEncryptionException
+     */
+    public int newDeepLink(Instant periodStartTime, Instant qrCodeValidityStartTime, char[] out, int outOff) 
+            throws CleaCryptoException {
+        this.setTimes(periodStartTime, qrCodeValidityStartTime);
+        this.setLocationContactMessage();
+        int prefixLength = COUNTRY_SPECIFIC_PREFIX.length();
+        if (outOff < 0 || out.length - outOff < prefixLength) {
+            throw new IndexOutOfBoundsException("Buffer too small for a deep link at offset " + outOff);
+        }
+        COUNTRY_SPECIFIC_PREFIX.getChars(0, prefixLength, out, outOff);
+        return prefixLength + this.getLocationSpecificPartEncoder().encodeBase64(locationSpecificPart, out, outOff + prefixLength);
+    }
+
+    /**
+     * Get the immutable snapshot of a period, from which any number of threads can create deep links
+     * concurrently. The snapshots of the two latest periods (e.g. the current one and the next one
+     * computed ahead of time) are computed once and published to all the threads; the snapshot of an
+     * older period is computed again at each call.
+     * 
+     * Unlike the newDeepLink methods, this method does not change the location specific part of the
+     * location: it can be called by several threads, but not concurrently with the newDeepLink methods.
+     *
+     * @param periodStartTime Starting time of the period. A period necessarily starts at a round hour.
+     * @return the snapshot of the period
+     * @throws CleaEncryptionException
+     */
+    public LocationPeriod getPeriod(Instant periodStartTime) throws CleaCryptoException {
+        LocationPeriod period = findPeriod(this.publishedPeriods.get(), periodStartTime);
+        if (Objects.nonNull(period)) {
+            return period;
+        }
+        LocationPeriod newPeriod = this.newPeriod(periodStartTime);
+        for (;;) {
+            LocationPeriod[] periods = this.publishedPeriods.get();
+            period = findPeriod(periods, periodStartTime);
+            if (Objects.nonNull(period)) {
+                /* published meanwhile by another thread */
+                return period;
+            }
+            LocationPeriod[] newPeriods = withPeriod(periods, newPeriod);
+            if (Objects.isNull(newPeriods)) {
+                /* older period, not published */
+                return newPeriod;
+            }
+            if (this.publishedPeriods.compareAndSet(periods, newPeriods)) {
+                return newPeriod;
+            }
+        }
+    }
+
+    private static LocationPeriod findPeriod(LocationPeriod[] periods, Instant periodStartTime) {
+        for (LocationPeriod period : periods) {
+            if (period.getPeriodStartTime().equals(periodStartTime)) {
+                return period;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the latest periods among the published ones and the new one, the latest first,
+     *         null if the new period is older than all the published ones
+     */
+    private static LocationPeriod[] withPeriod(LocationPeriod[] periods, LocationPeriod newPeriod) {
+        LocationPeriod[] newPeriods = new LocationPeriod[Math.min(periods.length + 1, PUBLISHED_PERIODS)];
+        boolean published = false;
+        for (int i = 0, j = 0; i < newPeriods.length; i++) {
+            if (!published && (j == periods.length
+                    || newPeriod.getPeriodStartTime().isAfter(periods[j].getPeriodStartTime()))) {
+                newPeriods[i] = newPeriod;
+                published = true;
+            } else {
+                newPeriods[i] = periods[j++];
+            }
+        }
+        return published ? newPeriods : null;
+    }
+
+    /**
+     * Encrypt the location specific part at the position of a buffer supplied by the caller
+     * 
+     * @param out buffer receiving the encrypted LSP, the position being moved after it
+     * @return the length of the encrypted LSP
+     * @throws CleaEncryptionException
+     */
+    public int getLocationSpecificPartEncrypted(ByteBuffer out) throws CleaCryptoException {
+        this.setLocationContactMessage();
+        return this.getLocationSpecificPartEncoder().encode(locationSpecificPart, out);
+    }
     
     /**
      * Get the encrypted location specific part encoded in Base 64.
@@ -81,14 +206,58 @@ public class Location {
     }
 
     protected byte[] getLocationSpecificPartEncrypted() throws CleaCryptoException {
+        this.setLocationContactMessage();
+        return this.getLocationSpecificPartEncoder().encode(locationSpecificPart);
+    }
+
+    /**
+     * Set the encrypted location contact message in the LSP, encrypted once per period
+     */
+    private void setLocationContactMessage() throws CleaCryptoException {
         if (Objects.nonNull(this.contact)) {
-            this.locationSpecificPart.setEncryptedLocationContactMessage(this.getLocationContactMessageEncrypted());
+            if (Objects.isNull(this.encryptedLocationContactMessage)) {
+                this.encryptedLocationContactMessage = this.getLocationContactMessageEncrypted();
+            }
+            this.locationSpecificPart.setEncryptedLocationContactMessage(this.encryptedLocationContactMessage);
         }
-        return new LocationSpecificPartEncoder(this.serverAuthorityPublicKey).encode(locationSpecificPart);
+    }
+
+    /**
+     * Compute the snapshot of a period from a copy of the location specific part. Synchronized so
+     * that the encoders created on first use are safely shared by the threads.
+     */
+    private synchronized LocationPeriod newPeriod(Instant periodStartTime) throws CleaCryptoException {
+        if (periodStartTime.getEpochSecond() % TimeUtils.NB_SECONDS_PER_HOUR != 0) {
+            throw new IllegalArgumentException("A period starts at a round hour: " + periodStartTime);
+        }
+        byte[] locationTemporarySecretKey = this.getCleaEncoder().computeLocationTemporarySecretKey(this.permanentLocationSecretKey, periodStartTime);
+        LocationSpecificPart periodLocationSpecificPart = this.locationSpecificPart.toBuilder()
+                .locationTemporarySecretKey(locationTemporarySecretKey)
+                .locationTemporaryPublicId(this.getCleaEncoder().computeLocationTemporaryPublicId(locationTemporarySecretKey))
+                .qrCodeValidityStartTime(periodStartTime)
+                .encryptedLocationContactMessage(null)
+                .build();
+        periodLocationSpecificPart.setPeriodStartTime(periodStartTime);
+        if (Objects.nonNull(this.contact)) {
+            LocationContact periodContact = new LocationContact(this.contact.getLocationPhone(),
+                    this.contact.getLocationRegion(), this.contact.getLocationPin(), periodStartTime);
+            periodLocationSpecificPart.setEncryptedLocationContactMessage(this.getLocationContactMessageEncoder().encode(periodContact));
+        }
+        log.debug("new period snapshot: {} ", periodStartTime);
+        return new LocationPeriod(periodStartTime, periodLocationSpecificPart.getPeriodDuration(),
+                periodLocationSpecificPart.getQrCodeRenewalInterval(),
+                this.getLocationSpecificPartEncoder().newTemplate(periodLocationSpecificPart));
+    }
+
+    private void setTimes(Instant periodStartTime, Instant qrCodeValidityStartTime) throws CleaEncryptionException {
+        if(!this.locationSpecificPart.getPeriodStartTime().equals(periodStartTime)){
+            this.setPeriodStartTime(periodStartTime);
+        }
+        this.setQrCodeValidityStartTime(periodStartTime, qrCodeValidityStartTime);
     }
     
     protected byte[] getLocationContactMessageEncrypted() throws CleaCryptoException {
-        return new LocationContactMessageEncoder(this.manualContactTracingAuthorityPublicKey).encode(contact);
+        return this.getLocationContactMessageEncoder().encode(contact);
     }
     
     protected void setPeriodStartTime(Instant periodStartTime) throws CleaEncryptionException {
@@ -100,6 +269,8 @@ public class Location {
         this.locationSpecificPart.setQrCodeValidityStartTime(null);
         if (Objects.nonNull(this.contact)) {
             this.contact.setPeriodStartTime(periodStartTime);
+            /* the contact message holds the period start time */
+            this.encryptedLocationContactMessage = null;
         }
         log.debug("new periodStartTime: {} ", periodStartTime);
         log.debug("locationTemporarySecretKey*: {}*", BytesUtils.bytesToString(locationTemporarySecretKey));
@@ -138,4 +309,30 @@ public class Location {
     protected CleaEciesEncoder getCleaEncoder() {
         return Objects.isNull(this.cleaEncoder) ? this.cleaEncoder = new CleaEciesEncoder() : this.cleaEncoder;
     }
+
+    protected LocationSpecificPartEncoder getLocationSpecificPartEncoder() throws CleaEncryptionException {
+        if (Objects.isNull(this.locationSpecificPartEncoder)) {
+            this.locationSpecificPartEncoder = new LocationSpecificPartEncoder(
+                    this.parsePublicKey(this.serverAuthorityPublicKey), this.getCleaEncoder());
+        }
+        return this.locationSpecificPartEncoder;
+    }
+
+    protected LocationContactMessageEncoder getLocationContactMessageEncoder() throws CleaEncryptionException {
+        if (Objects.isNull(this.locationContactMessageEncoder)) {
+            this.locationContactMessageEncoder = Objects.isNull(this.manualContactTracingAuthorityPublicKey)
+                    ? new LocationContactMessageEncoder((String) null)
+                    : new LocationContactMessageEncoder(this.parsePublicKey(this.manualContactTracingAuthorityPublicKey),
+                            this.getCleaEncoder());
+        }
+        return this.locationContactMessageEncoder;
+    }
+
+    private CleaPublicKey parsePublicKey(String publicKey) throws CleaEncryptionException {
+        try {
+            return Objects.isNull(publicKey) ? null : CleaPublicKey.fromHex(publicKey);
+        } catch (IllegalArgumentException e) {
+            throw new CleaEncryptionException(e);
+        }
+    }
 }
@@ -0,0 +1,159 @@
+/*
+* Copyright (C) Inria, 2021
+*/
+package fr.inria.clea.lsp;
+
+import java.time.Instant;
+
+import fr.inria.clea.lsp.utils.TimeUtils;
+
+/**
+ * Binary layout of the location contact message (locContactMsg, LOC_BYTES_SIZE bytes), packed in two longs:
+ * <ul>
+ * <li>most significant bits: | locationPhone (60) | pad (4) |, one 4-bit nibble by digit, 0xf when empty</li>
+ * <li>least significant bits: | locationRegion (8) | locationPIN (24) | t_periodStart (32) |, one 4-bit nibble by PIN digit</li>
+ * </ul>
+ * The output is the same as the previous bit-by-bit encoding (BitUtils) for the phone numbers of up
+ * to 15 digits and the PINs of 6 digits.
+ *
+ * @see <a href="https://hal.inria.fr/hal-03146022">CLEA protocol</a>
+ */
+public final class LocationContactCodec {
+    /* Maximum number of digits of the phone number */
+    public static final int PHONE_DIGITS = 15;
+    /* Number of digits of the PIN */
+    public static final int PIN_DIGITS = 6;
+
+    private static final int PAD_BITS = 4;
+    private static final int REGION_SHIFT = 56;
+    private static final int PIN_SHIFT = 32;
+    private static final long EMPTY_DIGIT = 0x0F;
+
+    private LocationContactCodec() {
+    }
+
+    /**
+     * Write the location contact message (LOC_BYTES_SIZE bytes)
+     */
+    public static void encode(LocationContact locationContact, byte[] out, int outOff) {
+        encode(locationContact.getLocationPhone(), locationContact.getLocationRegion(), locationContact.getLocationPin(),
+                TimeUtils.ntpTimestampFromInstant(locationContact.getPeriodStartTime()), out, outOff);
+    }
+
+    /**
+     * Write the location contact message (LOC_BYTES_SIZE bytes)
+     *
+     * @param periodStartTime starting time of the period, NTP timestamp in seconds
+     */
+    public static void encode(String locationPhone, int locationRegion, String locationPin, long periodStartTime,
+            byte[] out, int outOff) {
+        LocationSpecificPartCodec.putLong(encodeMostSignificantBits(locationPhone), out, outOff);
+        LocationSpecificPartCodec.putLong(encodeLeastSignificantBits(locationRegion, locationPin, periodStartTime),
+                out, outOff + 8);
+    }
+
+    /**
+     * @return | locationPhone | pad |
+     * @throws IllegalArgumentException if the phone number has more than PHONE_DIGITS digits
+     */
+    public static long encodeMostSignificantBits(String locationPhone) {
+        if (locationPhone.length() > PHONE_DIGITS) {
+            throw new IllegalArgumentException("Location phone of more than " + PHONE_DIGITS + " digits");
+        }
+        long bits = 0;
+        for (int i = 0; i < PHONE_DIGITS; i++) {
+            long digit = (i < locationPhone.length()) ? (locationPhone.charAt(i) - '0') & 0x0F : EMPTY_DIGIT;
+            bits = (bits << 4) | digit;
+        }
+        return bits << PAD_BITS;
+    }
+
+    /**
+     * @param periodStartTime starting time of the period, NTP timestamp in seconds
+     * @return | locationRegion | locationPIN | t_periodStart |
+     * @throws IllegalArgumentException if the PIN has not PIN_DIGITS digits
+     */
+    public static long encodeLeastSignificantBits(int locationRegion, String locationPin, long periodStartTime) {
+        if (locationPin.length() != PIN_DIGITS) {
+            throw new IllegalArgumentException("Location PIN of " + locationPin.length() + " digits");
+        }
+        long pin = 0;
+        for (int i = 0; i < PIN_DIGITS; i++) {
+            pin = (pin << 4) | ((locationPin.charAt(i) - '0') & 0x0F);
+        }
+        return ((long) (locationRegion & 0xFF) << REGION_SHIFT) | (pin << PIN_SHIFT) | (periodStartTime & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Read a location contact message (LOC_BYTES_SIZE bytes)
+     */
+    public static LocationContact decode(byte[] in, int inOff) {
+        long mostSignificantBits = LocationSpecificPartCodec.getLong(in, inOff);
+        long leastSignificantBits = LocationSpecificPartCodec.getLong(in, inOff + 8);
+        return new LocationContact(locationPhone(mostSignificantBits), locationRegion(leastSignificantBits),
+                locationPin(leastSignificantBits), periodStartTimeInstant(leastSignificantBits));
+    }
+
+    /**
+     * @return the 15 nibbles of the phone number, 0xf for the empty digits
+     */
+    public static long locationPhoneNibbles(long mostSignificantBits) {
+        return mostSignificantBits >>> PAD_BITS;
+    }
+
+    /**
+     * @return the phone number, the empty digits being skipped
+     */
+    public static String locationPhone(long mostSignificantBits) {
+        return digits(locationPhoneNibbles(mostSignificantBits), PHONE_DIGITS, true);
+    }
+
+    public static int locationRegion(long leastSignificantBits) {
+        return (int) (leastSignificantBits >>> REGION_SHIFT);
+    }
+
+    /**
+     * @return the 6 nibbles of the PIN
+     */
+    public static int locationPinNibbles(long leastSignificantBits) {
+        return (int) (leastSignificantBits >>> PIN_SHIFT) & 0xFFFFFF;
+    }
+
+    public static String locationPin(long leastSignificantBits) {
+        return digits(locationPinNibbles(leastSignificantBits), PIN_DIGITS, false);
+    }
+
+    /**
+     * @return starting time of the period, NTP timestamp in seconds
+     */
+    public static long periodStartTime(long leastSignificantBits) {
+        return leastSignificantBits & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @return the period start time as an Instant
+     */
+    public static Instant periodStartTimeInstant(long leastSignificantBits) {
+        return TimeUtils.instantFromTimestamp(periodStartTime(leastSignificantBits));
+    }
+
+    /**
+     * @return the decimal digits of the nibbles, a nibble above 9 giving its two-digit value
+     */
+    private static String digits(long nibbles, int nbNibbles, boolean skipEmpty) {
+        char[] chars = new char[2 * nbNibbles];
+        int length = 0;
+        for (int i = nbNibbles - 1; i >= 0; i--) {
+            int digit = (int) (nibbles >>> (4 * i)) & 0x0F;
+            if (skipEmpty && digit == EMPTY_DIGIT) {
+                continue;
+            }
+            if (digit > 9) {
+                chars[length++] = '1';
+                digit -= 10;
+            }
+            chars[length++] = (char) ('0' + digit);
+        }
+        return new String(chars, 0, length);
+    }
+}
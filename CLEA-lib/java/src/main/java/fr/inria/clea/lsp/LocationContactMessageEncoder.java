@@ -1,64 +1,87 @@
 package fr.inria.clea.lsp;
 
 import java.io.IOException;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
-import java.security.spec.InvalidKeySpecException;
-import java.util.Set;
-
-import javax.validation.ConstraintViolation;
-import javax.validation.Validation;
-import javax.validation.Validator;
-import javax.validation.ValidatorFactory;
+import java.util.Objects;
 
 import org.bouncycastle.crypto.InvalidCipherTextException;
 
-import fr.devnied.bitlib.BitUtils;
 import fr.inria.clea.lsp.exception.CleaCryptoException;
 import fr.inria.clea.lsp.exception.CleaEncryptionException;
 import fr.inria.clea.lsp.exception.CleaInvalidLocationContactMessageException;
-import fr.inria.clea.lsp.utils.TimeUtils;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class LocationContactMessageEncoder {
-    private String manualContactTracingAuthorityPublicKey;
+    /* 
+     * Key given in String format: it is the public key when encoding and the secret key 
+     * when decoding. It is parsed on first use in the required form.
+     */
+    private String manualContactTracingAuthorityKey;
+    private CleaPublicKey manualContactTracingAuthorityPublicKey;
+    private CleaPrivateKey manualContactTracingAuthoritySecretKey;
     private CleaEciesEncoder cleaEncoder;
-    private Validator validator;
+    private LocationContactValidator validator = LocationContactValidator.getInstance();
     
-    public LocationContactMessageEncoder(String manualContactTracingAuthorityPublicKey) {
+    /**
+     * @param manualContactTracingAuthorityKey public key (PK_MCTA) to encode, 
+     *          or secret key (SK_MCTA) to decode, in String format
+     */
+    public LocationContactMessageEncoder(String manualContactTracingAuthorityKey) {
         super();
-        this.manualContactTracingAuthorityPublicKey = manualContactTracingAuthorityPublicKey;
+        this.manualContactTracingAuthorityKey = manualContactTracingAuthorityKey;
         cleaEncoder = new CleaEciesEncoder();
-        ValidatorFactory factory = Validation.buildDefaultValidatorFactory();
-        validator = factory.getValidator();
+    }
+
+    /**
+     * This constructor should only be used for encoding.
+     */
+    public LocationContactMessageEncoder(CleaPublicKey manualContactTracingAuthorityPublicKey) {
+        this((String) null);
+        this.manualContactTracingAuthorityPublicKey = manualContactTracingAuthorityPublicKey;
+    }
+
+    /**
+     * This constructor should only be used for encoding.
+     * 
+     * @param cleaEncoder ECIES encoder shared with other encoders
+     */
+    public LocationContactMessageEncoder(CleaPublicKey manualContactTracingAuthorityPublicKey, CleaEciesEncoder cleaEncoder) {
+        this.manualContactTracingAuthorityPublicKey = manualContactTracingAuthorityPublicKey;
+        this.cleaEncoder = Objects.requireNonNull(cleaEncoder, "cleaEncoder must not be null");
+    }
+
+    /**
+     * This constructor should only be used for decoding.
+     */
+    public LocationContactMessageEncoder(CleaPrivateKey manualContactTracingAuthoritySecretKey) {
+        this((String) null);
+        this.manualContactTracingAuthoritySecretKey = manualContactTracingAuthoritySecretKey;
     }
 
     public byte[] encode(LocationContact message) throws CleaCryptoException {
         this.validateMessage(message);
         try {
             byte[] messageBinary = this.getBinaryMessage(message);
-            byte[] encryptedLocationContactMessage = cleaEncoder.encrypt(null, messageBinary, manualContactTracingAuthorityPublicKey);
+            byte[] encryptedLocationContactMessage = cleaEncoder.encrypt(null, messageBinary, this.getPublicKey());
             log.debug("DBG_enc::MSG " + messageBinary.length);
             log.debug("DBG_enc::ENCRYPT " + encryptedLocationContactMessage.length);
 
             return encryptedLocationContactMessage;
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException | NoSuchProviderException
-                | InvalidAlgorithmParameterException | IllegalStateException | InvalidCipherTextException
-                | IOException e) {
+        } catch (IllegalStateException | InvalidCipherTextException | IOException e) {
             throw new CleaEncryptionException(e);
         }
     }
 
+    /**
+     * @param validator validator of the contact messages, e.g. LocationContactValidator.withBeanValidation()
+     *                  for the Bean Validation of the annotations instead of the shared hand-written checks
+     */
+    public void setValidator(LocationContactValidator validator) {
+        this.validator = Objects.requireNonNull(validator, "validator must not be null");
+    }
+
     protected void validateMessage(LocationContact message) throws CleaInvalidLocationContactMessageException {
-        Set<ConstraintViolation<LocationContact>> violations = validator.validate(message);
-        for (ConstraintViolation<LocationContact> violation : violations) {
-            log.error(violation.getMessage()); 
-        }
-        if (!violations.isEmpty()) {
-            throw new CleaInvalidLocationContactMessageException(violations);
-        }
+        this.validator.validateMessage(message);
     }
     
     /**
@@ -68,39 +91,9 @@ public class LocationContactMessageEncoder {
      * @return message in binary format
      */
     public byte[] getBinaryMessage(LocationContact message) {
-        BitUtils locationContactMessage = new BitUtils(8 * CleaEciesEncoder.LOC_BYTES_SIZE);
-        int digit, i, iend;
-
-        /* locationPhone: 60 bits with 4-bit nibble by digit (0xf when empty) */
-        for (i = 0; i < message.getLocationPhone().length(); i++) {
-            /* convert the char in its value */
-            digit = message.getLocationPhone().charAt(i) - 48;
-            locationContactMessage.setNextInteger(digit, 4);
-        }
-        /* 0xf for the remaining 4-bit nibbles up to fifteen */
-        iend = i;
-        for (i = iend; i < 15; i++) {
-            locationContactMessage.setNextInteger(0x0f, 4);
-        }
- 
-        /* padding (4 bits) */
-        locationContactMessage.setNextInteger(0x0, 4);
-        
-        /* t_periodStart (8 bits) */
-        locationContactMessage.setNextInteger(message.getLocationRegion(), 8);
-
-        /* locationPIN: 3 bytes with 4-bit nibble by digit */
-        for (i = 0; i <  message.getLocationPin().length(); i++) {
-            /* convert the char in its value */
-            digit = message.getLocationPin().charAt(i) - 48;
-            locationContactMessage.setNextInteger(digit, 4);
-        }
-
-        /* t_periodStart (32 bits) */
-        long periodStartTime = TimeUtils.ntpTimestampFromInstant(message.getPeriodStartTime());
-        locationContactMessage.setNextLong(periodStartTime, 32);
-
-        return locationContactMessage.getData();
+        byte[] locationContactMessage = new byte[CleaEciesEncoder.LOC_BYTES_SIZE];
+        LocationContactCodec.encode(message, locationContactMessage, 0);
+        return locationContactMessage;
     }
     
     /**
@@ -109,50 +102,80 @@ public class LocationContactMessageEncoder {
      * @throws CleaEncryptionException 
      */
     public LocationContact decode(byte[] encryptedLocationContactMessage) throws CleaCryptoException {
+        LocationContact locationContact = this.decode(encryptedLocationContactMessage, new LocationContactView())
+                .toLocationContact();
+        this.validateMessage(locationContact);
+        return locationContact;
+    }
+
+    /**
+     * Decrypt an encrypted Location contact message without unpacking it: the view is moved
+     * to the decrypted message, its fields being decoded on access. The message is not validated.
+     *
+     * @param encryptedLocationContactMessage encrypted location contact message
+     * @param view view to move to the decrypted message
+     * @return the view
+     * @throws CleaEncryptionException
+     */
+    public LocationContactView decode(byte[] encryptedLocationContactMessage, LocationContactView view)
+            throws CleaEncryptionException {
+        return this.decode(encryptedLocationContactMessage, 0, encryptedLocationContactMessage.length,
+                new byte[CleaEciesEncoder.LOC_BYTES_SIZE], 0, view);
+    }
+
+    /**
+     * Decrypt an encrypted Location contact message held in a range of a buffer into a buffer
+     * supplied by the caller, without unpacking it: the view is moved to the decrypted message,
+     * its fields being decoded on access. The message is not validated.
+     *
+     * @param in buffer holding the encrypted location contact message
+     * @param inOff offset of the encrypted message
+     * @param inLen length of the encrypted message
+     * @param out buffer receiving the decrypted message, CleaEciesEncoder.decryptedLength(inLen) bytes
+     * @param outOff offset of the decrypted message
+     * @param view view to move to the decrypted message
+     * @return the view
+     * @throws CleaEncryptionException
+     */
+    public LocationContactView decode(byte[] in, int inOff, int inLen, byte[] out, int outOff,
+            LocationContactView view) throws CleaEncryptionException {
+        if (CleaEciesEncoder.decryptedLength(inLen) != CleaEciesEncoder.LOC_BYTES_SIZE) {
+            throw new CleaEncryptionException("Bad location contact message length: " + inLen);
+        }
         try {
-            /* Decrypt the data */
-            byte[] binaryLocationContactMessage = cleaEncoder.decrypt(encryptedLocationContactMessage, this.manualContactTracingAuthorityPublicKey , false);
-            BitUtils bitLocationContactMessage = new BitUtils(binaryLocationContactMessage);
-
-            int i, digit;
-            /*
-             * locationPhone: 60 bits with 4-bit nibble by digit (0xf when empty) => 15
-             * digits max
-             */
-            StringBuilder locationPhone = new StringBuilder(15);
-            for (i = 0; i < 15; i++) {
-                /* unpack the 4-bit nibbles */
-                digit = bitLocationContactMessage.getNextInteger(4);
-                if (digit != 0xf) {
-                    locationPhone.append(digit);
-                }
+            this.cleaEncoder.decrypt(in, inOff, inLen, this.getSecretKey(), false, out, outOff);
+        } catch (IllegalStateException | InvalidCipherTextException e) {
+            throw new CleaEncryptionException(e);
+        }
+        return view.wrap(out, outOff);
+    }
+
+    private CleaPublicKey getPublicKey() throws CleaEncryptionException {
+        if (Objects.isNull(this.manualContactTracingAuthorityPublicKey)) {
+            try {
+                this.manualContactTracingAuthorityPublicKey = CleaPublicKey.fromHex(this.requireKey());
+            } catch (IllegalArgumentException e) {
+                throw new CleaEncryptionException(e);
             }
-            
-            /* padding (4 bits) */
-            int pad = bitLocationContactMessage.getNextInteger(4);
-            assert (pad == 0) : "LSP decoding, padding error";
- 
-            /* locationRegion (1 octet) */
-            int locationRegion = bitLocationContactMessage.getNextInteger(8);
-
-            /* locationPIN: 3 bytes with 4-bit nibble by digit => 6 digits */
-            StringBuilder locationPin = new StringBuilder(6);
-            for (i = 0; i < 6; i++) {
-                /* unpack the 4-bit nibbles */
-                locationPin.append(bitLocationContactMessage.getNextInteger(4));
+        }
+        return this.manualContactTracingAuthorityPublicKey;
+    }
+
+    private CleaPrivateKey getSecretKey() throws CleaEncryptionException {
+        if (Objects.isNull(this.manualContactTracingAuthoritySecretKey)) {
+            try {
+                this.manualContactTracingAuthoritySecretKey = CleaPrivateKey.fromHex(this.requireKey());
+            } catch (IllegalArgumentException e) {
+                throw new CleaEncryptionException(e);
             }
-            
-            /* t_periodStart (32 bits) */
-            long periodStartTime = bitLocationContactMessage.getNextLong(32);
-            
-            LocationContact locationContact = new LocationContact(locationPhone.toString(), 
-                    locationRegion, locationPin.toString(), TimeUtils.instantFromTimestamp(periodStartTime));
-            this.validateMessage(locationContact);            
-            return locationContact;
-            
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException | IllegalStateException | InvalidCipherTextException
-                | IOException e) {
-            throw new CleaEncryptionException(e);
         }
+        return this.manualContactTracingAuthoritySecretKey;
+    }
+
+    private String requireKey() throws CleaEncryptionException {
+        if (Objects.isNull(this.manualContactTracingAuthorityKey)) {
+            throw new CleaEncryptionException("Cannot encrypt/decrypt, manualContactTracingAuthorityKey is null!");
+        }
+        return this.manualContactTracingAuthorityKey;
     }
 }
@@ -1,26 +1,86 @@
 package fr.inria.clea.lsp;
 
+import java.util.LinkedHashSet;
+import java.util.Objects;
 import java.util.Set;
 
 import javax.validation.ConstraintViolation;
-import javax.validation.Validation;
 import javax.validation.Validator;
-import javax.validation.ValidatorFactory;
 
 import fr.inria.clea.lsp.exception.CleaInvalidLocationContactMessageException;
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Validation of a LocationContact: the constraints of its annotations are checked by hand,
+ * with the same bounds and messages, without the reflective Bean Validation. The Bean Validation 
+ * remains available for compatibility with withBeanValidation().
+ * 
+ * A validator holds no state and can be shared between threads.
+ */
 @Slf4j
 public class LocationContactValidator {
-    private Validator validator;
+    private static final LocationContactValidator INSTANCE = new LocationContactValidator();
+
+    /* Bean Validation of the annotations, null for the hand-written checks */
+    private final Validator validator;
 
     public LocationContactValidator() {
-        ValidatorFactory factory = Validation.buildDefaultValidatorFactory();
-        validator = factory.getValidator();        
+        this(null);
+    }
+
+    private LocationContactValidator(Validator validator) {
+        this.validator = validator;
+    }
+
+    /**
+     * @return the shared validator with the hand-written checks
+     */
+    public static LocationContactValidator getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return a validator running the Bean Validation of the annotations of LocationContact
+     */
+    public static LocationContactValidator withBeanValidation() {
+        return new LocationContactValidator(BeanValidatorHolder.VALIDATOR);
+    }
+
+    /**
+     * @return the constraint violations of the message, empty if it is valid
+     */
+    public Set<ConstraintViolation<LocationContact>> validate(LocationContact message) {
+        if (Objects.nonNull(this.validator)) {
+            return this.validator.validate(message);
+        }
+        Set<ConstraintViolation<LocationContact>> violations = new LinkedHashSet<>();
+        /* @NotBlank */
+        String locationPhone = message.getLocationPhone();
+        if (Objects.isNull(locationPhone) || locationPhone.trim().isEmpty()) {
+            violations.add(new CleaConstraintViolation<>(LocationContact.PHONE_VALIDATION_MESSAGE, message, 
+                    "locationPhone", locationPhone));
+        }
+        /* @Min(0) @Max(255) */
+        if (message.getLocationRegion() < 0 || message.getLocationRegion() > 255) {
+            violations.add(new CleaConstraintViolation<>(LocationContact.REGION_VALIDATION_MESSAGE, message, 
+                    "locationRegion", message.getLocationRegion()));
+        }
+        /* @Size(min = 6, max = 6) */
+        String locationPin = message.getLocationPin();
+        if (Objects.nonNull(locationPin) && locationPin.length() != 6) {
+            violations.add(new CleaConstraintViolation<>(LocationContact.PIN_VALIDATION_MESSAGE, message, 
+                    "locationPin", locationPin));
+        }
+        /* @NotNull */
+        if (Objects.isNull(message.getPeriodStartTime())) {
+            violations.add(new CleaConstraintViolation<>(LocationContact.PERIOD_START_TIME_VALIDATION_MESSAGE, message, 
+                    "periodStartTime", null));
+        }
+        return violations;
     }
 
     protected void validateMessage(LocationContact message) throws CleaInvalidLocationContactMessageException {
-        Set<ConstraintViolation<LocationContact>> violations = validator.validate(message);
+        Set<ConstraintViolation<LocationContact>> violations = this.validate(message);
         for (ConstraintViolation<LocationContact> violation : violations) {
             log.error(violation.getMessage()); 
         }
@@ -0,0 +1,90 @@
+/*
+* Copyright (C) Inria, 2021
+*/
+package fr.inria.clea.lsp;
+
+/**
+ * Read-only view of a decrypted location contact message (locContactMsg):
+ * | locationPhone | pad | locationRegion | locationPIN | t_periodStart |
+ *
+ * The message is read once as two longs by wrap(), the fields being returned as primitives
+ * (phone and PIN as 4-bit nibbles, time as NTP timestamp in seconds) so that the manual contact
+ * tracing authority can process contact messages in bulk without building a {@link LocationContact}
+ * per message. A view is a flyweight: it is moved from one message to the next with wrap() and
+ * must not be shared between threads.
+ *
+ * @see <a href="https://hal.inria.fr/hal-03146022">CLEA protocol</a>
+ */
+public final class LocationContactView {
+    /* | locationPhone | pad | */
+    private long mostSignificantBits;
+    /* | locationRegion | locationPIN | t_periodStart | */
+    private long leastSignificantBits;
+
+    /**
+     * Move the view to a decrypted location contact message
+     *
+     * @param array  buffer holding the decrypted message
+     * @param offset offset of the message in the buffer
+     * @return this view
+     * @throws IndexOutOfBoundsException if the buffer cannot hold a message at this offset
+     */
+    public LocationContactView wrap(byte[] array, int offset) {
+        if (offset < 0 || array.length - offset < CleaEciesEncoder.LOC_BYTES_SIZE) {
+            throw new IndexOutOfBoundsException("No location contact message at offset " + offset);
+        }
+        this.mostSignificantBits = LocationSpecificPartCodec.getLong(array, offset);
+        this.leastSignificantBits = LocationSpecificPartCodec.getLong(array, offset + 8);
+        return this;
+    }
+
+    /**
+     * Move the view to a decrypted location contact message starting the buffer
+     *
+     * @see #wrap(byte[], int)
+     */
+    public LocationContactView wrap(byte[] array) {
+        return this.wrap(array, 0);
+    }
+
+    /**
+     * @return the 15 4-bit nibbles of the phone number, first digit first, 0xf for the empty digits
+     */
+    public long getLocationPhoneNibbles() {
+        return LocationContactCodec.locationPhoneNibbles(this.mostSignificantBits);
+    }
+
+    public String getLocationPhone() {
+        return LocationContactCodec.locationPhone(this.mostSignificantBits);
+    }
+
+    public int getLocationRegion() {
+        return LocationContactCodec.locationRegion(this.leastSignificantBits);
+    }
+
+    /**
+     * @return the 6 4-bit nibbles of the PIN, first digit first
+     */
+    public int getLocationPinNibbles() {
+        return LocationContactCodec.locationPinNibbles(this.leastSignificantBits);
+    }
+
+    public String getLocationPin() {
+        return LocationContactCodec.locationPin(this.leastSignificantBits);
+    }
+
+    /**
+     * @return starting time of the period, NTP timestamp in seconds
+     */
+    public long getPeriodStartTime() {
+        return LocationContactCodec.periodStartTime(this.leastSignificantBits);
+    }
+
+    /**
+     * @return a location contact holding the fields of the view
+     */
+    public LocationContact toLocationContact() {
+        return new LocationContact(this.getLocationPhone(), this.getLocationRegion(), this.getLocationPin(),
+                LocationContactCodec.periodStartTimeInstant(this.leastSignificantBits));
+    }
+}
@@ -0,0 +1,321 @@
+/*
+* Copyright (C) Inria, 2021
+*/
+package fr.inria.clea.lsp;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+
+import fr.inria.clea.lsp.exception.CleaCryptoException;
+import fr.inria.clea.lsp.exception.CleaEncryptionException;
+import fr.inria.clea.lsp.utils.TimeUtils;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Generation of the deep links of a fleet of locations for a given period, e.g. the static QR codes
+ * of the day for thousands of private events and small venues.
+ *
+ * The venues are read from a stream and cut into chunks generated in parallel, at most a few chunks
+ * being in flight at a time so that the memory stays bounded whatever the size of the fleet. The ECIES
+ * encoder, the encoders, the validators and the authority public keys are created once and shared by
+ * the workers. The results are handed to the sink on the calling thread, in the input order.
+ * A generator can be reused but not shared between threads.
+ *
+ * @see Location to generate the deep links of a single location
+ * @see <a href="https://hal.inria.fr/hal-03146022">CLEA protocol</a>
+ */
+public class LocationFleetGenerator {
+    /* Default number of venues by chunk */
+    public static final int DEFAULT_CHUNK_SIZE = 256;
+
+    private final LocationSpecificPartEncoder locationSpecificPartEncoder;
+    private final LocationContactMessageEncoder locationContactMessageEncoder;
+    private final ChunkPipeline pipeline = new ChunkPipeline(DEFAULT_CHUNK_SIZE);
+
+    /**
+     * @param serverAuthorityPublicKey              PK_SA, in String format
+     * @param manualContactTracingAuthorityPublicKey PK_MCTA, in String format, may be null if no venue has a contact
+     */
+    public LocationFleetGenerator(String serverAuthorityPublicKey, String manualContactTracingAuthorityPublicKey) {
+        this(CleaPublicKey.fromHex(serverAuthorityPublicKey),
+                Objects.isNull(manualContactTracingAuthorityPublicKey) ? null
+                        : CleaPublicKey.fromHex(manualContactTracingAuthorityPublicKey),
+                new CleaEciesEncoder());
+    }
+
+    /**
+     * @param cleaEciesEncoder ECIES encoder shared by the workers, e.g. configured with another {@link CleaCryptoBackend}
+     */
+    public LocationFleetGenerator(CleaPublicKey serverAuthorityPublicKey, CleaPublicKey manualContactTracingAuthorityPublicKey,
+            CleaEciesEncoder cleaEciesEncoder) {
+        Objects.requireNonNull(serverAuthorityPublicKey, "serverAuthorityPublicKey must not be null");
+        Objects.requireNonNull(cleaEciesEncoder, "cleaEciesEncoder must not be null");
+        this.locationSpecificPartEncoder = new LocationSpecificPartEncoder(serverAuthorityPublicKey, cleaEciesEncoder);
+        this.locationContactMessageEncoder = Objects.isNull(manualContactTracingAuthorityPublicKey) ? null
+                : new LocationContactMessageEncoder(manualContactTracingAuthorityPublicKey, cleaEciesEncoder);
+    }
+
+    /**
+     * @param validator validator of the LSPs, e.g. LocationSpecificPartValidator.withBeanValidation()
+     */
+    public void setValidator(LocationSpecificPartValidator validator) {
+        this.locationSpecificPartEncoder.setValidator(validator);
+    }
+
+    /**
+     * @param validator validator of the location contacts, e.g. LocationContactValidator.withBeanValidation()
+     */
+    public void setContactValidator(LocationContactValidator validator) {
+        if (Objects.nonNull(this.locationContactMessageEncoder)) {
+            this.locationContactMessageEncoder.setValidator(validator);
+        }
+    }
+
+    /**
+     * @param executor executor running the chunks (e.g. a ForkJoinPool), the common ForkJoinPool by default
+     */
+    public void setExecutor(Executor executor) {
+        this.pipeline.setExecutor(executor);
+    }
+
+    /**
+     * @param chunkSize number of venues generated together by a worker
+     */
+    public void setChunkSize(int chunkSize) {
+        this.pipeline.setChunkSize(chunkSize);
+    }
+
+    /**
+     * @param maxChunksInFlight maximum number of chunks being generated or waiting for the sink,
+     *                          twice the parallelism by default
+     */
+    public void setMaxChunksInFlight(int maxChunksInFlight) {
+        this.pipeline.setMaxChunksInFlight(maxChunksInFlight);
+    }
+
+    /**
+     * @see #generate(Iterator, Instant, ResultSink)
+     */
+    public long generate(Stream<Venue> venues, Instant periodStartTime, ResultSink sink) throws IOException {
+        return this.generate(venues.iterator(), periodStartTime, sink);
+    }
+
+    /**
+     * Generate the deep links of the venues for a period, the QR code validity starting at the
+     * period start time. A venue that cannot be encoded (e.g. invalid venue fields or contact) is
+     * reported as a failure to the sink without stopping the generation.
+     *
+     * @param venues          venues of the fleet, read once
+     * @param periodStartTime starting time of the period, at a round hour
+     * @param sink            receiver of the results, called on the calling thread in the input order
+     * @return the number of results handed to the sink
+     * @throws IOException if the sink fails
+     */
+    public long generate(Iterator<Venue> venues, Instant periodStartTime, ResultSink sink) throws IOException {
+        if (periodStartTime.getEpochSecond() % TimeUtils.NB_SECONDS_PER_HOUR != 0) {
+            throw new IllegalArgumentException("A period starts at a round hour: " + periodStartTime);
+        }
+        ChunkPipeline.Run<Chunk> run = this.pipeline.start(generated -> {
+            for (int k = 0; k < generated.size; k++) {
+                sink.accept(generated.results[k]);
+            }
+        });
+        int chunkSize = this.pipeline.getChunkSize();
+        long records = 0;
+        Chunk chunk = new Chunk(chunkSize);
+        while (venues.hasNext()) {
+            chunk.venues[chunk.size++] = Objects.requireNonNull(venues.next(), "venue must not be null");
+            records++;
+            if (chunk.size == chunkSize) {
+                this.submit(run, chunk, periodStartTime);
+                chunk = new Chunk(chunkSize);
+            }
+        }
+        if (chunk.size > 0) {
+            this.submit(run, chunk, periodStartTime);
+        }
+        run.finish();
+        return records;
+    }
+
+    /**
+     * Generate the deep links of the venues for a period into a CSV file: one line by venue with
+     * its identifier, its deep link and the reason of the failure, the last two fields being
+     * exclusive.
+     *
+     * @see #generate(Iterator, Instant, ResultSink)
+     */
+    public long generate(Iterator<Venue> venues, Instant periodStartTime, Path output) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            return this.generate(venues, periodStartTime, csvSink(writer));
+        }
+    }
+
+    /**
+     * @return a sink writing the results as CSV lines: id,deepLink,error, the id and the error
+     *         being quoted when needed (RFC 4180)
+     */
+    public static ResultSink csvSink(Writer writer) {
+        return result -> {
+            writer.write(csvField(Objects.toString(result.getVenue().getId(), "")));
+            writer.write(',');
+            if (result.isSuccess()) {
+                writer.write(result.getDeepLink());
+                writer.write(',');
+            } else {
+                writer.write(',');
+                writer.write(csvField(String.valueOf(result.getError().getMessage())));
+            }
+            writer.write('\n');
+        };
+    }
+
+    /**
+     * @return the value as a single CSV field, between double quotes (doubled inside) if it holds
+     *         a comma, a double quote or an end of line
+     */
+    private static String csvField(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return '"' + value.replace("\"", "\"\"") + '"';
+            }
+        }
+        return value;
+    }
+
+    private void submit(ChunkPipeline.Run<Chunk> run, Chunk chunk, Instant periodStartTime) throws IOException {
+        run.submit(() -> this.generate(chunk, periodStartTime));
+    }
+
+    private Chunk generate(Chunk chunk, Instant periodStartTime) {
+        long ntpPeriodStartTime = TimeUtils.ntpTimestampFromInstant(periodStartTime);
+        byte[] ltKey = new byte[LocationTemporaryKeyDeriver.LT_KEY_BYTES_SIZE];
+        long[] ltIdMsb = new long[1];
+        long[] ltIdLsb = new long[1];
+        int prefixLength = Location.COUNTRY_SPECIFIC_PREFIX.length();
+        char[] chars = new char[Location.DEEP_LINK_MAX_LENGTH];
+        Location.COUNTRY_SPECIFIC_PREFIX.getChars(0, prefixLength, chars, 0);
+        for (int k = 0; k < chunk.size; k++) {
+            Venue venue = chunk.venues[k];
+            try {
+                new LocationTemporaryKeyDeriver(venue.getPermanentLocationSecretKey())
+                        .derive(ntpPeriodStartTime, 1, ltKey, 0, ltIdMsb, ltIdLsb, 0);
+                LocationSpecificPart locationSpecificPart = venue.getLocationSpecificPart().toBuilder()
+                        .locationTemporaryPublicId(new UUID(ltIdMsb[0], ltIdLsb[0]))
+                        .locationTemporarySecretKey(ltKey.clone())
+                        .qrCodeValidityStartTime(periodStartTime)
+                        .encryptedLocationContactMessage(this.encryptedLocationContactMessage(venue, periodStartTime))
+                        .build();
+                locationSpecificPart.setPeriodStartTime(periodStartTime);
+                int length = prefixLength + this.locationSpecificPartEncoder.encodeBase64(locationSpecificPart, chars, prefixLength);
+                chunk.results[k] = Result.success(venue, new String(chars, 0, length));
+            } catch (CleaCryptoException e) {
+                chunk.results[k] = Result.failure(venue, e);
+            } catch (RuntimeException e) {
+                /* e.g. permanent location secret key not in hexadecimal */
+                chunk.results[k] = Result.failure(venue, new CleaEncryptionException(e));
+            }
+        }
+        return chunk;
+    }
+
+    private byte[] encryptedLocationContactMessage(Venue venue, Instant periodStartTime) throws CleaCryptoException {
+        LocationContact contact = venue.getContact();
+        if (Objects.isNull(contact)) {
+            return null;
+        }
+        if (Objects.isNull(this.locationContactMessageEncoder)) {
+            throw new CleaEncryptionException("Cannot encrypt the location contact, manualContactTracingAuthorityPublicKey is null!");
+        }
+        return this.locationContactMessageEncoder.encode(new LocationContact(contact.getLocationPhone(),
+                contact.getLocationRegion(), contact.getLocationPin(), periodStartTime));
+    }
+
+    /**
+     * Descriptor of a venue of the fleet
+     */
+    @Getter
+    @Builder
+    @ToString
+    public static class Venue {
+        /* Identifier of the venue for the caller, copied in the results */
+        private final String id;
+        /* SK_L, permanent location secret key (hexastring format) */
+        @ToString.Exclude
+        private final String permanentLocationSecretKey;
+        /* Venue fields (staff, CRIexp, vType, vCat1, vCat2, periodDuration), the period being ignored */
+        private final LocationSpecificPart locationSpecificPart;
+        /* Optional location contact, its period start time being ignored */
+        private final LocationContact contact;
+    }
+
+    /**
+     * Result of the generation of the deep link of one venue: either the deep link or the reason of the failure
+     */
+    @Getter
+    @ToString
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    public static class Result {
+        private final Venue venue;
+        /* Deep link of the venue, null if the generation failed */
+        private final String deepLink;
+        /* Reason of the failure, null if the generation succeeded */
+        private final CleaCryptoException error;
+
+        public static Result success(Venue venue, String deepLink) {
+            return new Result(venue, deepLink, null);
+        }
+
+        public static Result failure(Venue venue, CleaCryptoException error) {
+            return new Result(venue, null, error);
+        }
+
+        /**
+         * @return true if the deep link was successfully generated
+         */
+        public boolean isSuccess() {
+            return Objects.isNull(this.error);
+        }
+    }
+
+    /**
+     * Receiver of the results of a fleet, called in the input order
+     */
+    @FunctionalInterface
+    public interface ResultSink {
+        /**
+         * @param result result of the generation of the deep link of a venue
+         * @throws IOException to stop the generation
+         */
+        void accept(Result result) throws IOException;
+    }
+
+    /**
+     * Venues of the fleet with their results once generated
+     */
+    private static class Chunk {
+        final Venue[] venues;
+        final Result[] results;
+        int size;
+
+        Chunk(int capacity) {
+            this.venues = new Venue[capacity];
+            this.results = new Result[capacity];
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+* Copyright (C) Inria, 2021
+*/
+package fr.inria.clea.lsp;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+import fr.inria.clea.lsp.exception.CleaCryptoException;
+import fr.inria.clea.lsp.utils.TimeUtils;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Immutable snapshot of a period of a location: its LTKey and LTId, its encrypted location contact
+ * message and its packed LSP, computed once when the period starts.
+ *
+ * A snapshot is safely published by {@link Location#getPeriod(Instant)} and can be shared by any
+ * number of threads (e.g. several screens or the requests of a web service), each deep link being
+ * encrypted from the snapshot without lock nor shared mutable state.
+ *
+ * @see <a href="https://hal.inria.fr/hal-03146022">CLEA protocol</a>
+ */
+@Getter
+@ToString
+public final class LocationPeriod {
+    /* Per-thread buffer of the encodings into characters */
+    private static final ThreadLocal<byte[]> SCRATCH =
+            ThreadLocal.withInitial(() -> new byte[DeepLinkParser.LSP_WITH_CONTACT_BYTES_SIZE]);
+
+    private final Instant periodStartTime;
+    /* End of the period, exclusive, Instant.MAX for an unlimited period (a period lasts at least one hour) */
+    private final Instant periodEndTime;
+    /* Number of seconds between two QR codes, 0 if no renewal */
+    private final int qrCodeRenewalInterval;
+    @ToString.Exclude
+    private final LocationSpecificPartTemplate template;
+
+    LocationPeriod(Instant periodStartTime, int periodDuration, int qrCodeRenewalInterval,
+            LocationSpecificPartTemplate template) {
+        this.periodStartTime = periodStartTime;
+        this.periodEndTime = (periodDuration == LocationSpecificPart.UNLIMITED_PERIOD_DURATION) ? Instant.MAX
+                : periodStartTime.plus(Math.max(1, periodDuration), ChronoUnit.HOURS);
+        this.qrCodeRenewalInterval = qrCodeRenewalInterval;
+        this.template = template;
+    }
+
+    /**
+     * Create a new deep link (that can be encoded as a QR code) of the period
+     *
+     * @param qrCodeValidityStartTime Starting time of the QR code validity timespan, within the period
+     *                                and at a multiple of the QR code renewal interval
+     * @return the deep link as a String
+     * @throws IllegalArgumentException if the QR code validity start time does not belong to the period
+     */
+    public String newDeepLink(Instant qrCodeValidityStartTime) throws CleaCryptoException {
+        char[] chars = new char[Location.DEEP_LINK_MAX_LENGTH];
+        return new String(chars, 0, this.newDeepLink(qrCodeValidityStartTime, chars, 0));
+    }
+
+    /**
+     * Create a new deep link (that can be encoded as a QR code) of the period into a buffer
+     * supplied by the caller
+     *
+     * @param qrCodeValidityStartTime Starting time of the QR code validity timespan, within the period
+     *                                and at a multiple of the QR code renewal interval
+     * @param out buffer receiving the deep link, of at least Location.DEEP_LINK_MAX_LENGTH characters from outOff
+     * @param outOff offset of the deep link in the buffer
+     * @return the number of characters of the deep link
+     * @throws IllegalArgumentException if the QR code validity start time does not belong to the period
+     */
+    public int newDeepLink(Instant qrCodeValidityStartTime, char[] out, int outOff) throws CleaCryptoException {
+        this.checkQrCodeValidityStartTime(qrCodeValidityStartTime);
+        int prefixLength = Location.COUNTRY_SPECIFIC_PREFIX.length();
+        if (outOff < 0 || out.length - outOff < prefixLength) {
+            throw new IndexOutOfBoundsException("Buffer too small for a deep link at offset " + outOff);
+        }
+        Location.COUNTRY_SPECIFIC_PREFIX.getChars(0, prefixLength, out, outOff);
+        return prefixLength + this.template.encodeBase64(TimeUtils.ntpTimestampFromInstant(qrCodeValidityStartTime),
+                SCRATCH.get(), out, outOff + prefixLength);
+    }
+
+    /**
+     * @return the start of the renewal interval of the period holding the given time,
+     *         the period start time if there is no renewal or the time precedes the period
+     */
+    public Instant getQrCodeValidityStartTime(Instant time) {
+        if (this.qrCodeRenewalInterval == 0 || time.isBefore(this.periodStartTime)) {
+            return this.periodStartTime;
+        }
+        long elapsed = time.getEpochSecond() - this.periodStartTime.getEpochSecond();
+        return this.periodStartTime.plusSeconds(elapsed - elapsed % this.qrCodeRenewalInterval);
+    }
+
+    /**
+     * @return the end of the validity timespan, exclusive, of the QR code starting at the given time:
+     *         the next renewal, or the end of the period if it comes first
+     */
+    public Instant getQrCodeValidUntil(Instant qrCodeValidityStartTime) {
+        if (this.qrCodeRenewalInterval == 0 || this.periodEndTime.getEpochSecond()
+                - qrCodeValidityStartTime.getEpochSecond() <= this.qrCodeRenewalInterval) {
+            return this.periodEndTime;
+        }
+        return qrCodeValidityStartTime.plusSeconds(this.qrCodeRenewalInterval);
+    }
+
+    private void checkQrCodeValidityStartTime(Instant qrCodeValidityStartTime) {
+        if (qrCodeValidityStartTime.isBefore(this.periodStartTime) || !qrCodeValidityStartTime.isBefore(this.periodEndTime)) {
+            throw new IllegalArgumentException("QR code validity start time " + qrCodeValidityStartTime
+                    + " out of the period [" + this.periodStartTime + ", " + this.periodEndTime + ")");
+        }
+        if (!this.getQrCodeValidityStartTime(qrCodeValidityStartTime).equals(qrCodeValidityStartTime)) {
+            throw new IllegalArgumentException("QR code validity start time " + qrCodeValidityStartTime
+                    + " is not at a renewal of the period starting at " + this.periodStartTime);
+        }
+    }
+}
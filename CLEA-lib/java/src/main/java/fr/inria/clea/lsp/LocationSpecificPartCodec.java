@@ -0,0 +1,199 @@
+/*
+* Copyright (C) Inria, 2021
+*/
+package fr.inria.clea.lsp;
+
+import java.util.Objects;
+import java.util.UUID;
+
+import fr.inria.clea.lsp.LocationSpecificPart.LocationSpecificPartBuilder;
+import fr.inria.clea.lsp.utils.TimeUtils;
+
+/**
+ * Binary layout of the Location Specific Part (LSP), with the fields packed in
+ * longs by constant shifts and masks, from and to buffers supplied by the caller.
+ * <ul>
+ * <li>header (17 bytes): | version (3) | LSPtype (3) | pad (2) | LTId (128) |</li>
+ * <li>msg (44 bytes): | staff (1) | locContactMsgPresent (1) | reserved (12) | CRIexp (5) | vType (5) |
+ * vCat1 (4) | vCat2 (4) | periodDuration (8) | ct_periodStart (24) | t_qrStart (32) | LTKey (256) |</li>
+ * </ul>
+ * The output is the same as the previous bit-by-bit encoding (BitUtils) for all the values fitting
+ * in their field. A value exceeding its field is saturated to the maximum of the field, as BitUtils
+ * did, except that a value of exactly 2^n no longer leaks into the neighbouring field.
+ *
+ * @see <a href="https://hal.inria.fr/hal-03146022">CLEA protocol</a>
+ */
+public final class LocationSpecificPartCodec {
+    /* Offset of the LTId in the header */
+    public static final int LT_ID_OFFSET = 1;
+    /* Offset of t_qrStart in the message */
+    public static final int QR_START_OFFSET = 8;
+    /* Offset of the LTKey in the message */
+    public static final int LT_KEY_OFFSET = 12;
+    /* Size in bytes of the LTKey */
+    public static final int LT_KEY_BYTES_SIZE = LocationSpecificPart.LOCATION_TEMPORARY_SECRET_KEY_SIZE;
+
+    /* Shifts of the fields in the first long of the message */
+    private static final int STAFF_SHIFT = 63;
+    private static final int CONTACT_PRESENT_SHIFT = 62;
+    private static final int CRI_EXP_SHIFT = 45;
+    private static final int VENUE_TYPE_SHIFT = 40;
+    private static final int VENUE_CAT1_SHIFT = 36;
+    private static final int VENUE_CAT2_SHIFT = 32;
+    private static final int PERIOD_DURATION_SHIFT = 24;
+
+    private LocationSpecificPartCodec() {
+    }
+
+    /**
+     * Write the header: | version | LSPtype | pad | LTId |
+     */
+    public static void encodeHeader(int version, int type, UUID locationTemporaryPublicId, byte[] out, int outOff) {
+        encodeHeader(version, type, locationTemporaryPublicId.getMostSignificantBits(),
+                locationTemporaryPublicId.getLeastSignificantBits(), out, outOff);
+    }
+
+    /**
+     * Write the header: | version | LSPtype | pad | LTId |, the LTId given as two longs
+     */
+    public static void encodeHeader(int version, int type, long ltIdMostSignificantBits, long ltIdLeastSignificantBits,
+            byte[] out, int outOff) {
+        out[outOff] = (byte) ((field(version, 0x07) << 5) | (field(type, 0x07) << 2));
+        putLong(ltIdMostSignificantBits, out, outOff + LT_ID_OFFSET);
+        putLong(ltIdLeastSignificantBits, out, outOff + LT_ID_OFFSET + 8);
+    }
+
+    /**
+     * Write the message (MSG_BYTES_SIZE bytes) of a LSP, without the encrypted location contact message
+     */
+    public static void encodeMessage(LocationSpecificPart locationSpecificPart, byte[] out, int outOff) {
+        long fields = encodeMessageFields(locationSpecificPart.isStaff(),
+                locationSpecificPart.isLocationContactMessagePresent(),
+                locationSpecificPart.getQrCodeRenewalIntervalExponentCompact(),
+                locationSpecificPart.getVenueType(),
+                locationSpecificPart.getVenueCategory1(),
+                locationSpecificPart.getVenueCategory2(),
+                locationSpecificPart.getPeriodDuration(),
+                locationSpecificPart.getCompressedPeriodStartTime());
+        putLong(fields, out, outOff);
+        long qrCodeValidityStartTime = Objects.isNull(locationSpecificPart.getQrCodeValidityStartTime()) ?
+                0 :
+                TimeUtils.ntpTimestampFromInstant(locationSpecificPart.getQrCodeValidityStartTime());
+        putInt((int) qrCodeValidityStartTime, out, outOff + QR_START_OFFSET);
+        System.arraycopy(locationSpecificPart.getLocationTemporarySecretKey(), 0, out, outOff + LT_KEY_OFFSET,
+                LT_KEY_BYTES_SIZE);
+    }
+
+    /**
+     * Read the message (MSG_BYTES_SIZE bytes) of a LSP into a builder, without the encrypted
+     * location contact message
+     */
+    public static LocationSpecificPartBuilder<?, ?> decodeMessage(byte[] in, int inOff,
+            LocationSpecificPartBuilder<?, ?> builder) {
+        long fields = getLong(in, inOff);
+        byte[] locationTemporarySecretKey = new byte[LT_KEY_BYTES_SIZE];
+        System.arraycopy(in, inOff + LT_KEY_OFFSET, locationTemporarySecretKey, 0, LT_KEY_BYTES_SIZE);
+        return builder
+            .staff(isStaff(fields))
+            .qrCodeRenewalIntervalExponentCompact(qrCodeRenewalIntervalExponentCompact(fields))
+            .venueType(venueType(fields))
+            .venueCategory1(venueCategory1(fields))
+            .venueCategory2(venueCategory2(fields))
+            .periodDuration(periodDuration(fields))
+            .compressedPeriodStartTime(compressedPeriodStartTime(fields))
+            .qrCodeValidityStartTime(TimeUtils.instantFromTimestamp(getUnsignedInt(in, inOff + QR_START_OFFSET)))
+            .locationTemporarySecretKey(locationTemporarySecretKey);
+    }
+
+    /**
+     * @return the first 64 bits of the message: | staff | locContactMsgPresent | reserved | CRIexp | vType |
+     *         vCat1 | vCat2 | periodDuration | ct_periodStart |
+     */
+    public static long encodeMessageFields(boolean staff, boolean locationContactMessagePresent,
+            int qrCodeRenewalIntervalExponentCompact, int venueType, int venueCategory1, int venueCategory2,
+            int periodDuration, int compressedPeriodStartTime) {
+        return (staff ? 1L << STAFF_SHIFT : 0L)
+                | (locationContactMessagePresent ? 1L << CONTACT_PRESENT_SHIFT : 0L)
+                | ((long) field(qrCodeRenewalIntervalExponentCompact, 0x1F) << CRI_EXP_SHIFT)
+                | ((long) field(venueType, 0x1F) << VENUE_TYPE_SHIFT)
+                | ((long) field(venueCategory1, 0x0F) << VENUE_CAT1_SHIFT)
+                | ((long) field(venueCategory2, 0x0F) << VENUE_CAT2_SHIFT)
+                | ((long) field(periodDuration, 0xFF) << PERIOD_DURATION_SHIFT)
+                | field(compressedPeriodStartTime, 0xFFFFFF);
+    }
+
+    /**
+     * @return the value saturated to the maximum of its field, the low bits of a negative value
+     */
+    private static int field(int value, int max) {
+        return (value > max) ? max : (value & max);
+    }
+
+    public static boolean isStaff(long messageFields) {
+        return (messageFields >>> STAFF_SHIFT) != 0;
+    }
+
+    public static boolean isLocationContactMessagePresent(long messageFields) {
+        return ((messageFields >>> CONTACT_PRESENT_SHIFT) & 0x01) != 0;
+    }
+
+    public static int qrCodeRenewalIntervalExponentCompact(long messageFields) {
+        return (int) (messageFields >>> CRI_EXP_SHIFT) & 0x1F;
+    }
+
+    public static int venueType(long messageFields) {
+        return (int) (messageFields >>> VENUE_TYPE_SHIFT) & 0x1F;
+    }
+
+    public static int venueCategory1(long messageFields) {
+        return (int) (messageFields >>> VENUE_CAT1_SHIFT) & 0x0F;
+    }
+
+    public static int venueCategory2(long messageFields) {
+        return (int) (messageFields >>> VENUE_CAT2_SHIFT) & 0x0F;
+    }
+
+    public static int periodDuration(long messageFields) {
+        return (int) (messageFields >>> PERIOD_DURATION_SHIFT) & 0xFF;
+    }
+
+    public static int compressedPeriodStartTime(long messageFields) {
+        return (int) messageFields & 0xFFFFFF;
+    }
+
+    /**
+     * @return the big-endian long at offset
+     */
+    public static long getLong(byte[] in, int inOff) {
+        return ((long) in[inOff] << 56) | ((long) (in[inOff + 1] & 0xff) << 48)
+                | ((long) (in[inOff + 2] & 0xff) << 40) | ((long) (in[inOff + 3] & 0xff) << 32)
+                | ((long) (in[inOff + 4] & 0xff) << 24) | ((long) (in[inOff + 5] & 0xff) << 16)
+                | ((long) (in[inOff + 6] & 0xff) << 8) | (in[inOff + 7] & 0xff);
+    }
+
+    /**
+     * @return the big-endian unsigned 32-bits integer at offset
+     */
+    public static long getUnsignedInt(byte[] in, int inOff) {
+        return ((long) (in[inOff] & 0xff) << 24) | ((in[inOff + 1] & 0xff) << 16)
+                | ((in[inOff + 2] & 0xff) << 8) | (in[inOff + 3] & 0xff);
+    }
+
+    /**
+     * Write a long in big-endian at offset
+     */
+    public static void putLong(long value, byte[] out, int outOff) {
+        putInt((int) (value >>> 32), out, outOff);
+        putInt((int) value, out, outOff + 4);
+    }
+
+    /**
+     * Write an int in big-endian at offset
+     */
+    public static void putInt(int value, byte[] out, int outOff) {
+        out[outOff] = (byte) (value >>> 24);
+        out[outOff + 1] = (byte) (value >>> 16);
+        out[outOff + 2] = (byte) (value >>> 8);
+        out[outOff + 3] = (byte) value;
+    }
+}
@@ -4,24 +4,28 @@
 package fr.inria.clea.lsp;
 
 import java.io.IOException;
-import java.security.NoSuchAlgorithmException;
-import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 import org.bouncycastle.crypto.InvalidCipherTextException;
 
-import fr.devnied.bitlib.BitUtils;
 import fr.inria.clea.lsp.EncryptedLocationSpecificPart.EncryptedLocationSpecificPartBuilder;
 import fr.inria.clea.lsp.LocationSpecificPart.LocationSpecificPartBuilder;
+import fr.inria.clea.lsp.exception.CleaCryptoException;
 import fr.inria.clea.lsp.exception.CleaEncodingException;
 import fr.inria.clea.lsp.exception.CleaEncryptionException;
-import fr.inria.clea.lsp.utils.TimeUtils;
 import lombok.extern.slf4j.Slf4j;
 
 /**
- * LocationSpecificPart (LSP) contents reader respecting the CLEA protocol
+ * LocationSpecificPart (LSP) contents reader respecting the CLEA protocol.
+ * A decoder holds no per-decryption state and can be shared between threads.
  * 
  * @see <a href="https://hal.inria.fr/hal-03146022">CLEA protocol</a>
  */
@@ -29,8 +33,12 @@ import lombok.extern.slf4j.Slf4j;
 public class LocationSpecificPartDecoder {
 
     private CleaEciesEncoder cleaEciesEncoder;
-    /* EC private key in String format used to decrypt the message part */
-    String serverAuthoritySecretKey;
+    /* EC private key used to decrypt the message part */
+    CleaPrivateKey serverAuthoritySecretKey;
+    /* Parse failure of the key given in String format, reported at decryption */
+    private IllegalArgumentException serverAuthoritySecretKeyError;
+    /* Optional integrity check of the LTId, in the decryption pass */
+    private LocationSpecificPartVerifier verifier;
 
     /**
      * This default constructor should only be used for decoding.
@@ -41,10 +49,48 @@ public class LocationSpecificPartDecoder {
     }
 
     public LocationSpecificPartDecoder(String serverAuthoritySecretKey) {
+        this();
+        if (Objects.nonNull(serverAuthoritySecretKey)) {
+            try {
+                this.serverAuthoritySecretKey = CleaPrivateKey.fromHex(serverAuthoritySecretKey);
+            } catch (IllegalArgumentException e) {
+                this.serverAuthoritySecretKeyError = e;
+            }
+        }
+    }
+
+    public LocationSpecificPartDecoder(CleaPrivateKey serverAuthoritySecretKey) {
         this();
         this.serverAuthoritySecretKey = serverAuthoritySecretKey;
     }
 
+    /**
+     * @param cleaEciesEncoder ECIES encoder, e.g. configured with another {@link CleaCryptoBackend}
+     */
+    public LocationSpecificPartDecoder(CleaPrivateKey serverAuthoritySecretKey, CleaEciesEncoder cleaEciesEncoder) {
+        this.cleaEciesEncoder = cleaEciesEncoder;
+        this.serverAuthoritySecretKey = serverAuthoritySecretKey;
+    }
+
+    /**
+     * Check the LTId of each decrypted LSP against its LTKey before unpacking it, 
+     * the forged or corrupted LSPs being rejected with a CleaInvalidLocationTemporaryPublicIdException.
+     * 
+     * @param verifier verifier of the decrypted LSPs, null to disable the check
+     */
+    public void setVerifier(LocationSpecificPartVerifier verifier) {
+        this.verifier = verifier;
+    }
+
+    private void checkServerAuthoritySecretKey() throws CleaEncryptionException {
+        if (Objects.nonNull(this.serverAuthoritySecretKeyError)) {
+            throw new CleaEncryptionException(this.serverAuthoritySecretKeyError);
+        }
+        if (Objects.isNull(this.serverAuthoritySecretKey)) {
+            throw new CleaEncryptionException("Cannot encrypt, serverAuthoritySecretKey is null!");
+        }
+    }
+
     /**
      * Unpack the data header (binary format, already base64 decrypted): 
      * | version | LSPtype | pad | LTId | to extract parameters
@@ -53,19 +99,15 @@ public class LocationSpecificPartDecoder {
         if (binaryLocationSpecificPart.length < CleaEciesEncoder.HEADER_BYTES_SIZE + CleaEciesEncoder.MSG_BYTES_SIZE) {
             throw new CleaEncodingException("Bad message length: " + binaryLocationSpecificPart.length);
         }
-        byte[] headerBinary = Arrays.copyOfRange(binaryLocationSpecificPart, 0, CleaEciesEncoder.HEADER_BYTES_SIZE);
-        BitUtils header = new BitUtils(headerBinary);
+        LocationSpecificPartHeaderView header = new LocationSpecificPartHeaderView().wrap(binaryLocationSpecificPart, 0);
 
         EncryptedLocationSpecificPartBuilder builder = EncryptedLocationSpecificPart.builder()
-            .version(header.getNextInteger(3))
-            .type(header.getNextInteger(3));
+            .version(header.getVersion())
+            .type(header.getType());
         /* padding (2 bits) */
-        int pad = header.getNextInteger(2);
-        assert (pad == 0) : "LSP decoding, padding error";
+        assert (header.getPadding() == 0) : "LSP decoding, padding error";
         /* LTId (16 bytes) */
-        byte[] uuidBinary = new byte[16];
-        uuidBinary = header.getNextByte(128);
-        builder.locationTemporaryPublicId(this.cleaEciesEncoder.bytesToUuid(uuidBinary));
+        builder.locationTemporaryPublicId(header.toLocationTemporaryPublicId());
         byte[] messageBinary = Arrays.copyOfRange(binaryLocationSpecificPart, CleaEciesEncoder.HEADER_BYTES_SIZE,
                 binaryLocationSpecificPart.length);
         builder.encryptedLocationMessage(messageBinary);
@@ -94,9 +136,7 @@ public class LocationSpecificPartDecoder {
      * @throws CleaEncodingException 
      */
     public LocationSpecificPart decrypt(byte[] encryptedLocationSpecificPart) throws CleaEncryptionException, CleaEncodingException {
-        if (Objects.isNull(serverAuthoritySecretKey)) {
-            throw new CleaEncryptionException("Cannot encrypt, serverAuthoritySecretKey is null!");
-        }
+        this.checkServerAuthoritySecretKey();
         EncryptedLocationSpecificPart encryptedLsp = this.decodeHeader(encryptedLocationSpecificPart);
         return this.decrypt(encryptedLsp);
     }
@@ -109,17 +149,228 @@ public class LocationSpecificPartDecoder {
      * @throws CleaEncodingException 
      */
     public LocationSpecificPart decrypt(EncryptedLocationSpecificPart encryptedLocationSpecificPart) throws CleaEncryptionException, CleaEncodingException {
+        this.checkServerAuthoritySecretKey();
         byte[] binaryLocationSpecificPart;
         try {
             binaryLocationSpecificPart = this.cleaEciesEncoder.decrypt(
                     encryptedLocationSpecificPart.binaryEncoded(), this.serverAuthoritySecretKey, true);
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException | IllegalStateException 
-                | InvalidCipherTextException | IOException e) {
+        } catch (IllegalStateException | InvalidCipherTextException | IOException e) {
             throw new CleaEncryptionException(e);
         }
+        checkMessageLength(binaryLocationSpecificPart);
+        if (Objects.nonNull(this.verifier)) {
+            this.verifier.check(binaryLocationSpecificPart, 0);
+        }
         return this.decodeMessage(binaryLocationSpecificPart, newLocationSpecificPartBuilder(encryptedLocationSpecificPart));
     }
     
+    /**
+     * Decrypt a location Specific Part (LSP) without unpacking it: the view is moved to
+     * the decrypted bytes, its fields being decoded on access.
+     *
+     * @param encryptedLocationSpecificPart Location Specific Part base64-decoded
+     * @param view view to move to the decrypted LSP
+     * @return the view
+     * @throws CleaEncryptionException
+     * @throws CleaEncodingException
+     */
+    public LocationSpecificPartView decrypt(byte[] encryptedLocationSpecificPart, LocationSpecificPartView view)
+            throws CleaEncryptionException, CleaEncodingException {
+        byte[] binaryLocationSpecificPart = new byte[Math.max(0,
+                CleaEciesEncoder.decryptedLength(encryptedLocationSpecificPart.length))];
+        return this.decrypt(encryptedLocationSpecificPart, 0, encryptedLocationSpecificPart.length,
+                binaryLocationSpecificPart, 0, view);
+    }
+
+    /**
+     * Decrypt a location Specific Part (LSP) held in a range of a buffer (e.g. filled by a
+     * {@link DeepLinkParser}) into a buffer supplied by the caller, without unpacking it:
+     * the view is moved to the decrypted bytes, its fields being decoded on access.
+     *
+     * @param in buffer holding the encrypted LSP (base64-decoded)
+     * @param inOff offset of the encrypted LSP
+     * @param inLen length of the encrypted LSP
+     * @param out buffer receiving the decrypted LSP, CleaEciesEncoder.decryptedLength(inLen) bytes
+     * @param outOff offset of the decrypted LSP
+     * @param view view to move to the decrypted LSP
+     * @return the view
+     * @throws CleaEncryptionException
+     * @throws CleaEncodingException
+     */
+    public LocationSpecificPartView decrypt(byte[] in, int inOff, int inLen, byte[] out, int outOff,
+            LocationSpecificPartView view) throws CleaEncryptionException, CleaEncodingException {
+        this.checkServerAuthoritySecretKey();
+        if (CleaEciesEncoder.decryptedLength(inLen) < CleaEciesEncoder.HEADER_BYTES_SIZE + CleaEciesEncoder.MSG_BYTES_SIZE) {
+            throw new CleaEncodingException("Bad message length: " + inLen);
+        }
+        int length;
+        try {
+            length = this.cleaEciesEncoder.decrypt(in, inOff, inLen, this.serverAuthoritySecretKey, true, out, outOff);
+        } catch (IllegalStateException | InvalidCipherTextException e) {
+            throw new CleaEncryptionException(e);
+        }
+        if (Objects.nonNull(this.verifier)) {
+            this.verifier.check(out, outOff);
+        }
+        return view.wrap(out, outOff, length);
+    }
+
+    /**
+     * Decrypt a location Specific Part (LSP) into its compact form, the LTId being checked
+     * by the verifier (if any) before the LTKey is dropped.
+     *
+     * @param encryptedLocationSpecificPart Location Specific Part base64-decoded
+     * @param keepLocationTemporarySecretKey false to drop the LTKey
+     * @return the compact LSP
+     * @throws CleaEncryptionException
+     * @throws CleaEncodingException
+     */
+    public CompactLocationSpecificPart decryptCompact(byte[] encryptedLocationSpecificPart,
+            boolean keepLocationTemporarySecretKey) throws CleaEncryptionException, CleaEncodingException {
+        return CompactLocationSpecificPart.from(this.decrypt(encryptedLocationSpecificPart, new LocationSpecificPartView()),
+                keepLocationTemporarySecretKey);
+    }
+
+    /**
+     * Decrypt and unpack a batch of Location Specific Parts (LSP) in parallel
+     * on the common ForkJoinPool.
+     *
+     * @param encryptedLocationSpecificParts Location Specific Parts base64-decoded
+     * @return the results of the decryptions, in the input order
+     */
+    public List<LocationSpecificPartDecryptionResult> decryptAll(Collection<byte[]> encryptedLocationSpecificParts) {
+        return this.decryptAll(encryptedLocationSpecificParts, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Decrypt and unpack a batch of Location Specific Parts (LSP) in parallel.
+     * A failure on one LSP does not abort the batch: it is reported in its result.
+     * 
+     * @param encryptedLocationSpecificParts Location Specific Parts base64-decoded
+     * @param executor executor running the decryptions (e.g. a ForkJoinPool)
+     * @return the results of the decryptions, in the input order
+     */
+    public List<LocationSpecificPartDecryptionResult> decryptAll(Collection<byte[]> encryptedLocationSpecificParts, Executor executor) {
+        return this.decryptAll(encryptedLocationSpecificParts.toArray(new byte[0][]), executor);
+    }
+
+    /**
+     * Decrypt and unpack a batch of Location Specific Parts (LSP) in parallel 
+     * on the common ForkJoinPool.
+     * 
+     * @param encryptedLocationSpecificParts Location Specific Parts base64-decoded
+     * @return the results of the decryptions, in the input order
+     */
+    public List<LocationSpecificPartDecryptionResult> decryptAll(byte[][] encryptedLocationSpecificParts) {
+        return this.decryptAll(encryptedLocationSpecificParts, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Decrypt and unpack a batch of Location Specific Parts (LSP) in parallel.
+     * A failure on one LSP does not abort the batch: it is reported in its result.
+     * 
+     * @param encryptedLocationSpecificParts Location Specific Parts base64-decoded
+     * @param executor executor running the decryptions (e.g. a ForkJoinPool)
+     * @return the results of the decryptions, in the input order
+     */
+    public List<LocationSpecificPartDecryptionResult> decryptAll(byte[][] encryptedLocationSpecificParts, Executor executor) {
+        return this.decryptAll(encryptedLocationSpecificParts.length, i -> encryptedLocationSpecificParts[i], executor);
+    }
+
+    /**
+     * Decrypt and unpack a batch of Location Specific Parts (LSP) in base64 in parallel.
+     * A failure on one LSP does not abort the batch: it is reported in its result.
+     * 
+     * @param lspBase64 Location Specific Parts in base64
+     * @param executor executor running the decryptions (e.g. a ForkJoinPool)
+     * @return the results of the decryptions, in the input order
+     */
+    public List<LocationSpecificPartDecryptionResult> decryptAll(String[] lspBase64, Executor executor) {
+        return this.decryptAll(lspBase64.length, i -> Base64.getUrlDecoder().decode(lspBase64[i]), executor);
+    }
+
+    /**
+     * Split a batch in chunks of contiguous items, a few per worker to balance the load, 
+     * and wait for all of them.
+     */
+    private List<LocationSpecificPartDecryptionResult> decryptAll(int size, BinaryLocationSpecificPartSupplier supplier, Executor executor) {
+        LocationSpecificPartDecryptionResult[] results = new LocationSpecificPartDecryptionResult[size];
+        int parallelism = (executor instanceof ForkJoinPool) ? ((ForkJoinPool) executor).getParallelism() 
+                : Runtime.getRuntime().availableProcessors();
+        int chunkSize = Math.max(1, (size + 4 * parallelism - 1) / (4 * parallelism));
+        List<CompletableFuture<Void>> chunks = new ArrayList<>();
+        for (int start = 0; start < size; start += chunkSize) {
+            final int chunkStart = start;
+            final int chunkEnd = Math.min(size, start + chunkSize);
+            chunks.add(CompletableFuture.runAsync(() -> this.decryptChunk(supplier, chunkStart, chunkEnd, results), executor));
+        }
+        CompletableFuture.allOf(chunks.toArray(new CompletableFuture[0])).join();
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Decrypt a chunk of a batch: the headers are decoded one by one, then the chunk goes 
+     * through the batch ECIES decryption sharing the normalization of the ECDH secrets.
+     */
+    private void decryptChunk(BinaryLocationSpecificPartSupplier supplier, int start, int end, 
+            LocationSpecificPartDecryptionResult[] results) {
+        int size = end - start;
+        EncryptedLocationSpecificPart[] encryptedLsps = new EncryptedLocationSpecificPart[size];
+        byte[][] binaryEncryptedLsps = new byte[size][];
+        for (int k = 0; k < size; k++) {
+            try {
+                this.checkServerAuthoritySecretKey();
+                encryptedLsps[k] = this.decodeHeader(supplier.get(start + k));
+                binaryEncryptedLsps[k] = encryptedLsps[k].binaryEncoded();
+            } catch (CleaCryptoException e) {
+                results[start + k] = LocationSpecificPartDecryptionResult.failure(e);
+            } catch (RuntimeException e) {
+                /* e.g. bad base64 encoding */
+                log.debug("Cannot decode LSP #{}", start + k, e);
+                results[start + k] = LocationSpecificPartDecryptionResult.failure(new CleaEncryptionException(e));
+            }
+        }
+        Exception[] failures = new Exception[size];
+        byte[][] binaryLsps = this.cleaEciesEncoder.decryptAll(binaryEncryptedLsps, this.serverAuthoritySecretKey, true, failures);
+        for (int k = 0; k < size; k++) {
+            if (Objects.nonNull(results[start + k])) {
+                continue;
+            }
+            if (Objects.isNull(binaryLsps[k])) {
+                /* e.g. C0 not on the curve or bad tag */
+                results[start + k] = LocationSpecificPartDecryptionResult.failure(new CleaEncryptionException(failures[k]));
+            } else {
+                try {
+                    checkMessageLength(binaryLsps[k]);
+                    if (Objects.nonNull(this.verifier)) {
+                        this.verifier.check(binaryLsps[k], 0);
+                    }
+                    results[start + k] = LocationSpecificPartDecryptionResult.success(
+                            this.decodeMessage(binaryLsps[k], newLocationSpecificPartBuilder(encryptedLsps[k])));
+                } catch (CleaCryptoException e) {
+                    results[start + k] = LocationSpecificPartDecryptionResult.failure(e);
+                } catch (RuntimeException e) {
+                    log.debug("Cannot decode LSP #{}", start + k, e);
+                    results[start + k] = LocationSpecificPartDecryptionResult.failure(new CleaEncryptionException(e));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reject the authentic plaintexts too short for a header and a message, before unpacking them
+     */
+    private static void checkMessageLength(byte[] binaryLocationSpecificPart) throws CleaEncodingException {
+        if (binaryLocationSpecificPart.length < CleaEciesEncoder.HEADER_BYTES_SIZE + CleaEciesEncoder.MSG_BYTES_SIZE) {
+            throw new CleaEncodingException("Bad message length: " + binaryLocationSpecificPart.length);
+        }
+    }
+
+    @FunctionalInterface
+    private interface BinaryLocationSpecificPartSupplier {
+        byte[] get(int index);
+    }
+
     private LocationSpecificPartBuilder newLocationSpecificPartBuilder(EncryptedLocationSpecificPart encryptedLocationSpecificPart) {
         return LocationSpecificPart.builder()
             .version(encryptedLocationSpecificPart.getVersion())
@@ -132,30 +383,19 @@ public class LocationSpecificPartDecoder {
      * | Staff | pad2 |CRIexp | vType |
      * vCat1 | vCat2 | reserved | | periodDuration | ct_periodStart | t_qrStart |
      * LTKey | to extract parameters
+     * 
+     * @throws CleaEncodingException if the decrypted LSP is shorter than the header and the message
      */
     public LocationSpecificPart decodeMessage(byte[] binaryLocationSpecificPart, LocationSpecificPartBuilder locationSpecificPartbuilder) {
-        byte[] messageBinary = Arrays.copyOfRange(binaryLocationSpecificPart, CleaEciesEncoder.HEADER_BYTES_SIZE, 
-                CleaEciesEncoder.HEADER_BYTES_SIZE + CleaEciesEncoder.MSG_BYTES_SIZE);
-        BitUtils message = new BitUtils(messageBinary);
         byte[] encryptedLocationContactMessage = Arrays.copyOfRange(binaryLocationSpecificPart, 
                 CleaEciesEncoder.HEADER_BYTES_SIZE + CleaEciesEncoder.MSG_BYTES_SIZE, binaryLocationSpecificPart.length);
         if (encryptedLocationContactMessage.length == 0) {
             encryptedLocationContactMessage = null;
         }
         
-        locationSpecificPartbuilder
-            .staff(message.getNextInteger(1) == 1);
-        message.getNextInteger(1); // skip locationContactMessagePresent
-        message.getNextInteger(12); // skip reserved 
-        locationSpecificPartbuilder
-            .qrCodeRenewalIntervalExponentCompact(message.getNextInteger(5))
-            .venueType(message.getNextInteger(5))
-            .venueCategory1(message.getNextInteger(4))
-            .venueCategory2(message.getNextInteger(4))
-            .periodDuration(message.getNextInteger(8))
-            .compressedPeriodStartTime(message.getNextInteger(24))
-            .qrCodeValidityStartTime(TimeUtils.instantFromTimestamp(message.getNextLong(32)))
-            .locationTemporarySecretKey(message.getNextByte(256))
+        /* locationContactMessagePresent and reserved bits are skipped */
+        LocationSpecificPartCodec.decodeMessage(binaryLocationSpecificPart, CleaEciesEncoder.HEADER_BYTES_SIZE, 
+                locationSpecificPartbuilder)
             .encryptedLocationContactMessage(encryptedLocationContactMessage);
         return locationSpecificPartbuilder.build();            
     }
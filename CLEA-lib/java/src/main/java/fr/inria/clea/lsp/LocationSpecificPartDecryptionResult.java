@@ -0,0 +1,41 @@
+/*
+* Copyright (C) Inria, 2021
+*/
+package fr.inria.clea.lsp;
+
+import java.util.Objects;
+
+import fr.inria.clea.lsp.exception.CleaCryptoException;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Result of the decryption of one Location Specific Part (LSP) in a batch:
+ * either the decoded LSP or the reason of the failure.
+ */
+@Getter
+@ToString
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class LocationSpecificPartDecryptionResult {
+    /* Decoded LSP, null if the decryption failed */
+    private final LocationSpecificPart locationSpecificPart;
+    /* Reason of the failure, null if the decryption succeeded */
+    private final CleaCryptoException error;
+
+    public static LocationSpecificPartDecryptionResult success(LocationSpecificPart locationSpecificPart) {
+        return new LocationSpecificPartDecryptionResult(locationSpecificPart, null);
+    }
+
+    public static LocationSpecificPartDecryptionResult failure(CleaCryptoException error) {
+        return new LocationSpecificPartDecryptionResult(null, error);
+    }
+
+    /**
+     * @return true if the LSP was successfully decrypted and decoded
+     */
+    public boolean isSuccess() {
+        return Objects.isNull(this.error);
+    }
+}
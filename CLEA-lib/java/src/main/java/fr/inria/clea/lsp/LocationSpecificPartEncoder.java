@@ -3,21 +3,17 @@
 */
 package fr.inria.clea.lsp;
 
-import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.util.Objects;
-import java.util.Set;
 import java.util.UUID;
 
-import javax.validation.ConstraintViolation;
-import javax.validation.Validation;
-import javax.validation.Validator;
-import javax.validation.ValidatorFactory;
+import org.bouncycastle.crypto.InvalidCipherTextException;
 
-import fr.devnied.bitlib.BitUtils;
 import fr.inria.clea.lsp.exception.CleaCryptoException;
 import fr.inria.clea.lsp.exception.CleaEncryptionException;
 import fr.inria.clea.lsp.exception.CleaInvalidLocationMessageException;
-import fr.inria.clea.lsp.utils.TimeUtils;
+import fr.inria.clea.lsp.utils.Base64UrlUtils;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -27,34 +23,172 @@ import lombok.extern.slf4j.Slf4j;
  */
 @Slf4j
 public class LocationSpecificPartEncoder {
+    /* Per-thread buffer of the encodings into a direct ByteBuffer or into characters */
+    private static final ThreadLocal<byte[]> SCRATCH = 
+            ThreadLocal.withInitial(() -> new byte[DeepLinkParser.LSP_WITH_CONTACT_BYTES_SIZE]);
     /* ECIES crytography */
     private CleaEciesEncoder cleaEciesEncoder;
-    private String serverAuthorityPublicKey;
-    private Validator validator;
+    private CleaPublicKey serverAuthorityPublicKey;
+    /* Parse failure of the key given in String format, reported at encryption */
+    private IllegalArgumentException serverAuthorityPublicKeyError;
+    private LocationSpecificPartValidator validator = LocationSpecificPartValidator.getInstance();
 
     public LocationSpecificPartEncoder() {
-        this.cleaEciesEncoder = new CleaEciesEncoder();
-        ValidatorFactory factory = Validation.buildDefaultValidatorFactory();
-        validator = factory.getValidator();
+        this(null, new CleaEciesEncoder());
     }
     
     public LocationSpecificPartEncoder(String serverAuthorityPublicKey) {
         this();
+        if (Objects.nonNull(serverAuthorityPublicKey)) {
+            try {
+                this.serverAuthorityPublicKey = CleaPublicKey.fromHex(serverAuthorityPublicKey);
+            } catch (IllegalArgumentException e) {
+                this.serverAuthorityPublicKeyError = e;
+            }
+        }
+    }
+
+    public LocationSpecificPartEncoder(CleaPublicKey serverAuthorityPublicKey) {
+        this(serverAuthorityPublicKey, new CleaEciesEncoder());
+    }
+
+    /**
+     * @param cleaEciesEncoder ECIES encoder, e.g. configured with another {@link CleaCryptoBackend}
+     */
+    public LocationSpecificPartEncoder(CleaPublicKey serverAuthorityPublicKey, CleaEciesEncoder cleaEciesEncoder) {
+        this.cleaEciesEncoder = cleaEciesEncoder;
         this.serverAuthorityPublicKey = serverAuthorityPublicKey;
     }
+
+    /**
+     * @param validator validator of the LSPs before encoding, e.g. LocationSpecificPartValidator.withBeanValidation()
+     *                  for the Bean Validation of the annotations instead of the shared hand-written checks
+     */
+    public void setValidator(LocationSpecificPartValidator validator) {
+        this.validator = Objects.requireNonNull(validator, "validator must not be null");
+    }
   
     public byte[] encode(LocationSpecificPart locationSpecificPart) throws CleaCryptoException {
-        if (Objects.isNull(serverAuthorityPublicKey)) {
-            throw new CleaEncryptionException("Cannot encrypt, serverAuthorityPublicKey is null!");
-        }
-        this.validateMessage(locationSpecificPart);
-        byte[] header = this.binaryEncodedHeader(locationSpecificPart);
-        byte[] msg = this.binaryEncodedMessage(locationSpecificPart);
-        byte[] encryptedLocationSpecificPart = this.encrypt(header, msg, this.serverAuthorityPublicKey);
+        byte[] encryptedLocationSpecificPart = new byte[encodedLength(locationSpecificPart)];
+        this.encode(locationSpecificPart, encryptedLocationSpecificPart, 0);
         log.debug("Final Binary QR-code: {}", encryptedLocationSpecificPart);
         return encryptedLocationSpecificPart;
     }
 
+    /**
+     * Encode and encrypt a LSP into a buffer supplied by the caller: the header and the message 
+     * are written in place and encrypted there, without intermediate arrays.
+     * 
+     * @param out    buffer receiving the encrypted LSP, of at least encodedLength(locationSpecificPart) 
+     *               bytes from outOff
+     * @param outOff offset of the encrypted LSP in the buffer
+     * @return the length of the encrypted LSP
+     */
+    public int encode(LocationSpecificPart locationSpecificPart, byte[] out, int outOff) throws CleaCryptoException {
+        this.checkServerAuthorityPublicKey();
+        this.validateMessage(locationSpecificPart);
+        int length = encodedLength(locationSpecificPart);
+        if (outOff < 0 || out.length - outOff < length) {
+            throw new IndexOutOfBoundsException("Buffer too small for a LSP of " + length + " bytes at offset " + outOff);
+        }
+        LocationSpecificPartCodec.encodeHeader(locationSpecificPart.getVersion(), locationSpecificPart.getType(),
+                locationSpecificPart.getLocationTemporaryPublicId(), out, outOff);
+        int messageLength = this.binaryEncodedMessage(locationSpecificPart, out, outOff + CleaEciesEncoder.HEADER_BYTES_SIZE);
+        try {
+            this.cleaEciesEncoder.encrypt(out, outOff, CleaEciesEncoder.HEADER_BYTES_SIZE, messageLength, 
+                    this.serverAuthorityPublicKey);
+        } catch (IllegalStateException | InvalidCipherTextException e) {
+            throw new CleaEncryptionException(e);
+        }
+        return length;
+    }
+
+    /**
+     * Validate and pack once the plaintext of a LSP for the whole period, the QR code validity
+     * start time being given at each encoding of the template.
+     *
+     * @param locationSpecificPart LSP of the period, its QR code validity start time being ignored
+     * @return the template of the period
+     */
+    public LocationSpecificPartTemplate newTemplate(LocationSpecificPart locationSpecificPart) throws CleaCryptoException {
+        this.checkServerAuthorityPublicKey();
+        if (Objects.isNull(locationSpecificPart.getQrCodeValidityStartTime())) {
+            locationSpecificPart = locationSpecificPart.toBuilder()
+                    .qrCodeValidityStartTime(locationSpecificPart.getPeriodStartTime()).build();
+        }
+        this.validateMessage(locationSpecificPart);
+        byte[] plaintext = new byte[encodedLength(locationSpecificPart) - CleaEciesEncoder.TAG_BYTES_SIZE
+                - CleaEciesEncoder.C0_BYTES_SIZE];
+        LocationSpecificPartCodec.encodeHeader(locationSpecificPart.getVersion(), locationSpecificPart.getType(),
+                locationSpecificPart.getLocationTemporaryPublicId(), plaintext, 0);
+        this.binaryEncodedMessage(locationSpecificPart, plaintext, CleaEciesEncoder.HEADER_BYTES_SIZE);
+        return new LocationSpecificPartTemplate(this.cleaEciesEncoder, this.serverAuthorityPublicKey, plaintext);
+    }
+
+    /**
+     * Encode and encrypt a LSP at the position of a buffer (heap or direct), the position 
+     * being moved after the LSP
+     * 
+     * @param out buffer receiving the encrypted LSP, of at least encodedLength(locationSpecificPart) 
+     *            remaining bytes
+     * @return the length of the encrypted LSP
+     */
+    public int encode(LocationSpecificPart locationSpecificPart, ByteBuffer out) throws CleaCryptoException {
+        int length;
+        if (out.hasArray()) {
+            length = this.encode(locationSpecificPart, out.array(), out.arrayOffset() + out.position());
+            ((Buffer) out).position(out.position() + length);
+        } else {
+            byte[] scratch = scratch(locationSpecificPart);
+            length = this.encode(locationSpecificPart, scratch, 0);
+            out.put(scratch, 0, length);
+        }
+        return length;
+    }
+
+    /**
+     * Encode and encrypt a LSP in Base64url without padding into a buffer supplied by the caller
+     * 
+     * @param out    buffer receiving the characters, of at least 
+     *               Base64UrlUtils.encodedLength(encodedLength(locationSpecificPart)) characters from outOff
+     * @param outOff offset of the characters in the buffer
+     * @return the number of characters written
+     */
+    public int encodeBase64(LocationSpecificPart locationSpecificPart, char[] out, int outOff) throws CleaCryptoException {
+        byte[] scratch = scratch(locationSpecificPart);
+        int length = this.encode(locationSpecificPart, scratch, 0);
+        return Base64UrlUtils.encode(scratch, 0, length, out, outOff);
+    }
+
+    /**
+     * @return the length of the encrypted LSP: | header | msg (with the encrypted locContactMsg if present) | tag | C0 |
+     */
+    public static int encodedLength(LocationSpecificPart locationSpecificPart) {
+        int locationContactMessageLength = locationSpecificPart.isLocationContactMessagePresent() ? 
+                locationSpecificPart.getEncryptedLocationContactMessage().length : 0;
+        return CleaEciesEncoder.HEADER_BYTES_SIZE + CleaEciesEncoder.MSG_BYTES_SIZE + locationContactMessageLength
+                + CleaEciesEncoder.TAG_BYTES_SIZE + CleaEciesEncoder.C0_BYTES_SIZE;
+    }
+
+    private void checkServerAuthorityPublicKey() throws CleaEncryptionException {
+        if (Objects.nonNull(this.serverAuthorityPublicKeyError)) {
+            throw new CleaEncryptionException(this.serverAuthorityPublicKeyError);
+        }
+        if (Objects.isNull(this.serverAuthorityPublicKey)) {
+            throw new CleaEncryptionException("Cannot encrypt, serverAuthorityPublicKey is null!");
+        }
+    }
+
+    private static byte[] scratch(LocationSpecificPart locationSpecificPart) {
+        byte[] scratch = SCRATCH.get();
+        int length = encodedLength(locationSpecificPart);
+        if (scratch.length < length) {
+            scratch = new byte[length];
+            SCRATCH.set(scratch);
+        }
+        return scratch;
+    }
+
     /**
      * Encode the data header in binary format: | version | LSPtype | pad | LTId |
      * 
@@ -71,19 +205,9 @@ public class LocationSpecificPartEncoder {
      * @return data header in binary format
      */
     public byte[] binaryEncodedHeader(int version, int type, UUID locationTemporaryPublicId) {
-        BitUtils header = new BitUtils(8 * CleaEciesEncoder.HEADER_BYTES_SIZE);
-        /* version (3 bits) */
-        header.setNextInteger(version, 3);
-        /* LSPtype (3 bits) */
-        header.setNextInteger(type, 3);
-        /* padding (2 bits) */
-        header.setNextInteger(0x0, 2);
-        /* LTId (16 bytes) */
-        byte[] uuidB = new byte[16];
-        uuidB = this.cleaEciesEncoder.uuidToBytes(locationTemporaryPublicId);
-        header.setNextByte(uuidB, 128);
-    
-        return header.getData();
+        byte[] header = new byte[CleaEciesEncoder.HEADER_BYTES_SIZE];
+        LocationSpecificPartCodec.encodeHeader(version, type, locationTemporaryPublicId, header, 0);
+        return header;
     }
 
     /**
@@ -93,77 +217,32 @@ public class LocationSpecificPartEncoder {
      * 
      * @return data message in binary format
      * @throws CleaEncryptionException 
-     * @throws Exception
      */
     public byte[] binaryEncodedMessage(LocationSpecificPart locationSpecificPart) throws CleaEncryptionException {
-        BitUtils message = new BitUtils(8 * CleaEciesEncoder.MSG_BYTES_SIZE);
-
-        /* staff (1 bit) */
-        message.setNextInteger(locationSpecificPart.isStaff() ? 1 : 0, 1);
-        /* locContactMsgPresent (1 bit) */
-        message.setNextInteger(locationSpecificPart.isLocationContactMessagePresent() ? 1 : 0, 1);
-        /* reserved (12 bits) */
-        message.setNextInteger(0x0, 12);
-        /* CRIexp (5 bits) */
-        message.setNextInteger(locationSpecificPart.getQrCodeRenewalIntervalExponentCompact(), 5);
-        /* venueType (5 bits) */
-        message.setNextInteger(locationSpecificPart.getVenueType(), 5);
-        /* venueCategory1 (4 bits) */
-        message.setNextInteger(locationSpecificPart.getVenueCategory1(), 4);
-        /* venueCategory2 (4 bits) */
-        message.setNextInteger(locationSpecificPart.getVenueCategory2(), 4);
-        /* periodDuration (1 byte) */
-        message.setNextInteger(locationSpecificPart.getPeriodDuration(), 8);
-        /* ct_periodStart (24 bits) */
-        message.setNextInteger(locationSpecificPart.getCompressedPeriodStartTime(), 24);
-        /* t_qrStart (32 bits) */
-        long qrCodeValidityStartTime = Objects.isNull(locationSpecificPart.getQrCodeValidityStartTime()) ?
-                0 :
-                TimeUtils.ntpTimestampFromInstant(locationSpecificPart.getQrCodeValidityStartTime());
-        message.setNextLong(qrCodeValidityStartTime, 32);
-        /* LTKey (32 bytes) */
-        message.setNextByte(locationSpecificPart.getLocationTemporarySecretKey(), 256);
-        /* Encode the locContactMsg with encryption if required */
-        if (locationSpecificPart.isLocationContactMessagePresent()) {
-            /* Add the encrypted locationContactMessage */
-            try {
-                return cleaEciesEncoder.concat(message.getData(), locationSpecificPart.getEncryptedLocationContactMessage());
-            } catch (IOException e) {
-                log.error("Cannot concatenate data", e);
-                throw new CleaEncryptionException(e);
-            }
-        } else {
-            return message.getData();
-        }
+        byte[] message = new byte[encodedLength(locationSpecificPart) - CleaEciesEncoder.HEADER_BYTES_SIZE 
+                - CleaEciesEncoder.TAG_BYTES_SIZE - CleaEciesEncoder.C0_BYTES_SIZE];
+        this.binaryEncodedMessage(locationSpecificPart, message, 0);
+        return message;
     }
 
     /**
-     * Encrypt, respecting CLEA protocol: | header | msg |
+     * Encode the data message in binary format into a buffer
      * 
-     * @param header associated data
-     * @param message    message to encrypt
-     * @param publicKey EC public key
-     * 
-     * @return data encrypted in binary format (bytes array)
-     * @throws CleaEncryptionException 
+     * @return the length of the data message
      */
-    private byte[] encrypt(byte[] header, byte[] message, String publicKey) throws CleaEncryptionException {
-        try {
-            byte[] encryptedMessage = this.cleaEciesEncoder.encrypt(header, message, publicKey);
-            log.debug("message length: {}, encrypted message length: {} ", message.length, encryptedMessage.length);
-            return encryptedMessage;            
-        } catch (Exception e) {
-            throw new CleaEncryptionException(e);
+    private int binaryEncodedMessage(LocationSpecificPart locationSpecificPart, byte[] out, int outOff) {
+        LocationSpecificPartCodec.encodeMessage(locationSpecificPart, out, outOff);
+        /* Followed by the encrypted locContactMsg if present */
+        if (!locationSpecificPart.isLocationContactMessagePresent()) {
+            return CleaEciesEncoder.MSG_BYTES_SIZE;
         }
+        byte[] encryptedLocationContactMessage = locationSpecificPart.getEncryptedLocationContactMessage();
+        System.arraycopy(encryptedLocationContactMessage, 0, out, outOff + CleaEciesEncoder.MSG_BYTES_SIZE, 
+                encryptedLocationContactMessage.length);
+        return CleaEciesEncoder.MSG_BYTES_SIZE + encryptedLocationContactMessage.length;
     }
-    
+
     protected void validateMessage(LocationSpecificPart message) throws CleaInvalidLocationMessageException {
-        Set<ConstraintViolation<LocationSpecificPart>> violations = validator.validate(message);
-        for (ConstraintViolation<LocationSpecificPart> violation : violations) {
-            log.error(violation.getMessage()); 
-        }
-        if (!violations.isEmpty()) {
-            throw new CleaInvalidLocationMessageException(violations);
-        }
+        this.validator.validateMessage(message);
     }
 }
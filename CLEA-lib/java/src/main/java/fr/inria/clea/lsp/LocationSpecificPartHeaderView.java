@@ -0,0 +1,126 @@
+/*
+* Copyright (C) Inria, 2021
+*/
+package fr.inria.clea.lsp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.UUID;
+
+/**
+ * Read-only view of the clear-text header of an encrypted Location Specific Part (LSP):
+ * | version (3 bits) | LSPtype (3 bits) | pad (2 bits) | LTId (16 bytes) |
+ *
+ * The fields are read in place, without copy nor allocation, so that a frontend can validate,
+ * deduplicate and shard the LSPs by LTId before decryption. A view is a flyweight: it is
+ * moved from one LSP to the next with wrap() and must not be shared between threads.
+ *
+ * @see <a href="https://hal.inria.fr/hal-03146022">CLEA protocol</a>
+ */
+public final class LocationSpecificPartHeaderView {
+    private byte[] array;
+    private ByteBuffer buffer;
+    private int offset;
+
+    /**
+     * Move the view to the header of a LSP held in a byte array
+     *
+     * @param array  buffer holding the binary LSP (base64-decoded)
+     * @param offset offset of the LSP in the buffer
+     * @return this view
+     * @throws IndexOutOfBoundsException if the buffer cannot hold a header at this offset
+     */
+    public LocationSpecificPartHeaderView wrap(byte[] array, int offset) {
+        if (offset < 0 || array.length - offset < CleaEciesEncoder.HEADER_BYTES_SIZE) {
+            throw new IndexOutOfBoundsException("No LSP header at offset " + offset);
+        }
+        this.array = array;
+        this.buffer = null;
+        this.offset = offset;
+        return this;
+    }
+
+    /**
+     * Move the view to the header of a LSP held in a byte buffer (heap or direct),
+     * whatever its position and byte order
+     *
+     * @param buffer buffer holding the binary LSP (base64-decoded)
+     * @param offset absolute index of the LSP in the buffer
+     * @return this view
+     * @throws IndexOutOfBoundsException if the buffer cannot hold a header at this offset
+     */
+    public LocationSpecificPartHeaderView wrap(ByteBuffer buffer, int offset) {
+        if (offset < 0 || buffer.limit() - offset < CleaEciesEncoder.HEADER_BYTES_SIZE) {
+            throw new IndexOutOfBoundsException("No LSP header at offset " + offset);
+        }
+        this.array = null;
+        this.buffer = buffer;
+        this.offset = offset;
+        return this;
+    }
+
+    /**
+     * @return Clea protocol version number
+     */
+    public int getVersion() {
+        return (this.firstByte() >>> 5) & 0x07;
+    }
+
+    /**
+     * @return LSP type
+     */
+    public int getType() {
+        return (this.firstByte() >>> 2) & 0x07;
+    }
+
+    /**
+     * @return padding bits, 0 in a well-formed header
+     */
+    public int getPadding() {
+        return this.firstByte() & 0x03;
+    }
+
+    /**
+     * @return the most significant 64 bits of the LTId
+     */
+    public long getLocationTemporaryPublicIdMostSignificantBits() {
+        return this.longAt(this.offset + LocationSpecificPartCodec.LT_ID_OFFSET);
+    }
+
+    /**
+     * @return the least significant 64 bits of the LTId
+     */
+    public long getLocationTemporaryPublicIdLeastSignificantBits() {
+        return this.longAt(this.offset + LocationSpecificPartCodec.LT_ID_OFFSET + 8);
+    }
+
+    /**
+     * @param mostSignificantBits  most significant 64 bits of a LTId
+     * @param leastSignificantBits least significant 64 bits of a LTId
+     * @return true if the LTId of the header is the given one
+     */
+    public boolean hasLocationTemporaryPublicId(long mostSignificantBits, long leastSignificantBits) {
+        return this.getLocationTemporaryPublicIdMostSignificantBits() == mostSignificantBits
+                && this.getLocationTemporaryPublicIdLeastSignificantBits() == leastSignificantBits;
+    }
+
+    /**
+     * @return the LTId as a new UUID (allocates, prefer the 64-bits getters in a routing loop)
+     */
+    public UUID toLocationTemporaryPublicId() {
+        return new UUID(this.getLocationTemporaryPublicIdMostSignificantBits(),
+                this.getLocationTemporaryPublicIdLeastSignificantBits());
+    }
+
+    private int firstByte() {
+        return (this.array != null) ? this.array[this.offset] : this.buffer.get(this.offset);
+    }
+
+    private long longAt(int index) {
+        if (this.array != null) {
+            return LocationSpecificPartCodec.getLong(this.array, index);
+        }
+        long value = this.buffer.getLong(index);
+        return (this.buffer.order() == ByteOrder.BIG_ENDIAN) ? value : Long.reverseBytes(value);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+* Copyright (C) Inria, 2021
+*/
+package fr.inria.clea.lsp;
+
+import java.time.Instant;
+
+import org.bouncycastle.crypto.InvalidCipherTextException;
+
+import fr.inria.clea.lsp.exception.CleaCryptoException;
+import fr.inria.clea.lsp.exception.CleaEncryptionException;
+import fr.inria.clea.lsp.utils.Base64UrlUtils;
+import fr.inria.clea.lsp.utils.TimeUtils;
+
+/**
+ * Plaintext of the Location Specific Part (LSP) of a period, validated and packed once:
+ * | header | message | encrypted location contact message (optional) |
+ *
+ * For a dynamic QR code, only t_qrStart changes from one renewal to the next: each encoding
+ * copies the template, patches t_qrStart (4 bytes) and encrypts the copy in place, so that the
+ * cost of a renewal is the ECIES encryption. A template is immutable and can be shared between
+ * threads. It holds the LTKey of the period in plaintext and should be dropped at the end of the period.
+ *
+ * @see LocationSpecificPartEncoder#newTemplate(LocationSpecificPart)
+ * @see <a href="https://hal.inria.fr/hal-03146022">CLEA protocol</a>
+ */
+public final class LocationSpecificPartTemplate {
+    private static final int QR_START_OFFSET = CleaEciesEncoder.HEADER_BYTES_SIZE + LocationSpecificPartCodec.QR_START_OFFSET;
+
+    private final CleaEciesEncoder cleaEciesEncoder;
+    private final CleaPublicKey serverAuthorityPublicKey;
+    /* | header | message | encrypted locContactMsg |, t_qrStart being patched at each encoding */
+    private final byte[] plaintext;
+
+    LocationSpecificPartTemplate(CleaEciesEncoder cleaEciesEncoder, CleaPublicKey serverAuthorityPublicKey,
+            byte[] plaintext) {
+        this.cleaEciesEncoder = cleaEciesEncoder;
+        this.serverAuthorityPublicKey = serverAuthorityPublicKey;
+        this.plaintext = plaintext;
+    }
+
+    /**
+     * @return the length of the encrypted LSP: | header | msg | tag | C0 |
+     */
+    public int getEncodedLength() {
+        return this.plaintext.length + CleaEciesEncoder.TAG_BYTES_SIZE + CleaEciesEncoder.C0_BYTES_SIZE;
+    }
+
+    /**
+     * Encrypt the LSP of the period for a QR code validity starting at the given time
+     *
+     * @param qrCodeValidityStartTime starting time of the QR code validity timespan
+     * @return the encrypted LSP
+     */
+    public byte[] encode(Instant qrCodeValidityStartTime) throws CleaCryptoException {
+        byte[] encryptedLocationSpecificPart = new byte[this.getEncodedLength()];
+        this.encode(TimeUtils.ntpTimestampFromInstant(qrCodeValidityStartTime), encryptedLocationSpecificPart, 0);
+        return encryptedLocationSpecificPart;
+    }
+
+    /**
+     * Encrypt the LSP of the period into a buffer supplied by the caller
+     *
+     * @param qrCodeValidityStartTime starting time of the QR code validity timespan, NTP timestamp in seconds
+     * @param out    buffer receiving the encrypted LSP, of at least getEncodedLength() bytes from outOff
+     * @param outOff offset of the encrypted LSP in the buffer
+     * @return the length of the encrypted LSP
+     */
+    public int encode(long qrCodeValidityStartTime, byte[] out, int outOff) throws CleaCryptoException {
+        int length = this.getEncodedLength();
+        if (outOff < 0 || out.length - outOff < length) {
+            throw new IndexOutOfBoundsException("Buffer too small for a LSP of " + length + " bytes at offset " + outOff);
+        }
+        System.arraycopy(this.plaintext, 0, out, outOff, this.plaintext.length);
+        LocationSpecificPartCodec.putInt((int) qrCodeValidityStartTime, out, outOff + QR_START_OFFSET);
+        try {
+            this.cleaEciesEncoder.encrypt(out, outOff, CleaEciesEncoder.HEADER_BYTES_SIZE,
+                    this.plaintext.length - CleaEciesEncoder.HEADER_BYTES_SIZE, this.serverAuthorityPublicKey);
+        } catch (IllegalStateException | InvalidCipherTextException e) {
+            throw new CleaEncryptionException(e);
+        }
+        return length;
+    }
+
+    /**
+     * Encrypt the LSP of the period in Base64url without padding into a buffer supplied by the caller
+     *
+     * @param qrCodeValidityStartTime starting time of the QR code validity timespan, NTP timestamp in seconds
+     * @param scratch buffer of at least getEncodedLength() bytes receiving the binary encrypted LSP
+     * @param out     buffer receiving the characters, of at least
+     *                Base64UrlUtils.encodedLength(getEncodedLength()) characters from outOff
+     * @param outOff  offset of the characters in the buffer
+     * @return the number of characters written
+     */
+    public int encodeBase64(long qrCodeValidityStartTime, byte[] scratch, char[] out, int outOff) throws CleaCryptoException {
+        int length = this.encode(qrCodeValidityStartTime, scratch, 0);
+        return Base64UrlUtils.encode(scratch, 0, length, out, outOff);
+    }
+}
@@ -1,26 +1,87 @@
 package fr.inria.clea.lsp;
 
+import java.util.LinkedHashSet;
+import java.util.Objects;
 import java.util.Set;
 
 import javax.validation.ConstraintViolation;
-import javax.validation.Validation;
 import javax.validation.Validator;
-import javax.validation.ValidatorFactory;
 
 import fr.inria.clea.lsp.exception.CleaInvalidLocationMessageException;
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Validation of a LocationSpecificPart: the constraints of its annotations are checked by hand,
+ * with the same bounds and messages, without the reflective Bean Validation. The Bean Validation 
+ * remains available for compatibility with withBeanValidation().
+ * 
+ * A validator holds no state and can be shared between threads.
+ */
 @Slf4j
 public class LocationSpecificPartValidator {
-    private Validator validator;
+    private static final LocationSpecificPartValidator INSTANCE = new LocationSpecificPartValidator();
+
+    /* Bean Validation of the annotations, null for the hand-written checks */
+    private final Validator validator;
 
     public LocationSpecificPartValidator() {
-        ValidatorFactory factory = Validation.buildDefaultValidatorFactory();
-        validator = factory.getValidator();        
+        this(null);
+    }
+
+    private LocationSpecificPartValidator(Validator validator) {
+        this.validator = validator;
+    }
+
+    /**
+     * @return the shared validator with the hand-written checks
+     */
+    public static LocationSpecificPartValidator getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return a validator running the Bean Validation of the annotations of LocationSpecificPart
+     */
+    public static LocationSpecificPartValidator withBeanValidation() {
+        return new LocationSpecificPartValidator(BeanValidatorHolder.VALIDATOR);
+    }
+
+    /**
+     * @return the constraint violations of the message, empty if it is valid
+     */
+    public Set<ConstraintViolation<LocationSpecificPart>> validate(LocationSpecificPart message) {
+        if (Objects.nonNull(this.validator)) {
+            return this.validator.validate(message);
+        }
+        Set<ConstraintViolation<LocationSpecificPart>> violations = new LinkedHashSet<>();
+        checkRange(violations, message, "version", message.getVersion(), 8, LocationSpecificPart.VERSION_VALIDATION_MESSAGE);
+        checkRange(violations, message, "type", message.getType(), 8, LocationSpecificPart.TYPE_VALIDATION_MESSAGE);
+        checkNotNull(violations, message, "locationTemporaryPublicId", message.getLocationTemporaryPublicId(), 
+                LocationSpecificPart.LOCATION_TEMPORARY_PUBLIC_ID_VALIDATION_MESSAGE);
+        checkRange(violations, message, "qrCodeRenewalIntervalExponentCompact", message.getQrCodeRenewalIntervalExponentCompact(), 
+                32, LocationSpecificPart.QRCODE_RENEWAL_INTERVAL_VALIDATION_MESSAGE);
+        checkRange(violations, message, "venueType", message.getVenueType(), 32, LocationSpecificPart.VENUE_TYPE_VALIDATION_MESSAGE);
+        checkRange(violations, message, "venueCategory1", message.getVenueCategory1(), 16, LocationSpecificPart.VENUE_CAT1_VALIDATION_MESSAGE);
+        checkRange(violations, message, "venueCategory2", message.getVenueCategory2(), 16, LocationSpecificPart.VENUE_CAT2_VALIDATION_MESSAGE);
+        checkRange(violations, message, "periodDuration", message.getPeriodDuration(), 
+                LocationSpecificPart.UNLIMITED_PERIOD_DURATION, LocationSpecificPart.PERIOD_DURATION_VALIDATION_MESSAGE);
+        checkRange(violations, message, "compressedPeriodStartTime", message.getCompressedPeriodStartTime(), 16777216, 
+                LocationSpecificPart.COMPRESSED_PERIOD_START_TIME_VALIDATION_MESSAGE);
+        checkNotNull(violations, message, "qrCodeValidityStartTime", message.getQrCodeValidityStartTime(), 
+                LocationSpecificPart.QR_CODE_VALIDITY_START_TIME_VALIDATION_MESSAGE);
+        byte[] locationTemporarySecretKey = message.getLocationTemporarySecretKey();
+        checkNotNull(violations, message, "locationTemporarySecretKey", locationTemporarySecretKey, 
+                LocationSpecificPart.LOCATION_TEMPORARY_SECRET_KEY_VALIDATION_MESSAGE);
+        if (Objects.nonNull(locationTemporarySecretKey) 
+                && locationTemporarySecretKey.length != LocationSpecificPart.LOCATION_TEMPORARY_SECRET_KEY_SIZE) {
+            violations.add(new CleaConstraintViolation<>(LocationSpecificPart.LOCATION_TEMPORARY_SECRET_KEY_SIZE_VALIDATION_MESSAGE, 
+                    message, "locationTemporarySecretKey", locationTemporarySecretKey));
+        }
+        return violations;
     }
 
     protected void validateMessage(LocationSpecificPart message) throws CleaInvalidLocationMessageException {
-        Set<ConstraintViolation<LocationSpecificPart>> violations = validator.validate(message);
+        Set<ConstraintViolation<LocationSpecificPart>> violations = this.validate(message);
         for (ConstraintViolation<LocationSpecificPart> violation : violations) {
             log.error(violation.getMessage()); 
         }
@@ -28,4 +89,24 @@ public class LocationSpecificPartValidator {
             throw new CleaInvalidLocationMessageException(violations);
         }
     }
+
+    /**
+     * Same check as @Min(0) @Max(max)
+     */
+    private static void checkRange(Set<ConstraintViolation<LocationSpecificPart>> violations, LocationSpecificPart message, 
+            String property, int value, int max, String violationMessage) {
+        if (value < 0 || value > max) {
+            violations.add(new CleaConstraintViolation<>(violationMessage, message, property, value));
+        }
+    }
+
+    /**
+     * Same check as @NotNull
+     */
+    private static void checkNotNull(Set<ConstraintViolation<LocationSpecificPart>> violations, LocationSpecificPart message, 
+            String property, Object value, String violationMessage) {
+        if (Objects.isNull(value)) {
+            violations.add(new CleaConstraintViolation<>(violationMessage, message, property, null));
+        }
+    }
 }
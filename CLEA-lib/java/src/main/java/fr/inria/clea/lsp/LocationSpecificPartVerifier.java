@@ -0,0 +1,61 @@
+/*
+* Copyright (C) Inria, 2021
+*/
+package fr.inria.clea.lsp;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+
+import fr.inria.clea.lsp.exception.CleaEncodingException;
+import fr.inria.clea.lsp.exception.CleaInvalidLocationTemporaryPublicIdException;
+
+/**
+ * Integrity check of a decrypted Location Specific Part (step 3 of the backend processing):
+ * the clear-text LTId of the header must be HMAC-SHA-256-128(LTKey, "1"), LTKey being
+ * the temporary location key of the decrypted message.
+ *
+ * The check works on the decrypted bytes [header | message], with a constant-time
+ * comparison. The HMAC state is kept per thread, so a verifier can be shared between threads.
+ *
+ * @see <a href="https://hal.inria.fr/hal-03146022">CLEA protocol</a>
+ */
+public class LocationSpecificPartVerifier {
+    /* Offset of the LTId in the header | version | LSPtype | pad | LTId | */
+    public static final int LT_ID_OFFSET = LocationSpecificPartCodec.LT_ID_OFFSET;
+    /* Offset of the LTKey in the decrypted bytes [header | message] */
+    public static final int LT_KEY_OFFSET = CleaEciesEncoder.HEADER_BYTES_SIZE + LocationSpecificPartCodec.LT_KEY_OFFSET;
+
+    private static final ThreadLocal<LocationTemporaryPublicIdMac> LT_ID_MAC =
+            ThreadLocal.withInitial(() -> new LocationTemporaryPublicIdMac(new SHA256Digest()));
+
+    /**
+     * @param binaryLocationSpecificPart decrypted Location Specific Part [header | message | ...]
+     * @param offset                     offset of the Location Specific Part in the buffer
+     * @return true if the LTId matches the LTKey
+     */
+    public boolean verify(byte[] binaryLocationSpecificPart, int offset) {
+        LocationTemporaryPublicIdMac ltIdMac = LT_ID_MAC.get();
+        byte[] mac = ltIdMac.compute(binaryLocationSpecificPart, offset + LT_KEY_OFFSET);
+        int diff = 0;
+        for (int i = 0; i < LocationTemporaryPublicIdMac.LT_ID_BYTES_SIZE; i++) {
+            diff |= mac[i] ^ binaryLocationSpecificPart[offset + LT_ID_OFFSET + i];
+        }
+        ltIdMac.wipe();
+        return diff == 0;
+    }
+
+    /**
+     * @param binaryLocationSpecificPart decrypted Location Specific Part [header | message | ...]
+     * @param offset                     offset of the Location Specific Part in the buffer
+     * @throws CleaEncodingException if the buffer is too short to hold a Location Specific Part
+     * @throws CleaInvalidLocationTemporaryPublicIdException if the LTId does not match the LTKey
+     */
+    public void check(byte[] binaryLocationSpecificPart, int offset)
+            throws CleaEncodingException, CleaInvalidLocationTemporaryPublicIdException {
+        if (binaryLocationSpecificPart.length - offset < CleaEciesEncoder.HEADER_BYTES_SIZE + CleaEciesEncoder.MSG_BYTES_SIZE) {
+            throw new CleaEncodingException("Bad message length: " + (binaryLocationSpecificPart.length - offset));
+        }
+        if (!this.verify(binaryLocationSpecificPart, offset)) {
+            throw new CleaInvalidLocationTemporaryPublicIdException("LTId does not match the LTKey of the message");
+        }
+    }
+}
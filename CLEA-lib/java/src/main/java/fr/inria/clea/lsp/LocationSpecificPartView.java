@@ -0,0 +1,205 @@
+/*
+* Copyright (C) Inria, 2021
+*/
+package fr.inria.clea.lsp;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import fr.inria.clea.lsp.utils.TimeUtils;
+
+/**
+ * Read-only view of a decrypted Location Specific Part (LSP):
+ * | header | message | encrypted location contact message (optional) |
+ *
+ * Each field is decoded from the decrypted bytes when it is read, the times being returned
+ * as NTP timestamps in seconds, so that the backend can run the freshness and exposure steps
+ * without building a {@link LocationSpecificPart} per visit. A view is a flyweight: it is moved
+ * from one LSP to the next with wrap(), it does not copy the buffer and must not be shared
+ * between threads.
+ *
+ * @see <a href="https://hal.inria.fr/hal-03146022">CLEA protocol</a>
+ */
+public final class LocationSpecificPartView {
+    private static final int MESSAGE_OFFSET = CleaEciesEncoder.HEADER_BYTES_SIZE;
+    private static final int CONTACT_OFFSET = CleaEciesEncoder.HEADER_BYTES_SIZE + CleaEciesEncoder.MSG_BYTES_SIZE;
+
+    private final LocationSpecificPartHeaderView header = new LocationSpecificPartHeaderView();
+    private byte[] array;
+    private int offset;
+    private int length;
+    /* first 64 bits of the message, read once by wrap() */
+    private long messageFields;
+
+    /**
+     * Move the view to a decrypted LSP
+     *
+     * @param array  buffer holding the decrypted LSP [header | message | ...]
+     * @param offset offset of the LSP in the buffer
+     * @param length length of the LSP, the bytes following the message being the encrypted
+     *               location contact message
+     * @return this view
+     * @throws IndexOutOfBoundsException if the buffer cannot hold a LSP of this length at this offset
+     */
+    public LocationSpecificPartView wrap(byte[] array, int offset, int length) {
+        if (offset < 0 || length < CONTACT_OFFSET || array.length - offset < length) {
+            throw new IndexOutOfBoundsException("No decrypted LSP of " + length + " bytes at offset " + offset);
+        }
+        this.header.wrap(array, offset);
+        this.array = array;
+        this.offset = offset;
+        this.length = length;
+        this.messageFields = LocationSpecificPartCodec.getLong(array, offset + MESSAGE_OFFSET);
+        return this;
+    }
+
+    /**
+     * Move the view to a decrypted LSP filling the whole buffer
+     *
+     * @see #wrap(byte[], int, int)
+     */
+    public LocationSpecificPartView wrap(byte[] array) {
+        return this.wrap(array, 0, array.length);
+    }
+
+    /**
+     * @return view of the clear-text header of the LSP
+     */
+    public LocationSpecificPartHeaderView getHeader() {
+        return this.header;
+    }
+
+    public int getVersion() {
+        return this.header.getVersion();
+    }
+
+    public int getType() {
+        return this.header.getType();
+    }
+
+    public long getLocationTemporaryPublicIdMostSignificantBits() {
+        return this.header.getLocationTemporaryPublicIdMostSignificantBits();
+    }
+
+    public long getLocationTemporaryPublicIdLeastSignificantBits() {
+        return this.header.getLocationTemporaryPublicIdLeastSignificantBits();
+    }
+
+    public boolean isStaff() {
+        return LocationSpecificPartCodec.isStaff(this.messageFields);
+    }
+
+    /**
+     * Indicates if the location contact message follows the message
+     */
+    public boolean isLocationContactMessagePresent() {
+        return this.length > CONTACT_OFFSET;
+    }
+
+    public int getQrCodeRenewalIntervalExponentCompact() {
+        return LocationSpecificPartCodec.qrCodeRenewalIntervalExponentCompact(this.messageFields);
+    }
+
+    /**
+     * @return the number of seconds between a new QR code generation.
+     * @see LocationSpecificPart#getQrCodeRenewalInterval()
+     */
+    public int getQrCodeRenewalInterval() {
+        int exponent = this.getQrCodeRenewalIntervalExponentCompact();
+        return (exponent == LocationSpecificPart.QRCODE_NO_RENEWAL) ? 0 : 1 << exponent;
+    }
+
+    public int getVenueType() {
+        return LocationSpecificPartCodec.venueType(this.messageFields);
+    }
+
+    public int getVenueCategory1() {
+        return LocationSpecificPartCodec.venueCategory1(this.messageFields);
+    }
+
+    public int getVenueCategory2() {
+        return LocationSpecificPartCodec.venueCategory2(this.messageFields);
+    }
+
+    public int getPeriodDuration() {
+        return LocationSpecificPartCodec.periodDuration(this.messageFields);
+    }
+
+    public int getCompressedPeriodStartTime() {
+        return LocationSpecificPartCodec.compressedPeriodStartTime(this.messageFields);
+    }
+
+    /**
+     * @return starting time of the period, NTP timestamp in seconds
+     */
+    public long getPeriodStartTime() {
+        return (long) this.getCompressedPeriodStartTime() * TimeUtils.NB_SECONDS_PER_HOUR;
+    }
+
+    /**
+     * @return starting time of the QR code validity timespan, NTP timestamp in seconds
+     */
+    public long getQrCodeValidityStartTime() {
+        return LocationSpecificPartCodec.getUnsignedInt(this.array,
+                this.offset + MESSAGE_OFFSET + LocationSpecificPartCodec.QR_START_OFFSET);
+    }
+
+    /**
+     * Copy the temporary location key for the period
+     *
+     * @param out    buffer receiving the LTKey (LT_KEY_BYTES_SIZE bytes)
+     * @param outOff offset of the LTKey in the buffer
+     */
+    public void getLocationTemporarySecretKey(byte[] out, int outOff) {
+        System.arraycopy(this.array, this.offset + MESSAGE_OFFSET + LocationSpecificPartCodec.LT_KEY_OFFSET,
+                out, outOff, LocationSpecificPartCodec.LT_KEY_BYTES_SIZE);
+    }
+
+    /**
+     * @param index index of the long in the LTKey, from 0 to 3
+     * @return 64 bits of the LTKey, big-endian
+     */
+    long getLocationTemporarySecretKeyBits(int index) {
+        return LocationSpecificPartCodec.getLong(this.array,
+                this.offset + MESSAGE_OFFSET + LocationSpecificPartCodec.LT_KEY_OFFSET + 8 * index);
+    }
+
+    /**
+     * @return a copy of the encrypted location contact message, null if absent
+     */
+    public byte[] getEncryptedLocationContactMessage() {
+        return this.isLocationContactMessagePresent() ?
+                Arrays.copyOfRange(this.array, this.offset + CONTACT_OFFSET, this.offset + this.length) :
+                null;
+    }
+
+    /**
+     * @return length of the encrypted location contact message, 0 if absent
+     */
+    public int getEncryptedLocationContactMessageLength() {
+        return this.length - CONTACT_OFFSET;
+    }
+
+    /**
+     * @return offset of the encrypted location contact message in the wrapped buffer
+     */
+    public int getEncryptedLocationContactMessageOffset() {
+        return this.offset + CONTACT_OFFSET;
+    }
+
+    /**
+     * @return the fields of the LSP as a new LocationSpecificPart (allocates, with copies of
+     *         the LTKey and of the encrypted location contact message)
+     */
+    public LocationSpecificPart toLocationSpecificPart() {
+        byte[] encryptedLocationContactMessage = this.getEncryptedLocationContactMessage();
+        return LocationSpecificPartCodec.decodeMessage(this.array, this.offset + MESSAGE_OFFSET,
+                LocationSpecificPart.builder()
+                    .version(this.getVersion())
+                    .type(this.getType())
+                    .locationTemporaryPublicId(new UUID(this.getLocationTemporaryPublicIdMostSignificantBits(),
+                            this.getLocationTemporaryPublicIdLeastSignificantBits())))
+            .encryptedLocationContactMessage(encryptedLocationContactMessage)
+            .build();
+    }
+}
@@ -0,0 +1,108 @@
+/*
+* Copyright (C) Inria, 2021
+*/
+package fr.inria.clea.lsp;
+
+import java.time.Instant;
+import java.util.Arrays;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.util.Pack;
+import org.bouncycastle.util.encoders.Hex;
+
+import fr.inria.clea.lsp.utils.TimeUtils;
+
+/**
+ * Bulk derivation of the LTKeys and LTIds of a location for a range of hourly periods,
+ * respecting the Cléa protocol:
+ * <ul>
+ * <li>LTKey(t_periodStart) = SHA256(t_periodStart | SK_L)</li>
+ * <li>LTId(t_periodStart) = HMAC-SHA-256-128(LTKey(t_periodStart), "1")</li>
+ * </ul>
+ * The permanent location key is decoded once and the SHA256 states are reused from one
+ * period to the next, the results are written in primitive arrays supplied by the caller.
+ *
+ * A deriver is not thread-safe: use one instance per thread.
+ *
+ * @see <a href="https://hal.inria.fr/hal-03146022">CLEA protocol</a>
+ */
+public class LocationTemporaryKeyDeriver {
+    /* Size in bytes of a LTKey */
+    public static final int LT_KEY_BYTES_SIZE = LocationTemporaryPublicIdMac.LT_KEY_BYTES_SIZE;
+
+    /* SK_L, permanent location secret key */
+    private final byte[] permanentLocationSecretKey;
+    private final SHA256Digest digest = new SHA256Digest();
+    private final byte[] periodStartTime = new byte[4];
+    private final byte[] ltKey = new byte[LT_KEY_BYTES_SIZE];
+    private final LocationTemporaryPublicIdMac ltIdMac = new LocationTemporaryPublicIdMac(digest);
+
+    /**
+     * @param permanentLocationSecretKey SK_L, permanent location secret key (hexastring format)
+     */
+    public LocationTemporaryKeyDeriver(String permanentLocationSecretKey) {
+        this(Hex.decode(permanentLocationSecretKey));
+    }
+
+    /**
+     * @param permanentLocationSecretKey SK_L, permanent location secret key
+     */
+    public LocationTemporaryKeyDeriver(byte[] permanentLocationSecretKey) {
+        this.permanentLocationSecretKey = permanentLocationSecretKey.clone();
+    }
+
+    /**
+     * Derive the LTKeys and LTIds of nbPeriods consecutive hourly periods.
+     *
+     * @param firstPeriodStartTime starting time of the first period, at a round hour
+     * @param nbPeriods            number of hourly periods
+     * @param ltKeys               buffer receiving the LTKeys (LT_KEY_BYTES_SIZE bytes per period),
+     *                             may be null if only the LTIds are needed
+     * @param ltKeysOff            offset of the first LTKey in ltKeys
+     * @param ltIdsMsb             array receiving the most significant 64 bits of the LTIds
+     * @param ltIdsLsb             array receiving the least significant 64 bits of the LTIds
+     * @param ltIdsOff             index of the first LTId in ltIdsMsb and ltIdsLsb
+     */
+    public void derive(Instant firstPeriodStartTime, int nbPeriods, byte[] ltKeys, int ltKeysOff,
+            long[] ltIdsMsb, long[] ltIdsLsb, int ltIdsOff) {
+        this.derive(TimeUtils.ntpTimestampFromInstant(firstPeriodStartTime), nbPeriods, ltKeys, ltKeysOff,
+                ltIdsMsb, ltIdsLsb, ltIdsOff);
+    }
+
+    /**
+     * Derive the LTKeys and LTIds of nbPeriods consecutive hourly periods.
+     *
+     * @param firstPeriodStartTime starting time of the first period, NTP timestamp in seconds at a round hour
+     * @see #derive(Instant, int, byte[], int, long[], long[], int)
+     */
+    public void derive(long firstPeriodStartTime, int nbPeriods, byte[] ltKeys, int ltKeysOff,
+            long[] ltIdsMsb, long[] ltIdsLsb, int ltIdsOff) {
+        if (firstPeriodStartTime % TimeUtils.NB_SECONDS_PER_HOUR != 0) {
+            throw new IllegalArgumentException("A period starts at a round hour: " + firstPeriodStartTime);
+        }
+        if (nbPeriods < 0) {
+            throw new IllegalArgumentException("Negative number of periods: " + nbPeriods);
+        }
+        for (int i = 0; i < nbPeriods; i++) {
+            long timestamp = firstPeriodStartTime + (long) i * TimeUtils.NB_SECONDS_PER_HOUR;
+            byte[] key = ltKeys != null ? ltKeys : this.ltKey;
+            int keyOff = ltKeys != null ? ltKeysOff + i * LT_KEY_BYTES_SIZE : 0;
+            this.locationTemporarySecretKey(timestamp, key, keyOff);
+            byte[] mac = this.ltIdMac.compute(key, keyOff);
+            ltIdsMsb[ltIdsOff + i] = Pack.bigEndianToLong(mac, 0);
+            ltIdsLsb[ltIdsOff + i] = Pack.bigEndianToLong(mac, 8);
+        }
+        Arrays.fill(this.ltKey, (byte) 0);
+        this.ltIdMac.wipe();
+    }
+
+    /**
+     * LTKey(t_periodStart) = SHA256(t_periodStart | SK_L), t_periodStart limited to 32 bits
+     */
+    private void locationTemporarySecretKey(long periodStartTime, byte[] out, int outOff) {
+        Pack.intToBigEndian((int) periodStartTime, this.periodStartTime, 0);
+        digest.update(this.periodStartTime, 0, this.periodStartTime.length);
+        digest.update(this.permanentLocationSecretKey, 0, this.permanentLocationSecretKey.length);
+        digest.doFinal(out, outOff);
+    }
+}
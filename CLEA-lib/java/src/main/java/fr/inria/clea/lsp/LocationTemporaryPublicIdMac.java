@@ -0,0 +1,59 @@
+/*
+* Copyright (C) Inria, 2021
+*/
+package fr.inria.clea.lsp;
+
+import java.util.Arrays;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+
+/**
+ * HMAC-SHA-256(LTKey, "1") of the LTId computation, on a reused SHA256 state:
+ * SHA256((K ^ opad) | SHA256((K ^ ipad) | "1")), the LTId being its first 16 bytes.
+ * Not thread-safe.
+ */
+final class LocationTemporaryPublicIdMac {
+    /* Size in bytes of a LTKey, HMAC key shorter than a SHA256 block */
+    static final int LT_KEY_BYTES_SIZE = 32;
+    /* Size in bytes of the LTId, truncated HMAC */
+    static final int LT_ID_BYTES_SIZE = 16;
+    /* Size in bytes of the SHA256 blocks (HMAC key padding) */
+    private static final int BLOCK_BYTES_SIZE = 64;
+    /* HMAC message of the LTId */
+    private static final byte[] LT_ID_MESSAGE = { '1' };
+
+    private final SHA256Digest digest;
+    private final byte[] pad = new byte[BLOCK_BYTES_SIZE];
+    private final byte[] mac = new byte[LT_KEY_BYTES_SIZE];
+
+    LocationTemporaryPublicIdMac(SHA256Digest digest) {
+        this.digest = digest;
+    }
+
+    /**
+     * @return the HMAC of the LTKey starting at ltKeyOff, in a buffer reused by the next call
+     */
+    byte[] compute(byte[] ltKey, int ltKeyOff) {
+        for (int i = 0; i < LT_KEY_BYTES_SIZE; i++) {
+            pad[i] = (byte) (ltKey[ltKeyOff + i] ^ 0x36);
+        }
+        Arrays.fill(pad, LT_KEY_BYTES_SIZE, BLOCK_BYTES_SIZE, (byte) 0x36);
+        digest.update(pad, 0, BLOCK_BYTES_SIZE);
+        digest.update(LT_ID_MESSAGE, 0, LT_ID_MESSAGE.length);
+        digest.doFinal(mac, 0);
+
+        for (int i = 0; i < LT_KEY_BYTES_SIZE; i++) {
+            pad[i] = (byte) (ltKey[ltKeyOff + i] ^ 0x5c);
+        }
+        Arrays.fill(pad, LT_KEY_BYTES_SIZE, BLOCK_BYTES_SIZE, (byte) 0x5c);
+        digest.update(pad, 0, BLOCK_BYTES_SIZE);
+        digest.update(mac, 0, mac.length);
+        digest.doFinal(mac, 0);
+        Arrays.fill(pad, (byte) 0);
+        return mac;
+    }
+
+    void wipe() {
+        Arrays.fill(mac, (byte) 0);
+    }
+}
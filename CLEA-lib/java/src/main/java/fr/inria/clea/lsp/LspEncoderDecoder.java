@@ -1,66 +1,154 @@
 package fr.inria.clea.lsp;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import fr.devnied.bitlib.BytesUtils;
-import fr.inria.clea.lsp.Location.LocationBuilder;
 import fr.inria.clea.lsp.exception.CleaCryptoException;
 import fr.inria.clea.lsp.utils.TimeUtils;
 
+/**
+ * Executable used for the interoperability tests, encoding or decoding one LSP by launch, or many in
+ * a long-lived process: from a file of commands (batch) or from a line protocol on stdin/stdout (serve).
+ * In the long-lived modes, the ECIES encoder and the parsed keys are reused from one command to the next.
+ */
 public class LspEncoderDecoder {
+    private static final String HELP = "Usage: LspEncoderDecoder [gen-keys] [decode  lsp64 privKey] [encode staff CRIexp venueType venueCategory1 venueCategory2 periodDuration locationPhone locationPin pubkey] [batch commandFile] [serve]";
+    /* Prefix of the result lines of the commands that failed, in batch and serve modes */
+    public static final String ERROR_PREFIX = "=ERROR=";
+    /* Maximum number of keys kept parsed, per kind of key */
+    private static final int MAX_CACHED_KEYS = 64;
+
+    private final CleaEciesEncoder cleaEncoder = new CleaEciesEncoder();
+    private final Map<String, LocationSpecificPartDecoder> lspDecoders = new KeyCache<>();
+    private final Map<String, LocationContactMessageEncoder> locationContactDecoders = new KeyCache<>();
+    private final Map<String, LocationSpecificPartEncoder> lspEncoders = new KeyCache<>();
+    private final Map<String, LocationContactMessageEncoder> locationContactEncoders = new KeyCache<>();
 
     /**
      * Main
-     * 
+     *
      * @see README.md
      */
     public static void main(String[] args) throws Exception {
-        final String help = "Usage: LspEncoderDecoder [gen-keys] [decode  lsp64 privKey] [encode staff CRIexp venueType venueCategory1 venueCategory2 periodDuration locationPhone locationPin pubkey]";
-
         if (args.length == 0) {
-            System.out.println(help);
+            System.out.println(HELP);
             System.exit(0);
         }
 
+        if ("batch".equals(args[0]) && args.length == 2) {
+            try (InputStream in = Files.newInputStream(Paths.get(args[1]))) {
+                new LspEncoderDecoder().serve(in, System.out);
+            }
+        } else if ("serve".equals(args[0]) && args.length == 1) {
+            new LspEncoderDecoder().serve(System.in, System.out);
+        } else {
+            System.out.println(new LspEncoderDecoder().execute(args));
+        }
+    }
+
+    protected static void generateKeyPair() throws Exception {
+        System.out.println(new LspEncoderDecoder().genKeys());
+    }
+
+    protected static void decodeLsp(String[] args) throws CleaCryptoException {
+        System.out.println(new LspEncoderDecoder().decode(args));
+    }
+
+    protected static void encodeLsp(String[] args) throws CleaCryptoException {
+        System.out.println(new LspEncoderDecoder().encode(args));
+    }
+
+    /**
+     * Answer the commands read line by line, one command by line with its arguments separated
+     * by spaces as on the command line, until the end of the input or a "quit" line. Each command
+     * is answered as on the command line, a failure being answered by an ERROR_PREFIX line
+     * so that the answers stay in step with the commands.
+     *
+     * @param in  commands (a file in batch mode, stdin in serve mode)
+     * @param out answers, flushed after each command
+     * @throws IOException if the commands cannot be read
+     */
+    public void serve(InputStream in, PrintStream out) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            if ("quit".equals(line)) {
+                break;
+            }
+            String answer;
+            try {
+                answer = this.execute(line.split("\\s+"));
+            } catch (Exception e) {
+                answer = ERROR_PREFIX + e.getClass().getSimpleName() + ": " + e.getMessage();
+            }
+            out.println(answer.replace('\n', ' '));
+            out.flush();
+        }
+    }
+
+    /**
+     * Execute one command
+     *
+     * @param args command and its arguments, as on the command line
+     * @return the answer, or the usage if the command is not recognized
+     */
+    public String execute(String[] args) throws Exception {
         if ("encode".equals(args[0]) && ((args.length == 13) || (args.length == 10))) {
-            encodeLsp(args);
+            return this.encode(args);
         } else if ("decode".equals(args[0]) && args.length == 4) {
-            decodeLsp(args);
+            return this.decode(args);
         } else if ("gen-keys".equals(args[0])) {
-            generateKeyPair();
+            return this.genKeys();
         } else {
-            System.out.println(help);
+            return HELP;
         }
     }
 
-    protected static void generateKeyPair() throws Exception {
-        String[] keyPair = new CleaEciesEncoder().genKeysPair(false);
-        System.out.println("Clea EC Private Key: " + keyPair[0]);
-        System.out.println("Clea EC Public Key : " + keyPair[1]);
+    protected String genKeys() throws Exception {
+        String[] keyPair = this.cleaEncoder.genKeysPair(false);
+        return "Clea EC Private Key: " + keyPair[0] + "\n"
+                + "Clea EC Public Key : " + keyPair[1];
     }
 
-    protected static void decodeLsp(String[] args) throws CleaCryptoException {
+    protected String decode(String[] args) throws CleaCryptoException {
         String lspBase64 = args[1];
         String serverAuthoritySecretKey = args[2];
         String manualContactTracingAuthoritySecretKey = args[3];
-        LocationSpecificPartDecoder lspDecoder = new LocationSpecificPartDecoder(serverAuthoritySecretKey);
+        LocationSpecificPartDecoder lspDecoder = this.lspDecoders.computeIfAbsent(serverAuthoritySecretKey,
+                key -> new LocationSpecificPartDecoder(CleaPrivateKey.fromHex(key), this.cleaEncoder));
         LocationSpecificPart lsp = lspDecoder.decrypt(lspBase64);
 
-        String valuesToreturn =  "=VALUES="+ (lsp.isStaff()? 1 : 0) +  " " + lsp.getQrCodeRenewalIntervalExponentCompact()  + " " + lsp.getVenueType(); 
+        String valuesToreturn =  "=VALUES="+ (lsp.isStaff()? 1 : 0) +  " " + lsp.getQrCodeRenewalIntervalExponentCompact()  + " " + lsp.getVenueType();
         valuesToreturn += " " + lsp.getVenueCategory1() + " " + lsp.getVenueCategory2() + " " + lsp.getPeriodDuration() + " " + lsp.getLocationTemporaryPublicId();
         valuesToreturn += " " + Integer.toUnsignedString(lsp.getCompressedPeriodStartTime()) + " " + TimeUtils.ntpTimestampFromInstant(lsp.getQrCodeValidityStartTime());
         valuesToreturn += " " + BytesUtils.bytesToStringNoSpace(lsp.getLocationTemporarySecretKey()).toLowerCase();
 
         if (lsp.isLocationContactMessagePresent()) {
-            LocationContactMessageEncoder contactMessageDecode = new LocationContactMessageEncoder(manualContactTracingAuthoritySecretKey);
+            LocationContactMessageEncoder contactMessageDecode = this.locationContactDecoders.computeIfAbsent(
+                    manualContactTracingAuthoritySecretKey, key -> new LocationContactMessageEncoder(CleaPrivateKey.fromHex(key)));
             LocationContact locationContact = contactMessageDecode.decode(lsp.getEncryptedLocationContactMessage());
             valuesToreturn += " " + locationContact.getLocationPhone() + " " + locationContact.getLocationRegion() + " " + locationContact.getLocationPin();
-        }  
-        System.out.println(valuesToreturn);
+        }
+        return valuesToreturn;
     }
 
-    protected static void encodeLsp(String[] args) throws CleaCryptoException {
+    protected String encode(String[] args) throws CleaCryptoException {
         int staff = Integer.parseInt(args[1]);
         int qrCodeRenewalIntervalExponentCompact = Integer.parseInt(args[2]);
         int venueType = Integer.parseInt(args[3]);
@@ -70,7 +158,7 @@ public class LspEncoderDecoder {
         final String serverAuthorityPublicKey = args[7];
         final String manualContactTracingAuthorityPublicKey = args[8];
         final String permanentLocationSecretKey = args[9];
-        
+
         Instant periodStartTime = Instant.now().truncatedTo(ChronoUnit.HOURS);
         /* Encode a LSP with location */
         LocationSpecificPart lsp = LocationSpecificPart.builder()
@@ -81,33 +169,52 @@ public class LspEncoderDecoder {
                 .venueCategory2(venueCategory2)
                 .periodDuration(periodDuration)
                 .build();
-        LocationBuilder locationBuilder = Location.builder()
-                .locationSpecificPart(lsp)
-                .manualContactTracingAuthorityPublicKey(manualContactTracingAuthorityPublicKey)
-                .serverAuthorityPublicKey(serverAuthorityPublicKey)
-                .permanentLocationSecretKey(permanentLocationSecretKey);
-        
+        LocationContact contact = null;
         if (args.length == 13) {
             final String locationPhone = args[10];
             final int locationRegion = Integer.parseInt(args[11]);
             final String locationPin = args[12];
-            locationBuilder.contact( new LocationContact(locationPhone, locationRegion, locationPin, periodStartTime));
+            contact = new LocationContact(locationPhone, locationRegion, locationPin, periodStartTime);
         }
-
-        Location location = locationBuilder.build();
+        /* the location derives the LTKey and the LTId, the encryption is done by the cached encoders */
+        Location location = Location.builder()
+                .locationSpecificPart(lsp)
+                .contact(contact)
+                .permanentLocationSecretKey(permanentLocationSecretKey)
+                .cleaEncoder(this.cleaEncoder)
+                .build();
         location.setPeriodStartTime(periodStartTime);
-        //location.setQrCodeValidityStartTime(periodStartTime, (int) TimeUtils.currentNtpTime());
-        location.getLocationSpecificPart().setQrCodeValidityStartTime(Instant.now().truncatedTo(ChronoUnit.HOURS));
-        
-        String encryptedLocationSpecificPart = location.getLocationSpecificPartEncryptedBase64();
-        String LTKey =  BytesUtils.bytesToStringNoSpace(location.getLocationSpecificPart().getLocationTemporarySecretKey()).toLowerCase();
-
-        final String valuesToreturn = "=VALUES=" + encryptedLocationSpecificPart + " " 
-                + location.getLocationSpecificPart().getLocationTemporaryPublicId() + " "
-                + Integer.toUnsignedString(location.getLocationSpecificPart().getCompressedPeriodStartTime()) + " "
-                + TimeUtils.ntpTimestampFromInstant(location.getLocationSpecificPart().getQrCodeValidityStartTime()) + " "
+        lsp.setQrCodeValidityStartTime(Instant.now().truncatedTo(ChronoUnit.HOURS));
+        if (contact != null) {
+            lsp.setEncryptedLocationContactMessage(this.locationContactEncoders.computeIfAbsent(
+                    manualContactTracingAuthorityPublicKey, key -> new LocationContactMessageEncoder(CleaPublicKey.fromHex(key)))
+                    .encode(contact));
+        }
+        byte[] encryptedLocationSpecificPart = this.lspEncoders.computeIfAbsent(serverAuthorityPublicKey,
+                key -> new LocationSpecificPartEncoder(CleaPublicKey.fromHex(key), this.cleaEncoder)).encode(lsp);
+        String LTKey =  BytesUtils.bytesToStringNoSpace(lsp.getLocationTemporarySecretKey()).toLowerCase();
+
+        return "=VALUES=" + Base64.getUrlEncoder().withoutPadding().encodeToString(encryptedLocationSpecificPart) + " "
+                + lsp.getLocationTemporaryPublicId() + " "
+                + Integer.toUnsignedString(lsp.getCompressedPeriodStartTime()) + " "
+                + TimeUtils.ntpTimestampFromInstant(lsp.getQrCodeValidityStartTime()) + " "
                 + LTKey ;
-        System.out.println(valuesToreturn);
     }
 
+    /**
+     * Parsed keys (or the encoders holding them) by key in String format, the least recently
+     * used ones being dropped beyond MAX_CACHED_KEYS
+     */
+    private static class KeyCache<V> extends LinkedHashMap<String, V> {
+        private static final long serialVersionUID = 1L;
+
+        KeyCache() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+            return this.size() > MAX_CACHED_KEYS;
+        }
+    }
 }
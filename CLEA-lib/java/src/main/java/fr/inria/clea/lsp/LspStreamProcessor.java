@@ -0,0 +1,387 @@
+/*
+* Copyright (C) Inria, 2021
+*/
+package fr.inria.clea.lsp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+import fr.inria.clea.lsp.exception.CleaCryptoException;
+import fr.inria.clea.lsp.exception.CleaEncodingException;
+
+/**
+ * Bulk processor of the Location Specific Parts (LSP) of a file too large for the heap, e.g. days of
+ * archived uploads: one deep link (or bare LSP in Base64url) per line, or one CSV record per line with
+ * the LSP in one of its fields.
+ *
+ * The file is memory-mapped by windows of a few hundred megabytes and cut into chunks of lines that
+ * are parsed and decrypted in parallel, at most a few chunks being in flight at a time so that the
+ * memory stays bounded whatever the size of the file. The results are handed to the sink on the
+ * calling thread, in the input order. A processor can be reused but not shared between threads.
+ *
+ * @see <a href="https://hal.inria.fr/hal-03146022">CLEA protocol</a>
+ */
+public class LspStreamProcessor {
+    /* Default number of lines by chunk */
+    public static final int DEFAULT_CHUNK_SIZE = 1024;
+    /* Default size in bytes of the memory-mapped windows of the file */
+    public static final int DEFAULT_WINDOW_SIZE = 256 * 1024 * 1024;
+
+    private final LocationSpecificPartDecoder decoder;
+    private DeepLinkParser deepLinkParser = new DeepLinkParser();
+    private final ChunkPipeline pipeline = new ChunkPipeline(DEFAULT_CHUNK_SIZE);
+    /* Index of the CSV field holding the LSP, negative when the whole line is a deep link */
+    private int column = -1;
+    private int headerLines = 0;
+    private int windowSize = DEFAULT_WINDOW_SIZE;
+    private ProgressListener progressListener;
+
+    /**
+     * @param decoder decoder holding the server authority secret key (and the optional verifier)
+     */
+    public LspStreamProcessor(LocationSpecificPartDecoder decoder) {
+        this.decoder = Objects.requireNonNull(decoder, "decoder must not be null");
+    }
+
+    /**
+     * @param deepLinkParser parser of the deep links, e.g. with another country specific prefix
+     */
+    public void setDeepLinkParser(DeepLinkParser deepLinkParser) {
+        this.deepLinkParser = Objects.requireNonNull(deepLinkParser, "deepLinkParser must not be null");
+    }
+
+    /**
+     * @param executor executor running the chunks (e.g. a ForkJoinPool), the common ForkJoinPool by default
+     */
+    public void setExecutor(Executor executor) {
+        this.pipeline.setExecutor(executor);
+    }
+
+    /**
+     * @param column index of the comma-separated field holding the LSP (the spaces around it being
+     *               ignored), negative when each line is a deep link (default)
+     */
+    public void setColumn(int column) {
+        this.column = column;
+    }
+
+    /**
+     * @param headerLines number of lines to skip at the beginning of the file (e.g. 1 for a CSV header)
+     */
+    public void setHeaderLines(int headerLines) {
+        if (headerLines < 0) {
+            throw new IllegalArgumentException("Negative number of header lines: " + headerLines);
+        }
+        this.headerLines = headerLines;
+    }
+
+    /**
+     * @param chunkSize number of lines decrypted together by a worker
+     */
+    public void setChunkSize(int chunkSize) {
+        this.pipeline.setChunkSize(chunkSize);
+    }
+
+    /**
+     * @param windowSize size in bytes of the memory-mapped windows of the file, bounding the length of a line
+     */
+    public void setWindowSize(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Window size must be positive: " + windowSize);
+        }
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * @param maxChunksInFlight maximum number of chunks being decrypted or waiting for the sink,
+     *                          twice the parallelism by default
+     */
+    public void setMaxChunksInFlight(int maxChunksInFlight) {
+        this.pipeline.setMaxChunksInFlight(maxChunksInFlight);
+    }
+
+    /**
+     * @param progressListener listener notified after each chunk handed to the sink, null to disable
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Decrypt all the LSPs of a file. The blank lines and the header lines are skipped; a line that
+     * cannot be parsed or decrypted is reported as a failure to the sink without stopping the processing.
+     *
+     * @param input file of deep links or CSV records, one by line
+     * @param sink  receiver of the results, called on the calling thread in the input order
+     * @return the number of results handed to the sink
+     * @throws IOException if the file cannot be read, a line is longer than the window size,
+     *                     or the sink fails
+     */
+    public long process(Path input, ResultSink sink) throws IOException {
+        Progress progress = new Progress();
+        ChunkPipeline.Run<Chunk> run = this.pipeline.start(chunk -> this.emit(chunk, sink, progress));
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            progress.totalBytes = channel.size();
+            long lineNumber = 0;
+            long position = 0;
+            Chunk chunk = null;
+            while (position < progress.totalBytes) {
+                int length = (int) Math.min(this.windowSize, progress.totalBytes - position);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                boolean last = position + length == progress.totalBytes;
+                int lineStart = 0;
+                for (int i = 0; i < length; i++) {
+                    if (window.get(i) != '\n') {
+                        continue;
+                    }
+                    lineNumber++;
+                    chunk = this.addLine(chunk, window, lineStart, i, lineNumber, position + i + 1, run);
+                    lineStart = i + 1;
+                }
+                if (last && lineStart < length) {
+                    /* last line without end of line */
+                    lineNumber++;
+                    chunk = this.addLine(chunk, window, lineStart, length, lineNumber, position + length, run);
+                    lineStart = length;
+                } else if (lineStart == 0 && !last) {
+                    throw new IOException("Line " + (lineNumber + 1) + " longer than the window size " + this.windowSize);
+                }
+                /* the next window starts at the first incomplete line */
+                position += lineStart;
+            }
+            if (Objects.nonNull(chunk)) {
+                this.submit(run, chunk);
+            }
+            run.finish();
+        }
+        return progress.records;
+    }
+
+    private Chunk addLine(Chunk chunk, ByteBuffer window, int start, int end, long lineNumber, long bytesRead,
+            ChunkPipeline.Run<Chunk> run) throws IOException {
+        if (lineNumber <= this.headerLines || isBlank(window, start, end)) {
+            return chunk;
+        }
+        int chunkSize = this.pipeline.getChunkSize();
+        if (Objects.isNull(chunk) || chunk.window != window) {
+            if (Objects.nonNull(chunk)) {
+                this.submit(run, chunk);
+            }
+            chunk = new Chunk(window, chunkSize);
+        }
+        chunk.add(start, end, lineNumber, bytesRead);
+        if (chunk.size == chunkSize) {
+            this.submit(run, chunk);
+            chunk = null;
+        }
+        return chunk;
+    }
+
+    private void submit(ChunkPipeline.Run<Chunk> run, Chunk chunk) throws IOException {
+        run.submit(() -> this.decrypt(chunk));
+    }
+
+    private void emit(Chunk chunk, ResultSink sink, Progress progress) throws IOException {
+        for (int k = 0; k < chunk.size; k++) {
+            sink.accept(chunk.lineNumbers[k], chunk.results[k]);
+        }
+        progress.records += chunk.size;
+        progress.bytesRead = chunk.bytesRead;
+        if (Objects.nonNull(this.progressListener)) {
+            this.progressListener.onProgress(progress.records, progress.bytesRead, progress.totalBytes);
+        }
+    }
+
+    /**
+     * Parse the LSPs of a chunk, then decrypt together the parsed ones
+     */
+    private Chunk decrypt(Chunk chunk) {
+        AsciiSequence text = new AsciiSequence(chunk.window);
+        byte[][] encryptedLsps = new byte[chunk.size][];
+        int[] indexes = new int[chunk.size];
+        int nbParsed = 0;
+        byte[] buffer = new byte[DeepLinkParser.LSP_WITH_CONTACT_BYTES_SIZE];
+        for (int k = 0; k < chunk.size; k++) {
+            int[] range;
+            if (this.column >= 0) {
+                range = field(chunk.window, chunk.starts[k], chunk.ends[k], this.column);
+                if (Objects.isNull(range)) {
+                    chunk.results[k] = LocationSpecificPartDecryptionResult.failure(
+                            new CleaEncodingException("No field " + this.column + " at line " + chunk.lineNumbers[k]));
+                    continue;
+                }
+            } else {
+                /* e.g. the '\r' of a CRLF line */
+                range = trim(chunk.window, chunk.starts[k], chunk.ends[k]);
+            }
+            try {
+                int length = this.deepLinkParser.parse(text, range[0], range[1], buffer, 0);
+                encryptedLsps[nbParsed] = Arrays.copyOf(buffer, length);
+                indexes[nbParsed++] = k;
+            } catch (CleaCryptoException e) {
+                chunk.results[k] = LocationSpecificPartDecryptionResult.failure(e);
+            }
+        }
+        /* the chunk is already running on a worker: the batch is decrypted on the current thread */
+        List<LocationSpecificPartDecryptionResult> results = this.decoder.decryptAll(
+                Arrays.copyOf(encryptedLsps, nbParsed), Runnable::run);
+        for (int p = 0; p < nbParsed; p++) {
+            chunk.results[indexes[p]] = results.get(p);
+        }
+        return chunk;
+    }
+
+    /**
+     * @return the range [start, end) of a comma-separated field without the spaces around it,
+     *         null if the line has not this field
+     */
+    private static int[] field(ByteBuffer window, int start, int end, int column) {
+        int fieldStart = start;
+        for (int c = 0; c < column; c++) {
+            while (fieldStart < end && window.get(fieldStart) != ',') {
+                fieldStart++;
+            }
+            if (fieldStart == end) {
+                return null;
+            }
+            fieldStart++;
+        }
+        int fieldEnd = fieldStart;
+        while (fieldEnd < end && window.get(fieldEnd) != ',') {
+            fieldEnd++;
+        }
+        return trim(window, fieldStart, fieldEnd);
+    }
+
+    /**
+     * @return the range [start, end) without the spaces around it
+     */
+    private static int[] trim(ByteBuffer window, int start, int end) {
+        while (start < end && isSpace(window.get(start))) {
+            start++;
+        }
+        while (end > start && isSpace(window.get(end - 1))) {
+            end--;
+        }
+        return new int[] { start, end };
+    }
+
+    private static boolean isBlank(ByteBuffer window, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!isSpace(window.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    /**
+     * Receiver of the results of a file, called in the input order
+     */
+    @FunctionalInterface
+    public interface ResultSink {
+        /**
+         * @param lineNumber number of the line of the LSP in the file, starting at 1
+         * @param result     result of the decryption of the LSP
+         * @throws IOException to stop the processing
+         */
+        void accept(long lineNumber, LocationSpecificPartDecryptionResult result) throws IOException;
+    }
+
+    /**
+     * Listener of the progress of the processing of a file
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        /**
+         * @param records    number of results handed to the sink so far
+         * @param bytesRead  number of bytes of the file processed so far
+         * @param totalBytes size of the file
+         */
+        void onProgress(long records, long bytesRead, long totalBytes);
+    }
+
+    private static class Progress {
+        long records;
+        long bytesRead;
+        long totalBytes;
+    }
+
+    /**
+     * Lines of a window of the file, with their results once decrypted
+     */
+    private static class Chunk {
+        final ByteBuffer window;
+        final int[] starts;
+        final int[] ends;
+        final long[] lineNumbers;
+        final LocationSpecificPartDecryptionResult[] results;
+        /* number of bytes of the file up to the end of the last line */
+        long bytesRead;
+        int size;
+
+        Chunk(ByteBuffer window, int capacity) {
+            this.window = window;
+            this.starts = new int[capacity];
+            this.ends = new int[capacity];
+            this.lineNumbers = new long[capacity];
+            this.results = new LocationSpecificPartDecryptionResult[capacity];
+        }
+
+        void add(int start, int end, long lineNumber, long bytesRead) {
+            this.starts[this.size] = start;
+            this.ends[this.size] = end;
+            this.lineNumbers[this.size] = lineNumber;
+            this.bytesRead = bytesRead;
+            this.size++;
+        }
+    }
+
+    /**
+     * Characters of a window of the file, one by byte (the deep links are in ASCII),
+     * read with absolute indexes so that the window can be shared by the workers
+     */
+    private static class AsciiSequence implements CharSequence {
+        private final ByteBuffer window;
+
+        AsciiSequence(ByteBuffer window) {
+            this.window = window;
+        }
+
+        @Override
+        public int length() {
+            return this.window.limit();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (this.window.get(index) & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            StringBuilder sb = new StringBuilder(end - start);
+            for (int i = start; i < end; i++) {
+                sb.append(this.charAt(i));
+            }
+            return sb;
+        }
+
+        @Override
+        public String toString() {
+            return this.subSequence(0, this.length()).toString();
+        }
+    }
+}
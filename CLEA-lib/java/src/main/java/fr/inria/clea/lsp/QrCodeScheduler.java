@@ -0,0 +1,219 @@
+/*
+* Copyright (C) Inria, 2021
+*/
+package fr.inria.clea.lsp;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import fr.inria.clea.lsp.exception.CleaCryptoException;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Renewal of the dynamic QR codes of a location ahead of time, for the display devices.
+ *
+ * A background thread generates the next deep links, following the QR code renewal interval and
+ * the period duration of the location (snapshot of the period from {@link Location#getPeriod(Instant)}
+ * at each new period, encryption of the LSP from the snapshot at each renewal), into a ring
+ * buffer. The display thread gets the current deep link from the ring buffer in constant time,
+ * without cryptography nor lock: the renewals and the period rollovers never stall it.
+ *
+ * The location can be shared with other schedulers or threads using its period snapshots.
+ * A period starts at the round hour of the first deep link, or of the first one after an interruption
+ * (e.g. a device asleep), the following periods being consecutive.
+ *
+ * @see <a href="https://hal.inria.fr/hal-03146022">CLEA protocol</a>
+ */
+@Slf4j
+public class QrCodeScheduler implements AutoCloseable {
+    /* Default number of deep links generated ahead of time, the current one included */
+    public static final int DEFAULT_CAPACITY = 8;
+
+    private final Location location;
+    private final Clock clock;
+    private final int capacity;
+    private final AtomicReferenceArray<ScheduledQrCode> ring;
+    /* Sequence number of the current QR code, advanced by the display threads */
+    private final AtomicLong head = new AtomicLong();
+    /* Sequence number of the next QR code to generate, advanced by the background thread */
+    private volatile long tail;
+    private final ExecutorService executor;
+    private final AtomicBoolean refillScheduled = new AtomicBoolean();
+
+    /* State of the generation, confined to the background thread once started */
+    private LocationPeriod period;
+    private Instant nextQrCodeValidityStartTime;
+    private final char[] chars = new char[Location.DEEP_LINK_MAX_LENGTH];
+
+    public QrCodeScheduler(Location location) {
+        this(location, DEFAULT_CAPACITY, Clock.systemUTC());
+    }
+
+    /**
+     * @param location location whose deep links are generated
+     * @param capacity number of deep links generated ahead of time, the current one included
+     * @param clock    clock giving the current time
+     */
+    public QrCodeScheduler(Location location, int capacity, Clock clock) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Capacity must be at least 2: " + capacity);
+        }
+        this.location = Objects.requireNonNull(location, "location must not be null");
+        this.clock = Objects.requireNonNull(clock, "clock must not be null");
+        this.capacity = capacity;
+        this.ring = new AtomicReferenceArray<>(capacity);
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "clea-qrcode-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Generate the current deep link on the calling thread, then the next ones in the background
+     *
+     * @throws CleaCryptoException if the first deep link cannot be generated
+     * @throws IllegalStateException if the scheduler is already started
+     */
+    public void start() throws CleaCryptoException {
+        if (this.tail != 0) {
+            throw new IllegalStateException("QR code scheduler already started");
+        }
+        this.ring.set(0, this.generate(0));
+        this.tail = 1;
+        this.scheduleRefill();
+    }
+
+    /**
+     * @return the deep link to display now
+     * @see #getCurrentQrCode()
+     */
+    public String getDeepLink() {
+        return this.getCurrentQrCode().getDeepLink();
+    }
+
+    /**
+     * Get the QR code to display now, in constant time. If the background thread lags behind
+     * the clock (e.g. after an interruption), the last generated QR code is returned until
+     * a new one is available.
+     *
+     * @return the current QR code
+     * @throws IllegalStateException if the scheduler is not started
+     */
+    public ScheduledQrCode getCurrentQrCode() {
+        if (this.tail == 0) {
+            throw new IllegalStateException("QR code scheduler not started");
+        }
+        Instant now = this.clock.instant();
+        for (;;) {
+            long current = this.head.get();
+            ScheduledQrCode qrCode = this.ring.get(this.index(current));
+            if (qrCode.sequence != current) {
+                /* overwritten after another thread moved the head */
+                continue;
+            }
+            if (qrCode.validUntil.isAfter(now) || current + 1 >= this.tail) {
+                if (this.tail - current < this.capacity || !qrCode.validUntil.isAfter(now)) {
+                    this.scheduleRefill();
+                }
+                return qrCode;
+            }
+            this.head.compareAndSet(current, current + 1);
+        }
+    }
+
+    /**
+     * Stop the background thread
+     */
+    @Override
+    public void close() {
+        this.executor.shutdownNow();
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % this.capacity);
+    }
+
+    private void scheduleRefill() {
+        if (this.refillScheduled.compareAndSet(false, true)) {
+            try {
+                this.executor.execute(this::refill);
+            } catch (RejectedExecutionException e) {
+                /* closed */
+                this.refillScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Fill the ring buffer up to the slot preceding the current QR code
+     */
+    private void refill() {
+        this.refillScheduled.set(false);
+        try {
+            while (this.tail - this.head.get() < this.capacity && !Thread.currentThread().isInterrupted()) {
+                long sequence = this.tail;
+                this.ring.set(this.index(sequence), this.generate(sequence));
+                this.tail = sequence + 1;
+            }
+        } catch (CleaCryptoException | RuntimeException e) {
+            log.error("Cannot generate the next QR code of the location", e);
+        }
+    }
+
+    /**
+     * Generate the next QR code, starting a new period at the end of the current one, and catching
+     * up with the clock if the next QR code would already be expired
+     */
+    private ScheduledQrCode generate(long sequence) throws CleaCryptoException {
+        Instant now = this.clock.instant();
+        if (Objects.isNull(this.period) || !this.period.getQrCodeValidUntil(this.nextQrCodeValidityStartTime).isAfter(now)) {
+            if (Objects.isNull(this.period) || !now.isBefore(this.period.getPeriodEndTime())) {
+                this.startPeriod(now.truncatedTo(ChronoUnit.HOURS));
+            }
+            this.nextQrCodeValidityStartTime = this.period.getQrCodeValidityStartTime(now);
+        } else if (!this.nextQrCodeValidityStartTime.isBefore(this.period.getPeriodEndTime())) {
+            this.startPeriod(this.period.getPeriodEndTime());
+        }
+        Instant qrCodeValidityStartTime = this.nextQrCodeValidityStartTime;
+        Instant validUntil = this.period.getQrCodeValidUntil(qrCodeValidityStartTime);
+        int length = this.period.newDeepLink(qrCodeValidityStartTime, this.chars, 0);
+        this.nextQrCodeValidityStartTime = validUntil;
+        log.debug("QR code #{} valid from {} until {}", sequence, qrCodeValidityStartTime, validUntil);
+        return new ScheduledQrCode(sequence, new String(this.chars, 0, length),
+                this.period.getPeriodStartTime(), qrCodeValidityStartTime, validUntil);
+    }
+
+    private void startPeriod(Instant periodStartTime) throws CleaCryptoException {
+        this.period = this.location.getPeriod(periodStartTime);
+        this.nextQrCodeValidityStartTime = periodStartTime;
+    }
+
+    /**
+     * Deep link generated ahead of time, with its validity timespan
+     */
+    @Getter
+    @ToString
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    public static final class ScheduledQrCode {
+        @Getter(AccessLevel.NONE)
+        private final long sequence;
+        private final String deepLink;
+        private final Instant periodStartTime;
+        private final Instant qrCodeValidityStartTime;
+        /* End of the validity timespan, exclusive */
+        private final Instant validUntil;
+    }
+}
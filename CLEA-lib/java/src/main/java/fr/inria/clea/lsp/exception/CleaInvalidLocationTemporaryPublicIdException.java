@@ -0,0 +1,13 @@
+package fr.inria.clea.lsp.exception;
+
+/**
+ * Clea exception thrown when the clear-text LTId of a decrypted 
+ * Location Specific Part does not match HMAC-SHA-256-128(LTKey, "1").
+ */
+public class CleaInvalidLocationTemporaryPublicIdException extends CleaEncryptionException {
+    private static final long serialVersionUID = 1L;
+
+    public CleaInvalidLocationTemporaryPublicIdException(String message) {
+        super(message);
+    }
+}
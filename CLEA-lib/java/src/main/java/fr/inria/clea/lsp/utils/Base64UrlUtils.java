@@ -0,0 +1,131 @@
+package fr.inria.clea.lsp.utils;
+
+import java.util.Arrays;
+
+/**
+ * Base64url (RFC 4648 §5) encoding and decoding between ranges of buffers supplied by the caller,
+ * the encoding being without padding as Base64.getUrlEncoder().withoutPadding() and the decoding
+ * accepting it with or without padding as Base64.getUrlDecoder().
+ */
+public class Base64UrlUtils {
+    private static final char[] ENCODING_TABLE = 
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+    private static final byte[] DECODING_TABLE = new byte[128];
+
+    static {
+        Arrays.fill(DECODING_TABLE, (byte) -1);
+        for (int i = 0; i < ENCODING_TABLE.length; i++) {
+            DECODING_TABLE[ENCODING_TABLE[i]] = (byte) i;
+        }
+    }
+
+    /**
+     * @param length number of bytes to encode
+     * @return the number of characters of their encoding without padding
+     */
+    public static int encodedLength(int length) {
+        return length / 3 * 4 + (length % 3 == 0 ? 0 : length % 3 + 1);
+    }
+
+    /**
+     * Encode a range of bytes in Base64url without padding
+     *
+     * @param in     buffer holding the bytes to encode
+     * @param inOff  offset of the bytes
+     * @param inLen  number of bytes to encode
+     * @param out    buffer receiving the characters
+     * @param outOff offset of the characters in the buffer
+     * @return the number of characters written, encodedLength(inLen)
+     * @throws IndexOutOfBoundsException if the buffer is too small
+     */
+    public static int encode(byte[] in, int inOff, int inLen, char[] out, int outOff) {
+        int length = encodedLength(inLen);
+        if (outOff < 0 || out.length - outOff < length) {
+            throw new IndexOutOfBoundsException("Buffer too small for " + length + " characters at offset " + outOff);
+        }
+        int o = outOff;
+        int i = inOff;
+        int end = inOff + inLen;
+        for (; end - i >= 3; i += 3) {
+            int bits = (in[i] & 0xff) << 16 | (in[i + 1] & 0xff) << 8 | (in[i + 2] & 0xff);
+            out[o++] = ENCODING_TABLE[bits >>> 18];
+            out[o++] = ENCODING_TABLE[(bits >>> 12) & 0x3f];
+            out[o++] = ENCODING_TABLE[(bits >>> 6) & 0x3f];
+            out[o++] = ENCODING_TABLE[bits & 0x3f];
+        }
+        if (end - i == 1) {
+            int bits = in[i] & 0xff;
+            out[o++] = ENCODING_TABLE[bits >>> 2];
+            out[o++] = ENCODING_TABLE[(bits << 4) & 0x3f];
+        } else if (end - i == 2) {
+            int bits = (in[i] & 0xff) << 8 | (in[i + 1] & 0xff);
+            out[o++] = ENCODING_TABLE[bits >>> 10];
+            out[o++] = ENCODING_TABLE[(bits >>> 4) & 0x3f];
+            out[o++] = ENCODING_TABLE[(bits << 2) & 0x3f];
+        }
+        return o - outOff;
+    }
+
+    /**
+     * @param src   characters in Base64url
+     * @param start index of the first character
+     * @param end   index following the last character, padding included
+     * @return the number of bytes encoded by the characters
+     * @throws IllegalArgumentException if the number of characters is not a valid Base64 length
+     */
+    public static int decodedLength(CharSequence src, int start, int end) {
+        int nbChars = unpaddedEnd(src, start, end) - start;
+        if (nbChars % 4 == 1) {
+            throw new IllegalArgumentException("Bad Base64 length: " + (end - start));
+        }
+        return nbChars / 4 * 3 + Math.max(0, nbChars % 4 - 1);
+    }
+
+    /**
+     * Decode the range of characters [start, end) in Base64url
+     *
+     * @param src    characters in Base64url
+     * @param start  index of the first character
+     * @param end    index following the last character, padding included
+     * @param out    buffer receiving the decoded bytes
+     * @param outOff offset of the decoded bytes in the buffer
+     * @return the number of decoded bytes
+     * @throws IllegalArgumentException  if a character is not in the Base64url alphabet or the length is not valid
+     * @throws IndexOutOfBoundsException if the buffer is too small
+     */
+    public static int decode(CharSequence src, int start, int end, byte[] out, int outOff) {
+        int length = decodedLength(src, start, end);
+        if (outOff < 0 || out.length - outOff < length) {
+            throw new IndexOutOfBoundsException("Buffer too small for " + length + " bytes at offset " + outOff);
+        }
+        int unpaddedEnd = unpaddedEnd(src, start, end);
+        int bits = 0;
+        int nbBits = 0;
+        int o = outOff;
+        for (int i = start; i < unpaddedEnd; i++) {
+            char c = src.charAt(i);
+            int value = (c < 128) ? DECODING_TABLE[c] : -1;
+            if (value < 0) {
+                throw new IllegalArgumentException("Illegal Base64url character at index " + i);
+            }
+            bits = (bits << 6) | value;
+            nbBits += 6;
+            if (nbBits >= 8) {
+                nbBits -= 8;
+                out[o++] = (byte) (bits >>> nbBits);
+            }
+        }
+        return o - outOff;
+    }
+
+    /**
+     * @return index following the last character without its padding (up to two '=')
+     */
+    private static int unpaddedEnd(CharSequence src, int start, int end) {
+        int unpaddedEnd = end;
+        while (unpaddedEnd > start && end - unpaddedEnd < 2 && src.charAt(unpaddedEnd - 1) == '=') {
+            unpaddedEnd--;
+        }
+        return unpaddedEnd;
+    }
+}
@@ -0,0 +1,58 @@
+package fr.inria.clea.lsp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import fr.inria.clea.lsp.utils.Base64UrlUtils;
+
+public class Base64UrlUtilsTest {
+    @Test
+    public void testDecodingMatchesTheJdkDecoderWithAndWithoutPadding() {
+        Random random = new Random(7);
+        for (int length = 0; length < 200; length++) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            String padded = Base64.getUrlEncoder().encodeToString(bytes);
+            String unpadded = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+            for (String base64 : new String[] { padded, unpadded }) {
+                String text = "<" + base64 + ">";
+                byte[] out = new byte[length + 3];
+                int decoded = Base64UrlUtils.decode(text, 1, text.length() - 1, out, 3);
+                assertThat(decoded).isEqualTo(length);
+                assertThat(Base64UrlUtils.decodedLength(text, 1, text.length() - 1)).isEqualTo(length);
+                assertThat(Arrays.copyOfRange(out, 3, 3 + length)).containsExactly(bytes);
+            }
+        }
+    }
+
+    @Test
+    public void testEncodingMatchesTheJdkEncoderWithoutPadding() {
+        Random random = new Random(11);
+        for (int length = 0; length < 200; length++) {
+            byte[] bytes = new byte[length + 2];
+            random.nextBytes(bytes);
+            char[] out = new char[Base64UrlUtils.encodedLength(length) + 1];
+            int encoded = Base64UrlUtils.encode(bytes, 2, length, out, 1);
+            assertThat(new String(out, 1, encoded))
+                    .isEqualTo(Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOfRange(bytes, 2, 2 + length)));
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> Base64UrlUtils.encode(new byte[3], 0, 3, new char[4], 1));
+    }
+
+    @Test
+    public void testDecodingRejectsBadInputs() {
+        byte[] out = new byte[16];
+        /* standard Base64 alphabet */
+        assertThrows(IllegalArgumentException.class, () -> Base64UrlUtils.decode("ab+/", 0, 4, out, 0));
+        /* impossible length */
+        assertThrows(IllegalArgumentException.class, () -> Base64UrlUtils.decode("abcde", 0, 5, out, 0));
+        /* buffer too small */
+        assertThrows(IndexOutOfBoundsException.class, () -> Base64UrlUtils.decode("abcdabcd", 0, 8, out, 12));
+    }
+}
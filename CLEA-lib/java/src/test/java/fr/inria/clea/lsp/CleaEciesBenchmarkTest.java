@@ -0,0 +1,243 @@
+/*
+* Copyright (C) Inria, 2021
+*/
+package fr.inria.clea.lsp;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+
+import org.bouncycastle.jce.interfaces.ECPrivateKey;
+import org.bouncycastle.jce.interfaces.ECPublicKey;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.util.encoders.Hex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Micro-benchmarks of the CLEA cryptography, to be launched manually:
+ * mvn test -Dtest=CleaEciesBenchmarkTest -Djunit.jupiter.conditions.deactivate=org.junit.*DisabledCondition
+ */
+@Disabled("Benchmarks, to be launched manually")
+class CleaEciesBenchmarkTest {
+    private static final int WARMUP_ITERATIONS = 2000;
+    private static final int ITERATIONS = 5000;
+
+    private final byte[] header = Hex.decode("7D1BBFB6CAD6C2E862A7AEAD7DA27FB814");
+    private final byte[] message = Hex.decode("9F7213093CEDBBE66356550296A37DD18077E8646185EA2EA0EAFE88630F8C861A2E05F35BB2D863A28841CF");
+    private CleaEciesEncoder cleaEciesEncoder;
+    private String[] serverAuthorityKeyPair;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        cleaEciesEncoder = new CleaEciesEncoder();
+        serverAuthorityKeyPair = cleaEciesEncoder.genKeysPair(true);
+    }
+
+    /**
+     * Ephemeral key generation and ECDH of the encryption: JCA key pair generator and
+     * variable-base multiplication (previous implementation) versus fixed-point comb
+     * multiplications with precomputed tables for G and PK_SA.
+     */
+    @Test
+    public void benchmarkEncryptionScalarMultiplications() throws Exception {
+        CleaPublicKey publicKey = CleaPublicKey.fromHex(serverAuthorityKeyPair[1]);
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance("EC", "BC");
+
+        run("variable-base (JCA key pair generator)", () -> {
+            kpg.initialize(new ECGenParameterSpec("secp256r1"), new SecureRandom());
+            KeyPair keyPair = kpg.generateKeyPair();
+            BigInteger r = ((ECPrivateKey) keyPair.getPrivate()).getD();
+            ((ECPublicKey) keyPair.getPublic()).getQ().getEncoded(true);
+            publicKey.getQ().multiply(r).normalize();
+        });
+        run("fixed-base (precomputed comb tables)", () -> {
+            BigInteger r = BouncyCastleCryptoBackend.generateEphemeralSecret();
+            BouncyCastleCryptoBackend.FIXED_POINT_MULTIPLIER.multiply(CleaEciesEncoder.EC_PARAMETERS.getG(), r).getEncoded(true);
+            ECPoint s = BouncyCastleCryptoBackend.FIXED_POINT_MULTIPLIER.multiply(publicKey.getQ(), r);
+            s.normalize();
+        });
+    }
+
+    @Test
+    public void benchmarkEncryption() throws Exception {
+        CleaPublicKey publicKey = CleaPublicKey.fromHex(serverAuthorityKeyPair[1]);
+
+        run("encrypt", () -> cleaEciesEncoder.encrypt(header, message, publicKey));
+    }
+
+    @Test
+    public void benchmarkDecryption() throws Exception {
+        CleaPrivateKey privateKey = CleaPrivateKey.fromHex(serverAuthorityKeyPair[0]);
+        byte[] encrypted = cleaEciesEncoder.encrypt(header, message, serverAuthorityKeyPair[1]);
+
+        run("decrypt", () -> cleaEciesEncoder.decrypt(encrypted, privateKey, true));
+        byte[] out = new byte[CleaEciesEncoder.decryptedLength(encrypted.length)];
+        run("decrypt into caller buffer", () -> cleaEciesEncoder.decrypt(encrypted, 0, encrypted.length, privateKey, true, out, 0));
+    }
+
+    /**
+     * Batch decryption sharing one field inversion for the normalization of all the 
+     * ECDH secrets, for several batch sizes (time per message).
+     */
+    @Test
+    public void benchmarkBatchDecryption() throws Exception {
+        CleaPrivateKey privateKey = CleaPrivateKey.fromHex(serverAuthorityKeyPair[0]);
+        for (int batchSize : new int[] { 1, 4, 16, 64, 256 }) {
+            byte[][] encryptedMessages = new byte[batchSize][];
+            for (int i = 0; i < batchSize; i++) {
+                encryptedMessages[i] = cleaEciesEncoder.encrypt(header, message, serverAuthorityKeyPair[1]);
+            }
+            run("decrypt one by one, per message, batch of " + batchSize, batchSize, () -> {
+                for (byte[] encryptedMessage : encryptedMessages) {
+                    cleaEciesEncoder.decrypt(encryptedMessage, privateKey, true);
+                }
+            });
+            run("decryptAll, per message, batch of " + batchSize, batchSize, 
+                    () -> cleaEciesEncoder.decryptAll(encryptedMessages, privateKey, true, null));
+        }
+    }
+
+    /**
+     * Encryption and decryption with the BouncyCastle and the JDK (SunEC) ECDH backends.
+     */
+    @Test
+    public void benchmarkCryptoBackends() throws Exception {
+        CleaPublicKey publicKey = CleaPublicKey.fromHex(serverAuthorityKeyPair[1]);
+        CleaPrivateKey privateKey = CleaPrivateKey.fromHex(serverAuthorityKeyPair[0]);
+        CleaEciesEncoder bcEncoder = new CleaEciesEncoder(new BouncyCastleCryptoBackend());
+        CleaEciesEncoder jdkEncoder = new CleaEciesEncoder(new JdkCryptoBackend());
+        byte[] encrypted = bcEncoder.encrypt(header, message, publicKey);
+
+        run("encrypt, BouncyCastle backend", () -> bcEncoder.encrypt(header, message, publicKey));
+        run("encrypt, JDK backend", () -> jdkEncoder.encrypt(header, message, publicKey));
+        run("decrypt, BouncyCastle backend", () -> bcEncoder.decrypt(encrypted, privateKey, true));
+        run("decrypt, JDK backend", () -> jdkEncoder.decrypt(encrypted, privateKey, true));
+    }
+
+    /**
+     * AES-256-GCM of the DEM alone (header as additional data and 44-bytes message) and throughput
+     * on larger messages, with BouncyCastle and with the JDK provider.
+     */
+    @Test
+    public void benchmarkAeadCiphers() throws Exception {
+        byte[] key = new byte[32];
+        byte[] iv = new byte[12];
+        new SecureRandom().nextBytes(key);
+        CleaAeadCipher[] ciphers = { new BouncyCastleAeadCipher(), new JdkAeadCipher() };
+        for (int messageSize : new int[] { message.length, 1024, 16384 }) {
+            byte[] plain = new byte[messageSize];
+            byte[] encrypted = new byte[messageSize + CleaEciesEncoder.TAG_BYTES_SIZE];
+            byte[] decrypted = new byte[messageSize];
+            for (CleaAeadCipher cipher : ciphers) {
+                String label = cipher.getClass().getSimpleName() + ", " + messageSize + " bytes";
+                run("encrypt, " + label, () -> {
+                    /* GCM implementations refuse to encrypt twice with the same key and IV */
+                    key[0]++;
+                    cipher.encrypt(key, iv, header, 0, header.length, plain, 0, plain.length, encrypted, 0);
+                });
+                key[0]++;
+                cipher.encrypt(key, iv, header, 0, header.length, plain, 0, plain.length, encrypted, 0);
+                run("decrypt, " + label, () -> cipher.decrypt(key, iv, header, 0, header.length, 
+                        encrypted, 0, encrypted.length, decrypted, 0));
+            }
+        }
+        CleaPrivateKey privateKey = CleaPrivateKey.fromHex(serverAuthorityKeyPair[0]);
+        byte[] encrypted = cleaEciesEncoder.encrypt(header, message, serverAuthorityKeyPair[1]);
+        CleaEciesEncoder bcEncoder = new CleaEciesEncoder(new BouncyCastleCryptoBackend(), BouncyCastleAeadCipher::new);
+        CleaEciesEncoder jdkEncoder = new CleaEciesEncoder(new BouncyCastleCryptoBackend(), JdkAeadCipher::new);
+        run("ECIES decrypt, BouncyCastle AES-GCM", () -> bcEncoder.decrypt(encrypted, privateKey, true));
+        run("ECIES decrypt, JDK AES-GCM", () -> jdkEncoder.decrypt(encrypted, privateKey, true));
+    }
+
+    /**
+     * LTKeys and LTIds of a 14-days window, one period per call versus bulk derivation.
+     */
+    @Test
+    public void benchmarkTemporaryKeysDerivation() throws Exception {
+        String permanentLocationSecretKey = "23c9b8f36ac1c0cddaf869c3733b771c3dc409416a9695df40397cea53e7f39e21f76925fc0c74ca6ee7c7eafad92473fd8575";
+        Instant firstPeriodStartTime = Instant.now().truncatedTo(ChronoUnit.HOURS);
+        int nbPeriods = 14 * 24;
+        byte[] ltKeys = new byte[nbPeriods * LocationTemporaryKeyDeriver.LT_KEY_BYTES_SIZE];
+        long[] ltIdsMsb = new long[nbPeriods];
+        long[] ltIdsLsb = new long[nbPeriods];
+
+        run("compute LTKey and LTId, per period, one by one", nbPeriods, () -> {
+            for (int i = 0; i < nbPeriods; i++) {
+                byte[] ltKey = cleaEciesEncoder.computeLocationTemporarySecretKey(permanentLocationSecretKey, 
+                        firstPeriodStartTime.plus(i, ChronoUnit.HOURS));
+                cleaEciesEncoder.computeLocationTemporaryPublicId(ltKey);
+            }
+        });
+        run("compute LTKey and LTId, per period, bulk", nbPeriods, () -> 
+                new LocationTemporaryKeyDeriver(permanentLocationSecretKey).derive(firstPeriodStartTime, nbPeriods, 
+                        ltKeys, 0, ltIdsMsb, ltIdsLsb, 0));
+    }
+
+    /**
+     * Reading version, type and LTId of the headers of a batch of LSPs to route them: 
+     * decodeHeader versus the header view (time per LSP).
+     */
+    @Test
+    public void benchmarkHeaderRouting() throws Exception {
+        int nbLsps = 1000;
+        int lspSize = CleaEciesEncoder.HEADER_BYTES_SIZE + CleaEciesEncoder.MSG_BYTES_SIZE 
+                + CleaEciesEncoder.TAG_BYTES_SIZE + CleaEciesEncoder.C0_BYTES_SIZE;
+        byte[] lsps = new byte[nbLsps * lspSize];
+        new SecureRandom().nextBytes(lsps);
+        byte[][] binaryLsps = new byte[nbLsps][];
+        for (int i = 0; i < nbLsps; i++) {
+            lsps[i * lspSize] &= (byte) 0xFC;
+            binaryLsps[i] = Arrays.copyOfRange(lsps, i * lspSize, (i + 1) * lspSize);
+        }
+        long[] shards = new long[32];
+        LocationSpecificPartDecoder decoder = new LocationSpecificPartDecoder();
+        LocationSpecificPartHeaderView view = new LocationSpecificPartHeaderView();
+
+        /* a few rounds, the runs being short */
+        for (int round = 1; round <= 5; round++) {
+            run("route by LTId, decodeHeader, round " + round, nbLsps, () -> {
+                for (byte[] binaryLsp : binaryLsps) {
+                    EncryptedLocationSpecificPart header = decoder.decodeHeader(binaryLsp);
+                    shards[(int) (header.getLocationTemporaryPublicId().getLeastSignificantBits() & 0xF) + header.getType()]++;
+                }
+            });
+            run("route by LTId, header view, round " + round, nbLsps, () -> {
+                for (int offset = 0; offset < lsps.length; offset += lspSize) {
+                    view.wrap(lsps, offset);
+                    shards[(int) (view.getLocationTemporaryPublicIdLeastSignificantBits() & 0xF) + view.getType()]++;
+                }
+            });
+        }
+    }
+
+    interface Operation {
+        void run() throws Exception;
+    }
+
+    protected static void run(String label, Operation operation) throws Exception {
+        run(label, 1, operation);
+    }
+
+    /**
+     * @param nbOperationsPerRun number of operations done by one run, to report the time per operation
+     */
+    protected static void run(String label, int nbOperationsPerRun, Operation operation) throws Exception {
+        int iterations = Math.max(1, ITERATIONS / nbOperationsPerRun);
+        for (int i = 0; i < Math.max(1, WARMUP_ITERATIONS / nbOperationsPerRun); i++) {
+            operation.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            operation.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-60s %10.3f us/op%n", label, elapsed / 1000.0 / iterations / nbOperationsPerRun);
+    }
+}
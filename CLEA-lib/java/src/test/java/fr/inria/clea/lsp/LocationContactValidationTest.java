@@ -4,6 +4,9 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.time.Instant;
+import java.util.stream.Collectors;
+
+import javax.validation.ConstraintViolation;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
@@ -30,6 +33,22 @@ public class LocationContactValidationTest {
         new LocationContactValidator().validateMessage(locationContactBuilder.build());
     }
 
+    @Test
+    public void testHandWrittenChecksGiveTheSameViolationsAsTheBeanValidation() {
+        LocationContactValidator beanValidator = LocationContactValidator.withBeanValidation();
+        LocationContact[] locationContacts = {
+            locationContactBuilder.build(),
+            locationContactBuilder.locationPhone(" ").locationRegion(-1).locationPin("1234567").build(),
+            locationContactBuilder.locationPhone(null).locationRegion(256).locationPin(null).periodStartTime(null).build(),
+            locationContactBuilder.locationPhone("0").locationRegion(255).locationPin("").build(),
+        };
+        for (LocationContact locationContact : locationContacts) {
+            assertThat(LocationContactValidator.getInstance().validate(locationContact).stream().map(ConstraintViolation::getMessage))
+                    .containsExactlyInAnyOrderElementsOf(beanValidator.validate(locationContact).stream()
+                            .map(ConstraintViolation::getMessage).collect(Collectors.toList()));
+        }
+    }
+
     @Disabled("TODO: Enable the test when PIN max value set to 6")
     @Test
     public void testWhenPinCodeHasMoreThan6DigitsThenValidationFails() {
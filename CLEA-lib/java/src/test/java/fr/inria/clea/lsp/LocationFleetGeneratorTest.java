@@ -0,0 +1,137 @@
+package fr.inria.clea.lsp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import fr.inria.clea.lsp.LocationFleetGenerator.Result;
+import fr.inria.clea.lsp.LocationFleetGenerator.Venue;
+
+public class LocationFleetGeneratorTest {
+    private String[] serverAuthorityKeyPair;
+    private String[] manualContactTracingAuthorityKeyPair;
+    private Instant periodStartTime;
+    private LocationFleetGenerator generator;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        CleaEciesEncoder cleaEciesEncoder = new CleaEciesEncoder();
+        serverAuthorityKeyPair = cleaEciesEncoder.genKeysPair(true);
+        manualContactTracingAuthorityKeyPair = cleaEciesEncoder.genKeysPair(true);
+        periodStartTime = Instant.now().truncatedTo(ChronoUnit.HOURS);
+        generator = new LocationFleetGenerator(serverAuthorityKeyPair[1], manualContactTracingAuthorityKeyPair[1]);
+        generator.setChunkSize(4);
+        generator.setMaxChunksInFlight(2);
+    }
+
+    @Test
+    public void testFleetDeepLinksMatchTheOnesOfEachLocation() throws Exception {
+        List<Venue> venues = IntStream.range(0, 30).mapToObj(this::venue).collect(Collectors.toList());
+        /* invalid venue type */
+        venues.set(7, Venue.builder().id("invalid").permanentLocationSecretKey(permanentLocationSecretKey(7))
+                .locationSpecificPart(LocationSpecificPart.builder().venueType(40).periodDuration(24).build()).build());
+        List<Result> results = new ArrayList<>();
+
+        long records = generator.generate(venues.stream(), periodStartTime, results::add);
+
+        assertThat(records).isEqualTo(venues.size());
+        assertThat(results).extracting(Result::getVenue).containsExactlyElementsOf(venues);
+        assertThat(results.get(7).isSuccess()).isFalse();
+        assertThat(results.get(7).getError()).isNotNull();
+
+        LocationSpecificPartDecoder decoder = new LocationSpecificPartDecoder(serverAuthorityKeyPair[0]);
+        LocationContactMessageEncoder contactDecoder = new LocationContactMessageEncoder(manualContactTracingAuthorityKeyPair[0]);
+        DeepLinkParser parser = new DeepLinkParser();
+        for (int i = 0; i < venues.size(); i++) {
+            if (i == 7) {
+                continue;
+            }
+            Result result = results.get(i);
+            assertThat(result.isSuccess()).isTrue();
+            assertThat(result.getDeepLink()).startsWith(Location.COUNTRY_SPECIFIC_PREFIX);
+            LocationSpecificPart lsp = decoder.decrypt(parser.parse(result.getDeepLink()));
+            Location location = Location.builder()
+                    .locationSpecificPart(venues.get(i).getLocationSpecificPart().toBuilder().build())
+                    .permanentLocationSecretKey(permanentLocationSecretKey(i))
+                    .serverAuthorityPublicKey(serverAuthorityKeyPair[1]).build();
+            LocationSpecificPart expected = decoder.decrypt(parser.parse(location.newDeepLink(periodStartTime)));
+            assertThat(lsp.getLocationTemporaryPublicId()).isEqualTo(expected.getLocationTemporaryPublicId());
+            assertThat(lsp.getLocationTemporarySecretKey()).isEqualTo(expected.getLocationTemporarySecretKey());
+            assertThat(lsp.getVenueType()).isEqualTo(expected.getVenueType());
+            assertThat(lsp.getPeriodStartTime()).isEqualTo(periodStartTime);
+            assertThat(lsp.getQrCodeValidityStartTime()).isEqualTo(periodStartTime);
+            if (i % 2 == 0) {
+                LocationContact contact = contactDecoder.decode(lsp.getEncryptedLocationContactMessage());
+                assertThat(contact.getLocationPhone()).isEqualTo(venues.get(i).getContact().getLocationPhone());
+                assertThat(contact.getPeriodStartTime()).isEqualTo(periodStartTime);
+            } else {
+                assertThat(lsp.isLocationContactMessagePresent()).isFalse();
+            }
+        }
+    }
+
+    @Test
+    public void testFleetDeepLinksAreWrittenToACsvFile(@TempDir Path tempDir) throws Exception {
+        List<Venue> venues = IntStream.range(0, 10).mapToObj(this::venue).collect(Collectors.toList());
+        venues.add(Venue.builder().id("bad-key").permanentLocationSecretKey("not hexadecimal")
+                .locationSpecificPart(LocationSpecificPart.builder().periodDuration(24).build()).build());
+        venues.add(Venue.builder().id("venue \"11\", annex").permanentLocationSecretKey(permanentLocationSecretKey(11))
+                .locationSpecificPart(venue(11).getLocationSpecificPart()).build());
+        Path output = tempDir.resolve("deeplinks.csv");
+
+        long records = generator.generate(venues.iterator(), periodStartTime, output);
+
+        List<String> rawLines = Files.readAllLines(output, StandardCharsets.UTF_8);
+        List<String[]> lines = rawLines.stream().map(line -> line.split(",", -1)).collect(Collectors.toList());
+        assertThat(records).isEqualTo(12);
+        assertThat(rawLines).hasSize(12);
+        for (int i = 0; i < 10; i++) {
+            assertThat(lines.get(i)).hasSize(3);
+            assertThat(lines.get(i)[0]).isEqualTo("venue-" + i);
+            assertThat(lines.get(i)[1]).startsWith(Location.COUNTRY_SPECIFIC_PREFIX);
+            assertThat(lines.get(i)[2]).isEmpty();
+        }
+        assertThat(lines.get(10)[0]).isEqualTo("bad-key");
+        assertThat(lines.get(10)[1]).isEmpty();
+        assertThat(lines.get(10)[2]).isNotEmpty();
+        /* identifier quoted as a single field */
+        assertThat(rawLines.get(11)).startsWith("\"venue \"\"11\"\", annex\"," + Location.COUNTRY_SPECIFIC_PREFIX).endsWith(",");
+    }
+
+    @Test
+    public void testPeriodMustStartAtARoundHour() {
+        assertThrows(IllegalArgumentException.class, () -> generator.generate(Arrays.asList(venue(0)).iterator(),
+                periodStartTime.plusSeconds(60), result -> {}));
+    }
+
+    private Venue venue(int i) {
+        LocationSpecificPart venueFields = LocationSpecificPart.builder()
+                .staff(i % 3 == 0).qrCodeRenewalIntervalExponentCompact(LocationSpecificPart.QRCODE_NO_RENEWAL)
+                .venueType(1 + i % 18).venueCategory1(i % 4).venueCategory2(i % 3)
+                .periodDuration(24).build();
+        LocationContact contact = (i % 2 == 0)
+                ? new LocationContact(String.format(Locale.ROOT, "3380013%04d", i), 12, "012345", null)
+                : null;
+        return Venue.builder().id("venue-" + i).permanentLocationSecretKey(permanentLocationSecretKey(i))
+                .locationSpecificPart(venueFields).contact(contact).build();
+    }
+
+    private static String permanentLocationSecretKey(int i) {
+        return String.format(Locale.ROOT, "%064x", i + 1);
+    }
+}
@@ -4,20 +4,29 @@
 package fr.inria.clea.lsp;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.spec.InvalidKeySpecException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.List;
 import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.bouncycastle.crypto.InvalidCipherTextException;
 import org.bouncycastle.util.encoders.Hex;
@@ -32,10 +41,14 @@ import com.google.zxing.client.j2se.MatrixToImageWriter;
 import com.google.zxing.common.BitMatrix;
 import com.google.zxing.qrcode.QRCodeWriter;
 
+import fr.devnied.bitlib.BitUtils;
 import fr.devnied.bitlib.BytesUtils;
 import fr.inria.clea.lsp.exception.CleaCryptoException;
 import fr.inria.clea.lsp.exception.CleaEncodingException;
 import fr.inria.clea.lsp.exception.CleaEncryptionException;
+import fr.inria.clea.lsp.exception.CleaInvalidLocationMessageException;
+import fr.inria.clea.lsp.exception.CleaInvalidLocationTemporaryPublicIdException;
+import fr.inria.clea.lsp.utils.Base64UrlUtils;
 import fr.inria.clea.lsp.utils.TimeUtils;
 
 /**
@@ -81,6 +94,362 @@ class LocationSpecificPartTest {
         assertThat(decrypted).containsExactly(cleaEciesEncoder.concat(header, message));
     }
 
+    @Test
+    public void testCleaEciesEncodingAndDecodingOfDataWithPreparedKeys()
+            throws NoSuchAlgorithmException, NoSuchProviderException, InvalidAlgorithmParameterException, 
+            IllegalStateException, InvalidCipherTextException, IOException, InvalidKeySpecException {
+        byte[] message = Hex.decode("9F7213093CEDBBE66356550296A37DD18077E8646185EA2EA0EAFE88630F8C861A2E05F35BB2D863A28841CF");
+        byte[] header = Hex.decode("7D1BBFB6CAD6C2E862A7AEAD7DA27FB814");
+        CleaPublicKey publicKey = CleaPublicKey.fromHex(serverAuthorityKeyPair[1]);
+        CleaPrivateKey privateKey = CleaPrivateKey.fromHex(serverAuthorityKeyPair[0]);
+
+        byte[] encrypted = cleaEciesEncoder.encrypt(header, message, publicKey);
+
+        assertThat(cleaEciesEncoder.decrypt(encrypted, privateKey, true)).containsExactly(cleaEciesEncoder.concat(header, message));
+        assertThat(cleaEciesEncoder.decrypt(encrypted, serverAuthorityKeyPair[0], true)).containsExactly(cleaEciesEncoder.concat(header, message));
+        assertThat(publicKey).isEqualTo(CleaPublicKey.fromHex(publicKey.toHex()));
+        assertThat(privateKey).isEqualTo(CleaPrivateKey.fromHex(privateKey.toHex()));
+    }
+
+    @Test
+    public void testMalformedKeysAreReportedAsEncryptionErrors() throws CleaCryptoException {
+        /* point at infinity, not on the curve, not hexadecimal */
+        assertThrows(IllegalArgumentException.class, () -> CleaPublicKey.fromHex("00"));
+        assertThrows(IllegalArgumentException.class, () -> CleaPublicKey.fromHex("02ffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff"));
+        assertThrows(IllegalArgumentException.class, () -> CleaPublicKey.fromHex("not hexadecimal"));
+        assertThrows(IllegalArgumentException.class, () -> CleaPrivateKey.fromHex("not hexadecimal"));
+
+        Instant periodStartTime = Instant.now().truncatedTo(ChronoUnit.HOURS);
+        LocationSpecificPart lsp = LocationSpecificPart.builder()
+                .qrCodeRenewalIntervalExponentCompact(2).venueType(4).periodDuration(3).build();
+        Location validLocation = Location.builder().locationSpecificPart(lsp)
+                .serverAuthorityPublicKey(serverAuthorityKeyPair[1])
+                .permanentLocationSecretKey(permanentLocationSecretKey).build();
+        validLocation.setPeriodStartTime(periodStartTime);
+        validLocation.setQrCodeValidityStartTime(periodStartTime, periodStartTime);
+        byte[] encryptedLsp = validLocation.getLocationSpecificPartEncrypted();
+
+        LocationSpecificPartEncoder encoder = new LocationSpecificPartEncoder("00");
+        assertThrows(CleaEncryptionException.class, () -> encoder.encode(lsp));
+        assertThrows(CleaEncryptionException.class, () -> encoder.newTemplate(lsp));
+        LocationSpecificPartDecoder decoder = new LocationSpecificPartDecoder("not hexadecimal");
+        assertThrows(CleaEncryptionException.class, () -> decoder.decrypt(encryptedLsp));
+        assertThat(decoder.decryptAll(Arrays.asList(encryptedLsp)).get(0).getError())
+                .isInstanceOf(CleaEncryptionException.class);
+        Location location = Location.builder().locationSpecificPart(lsp.toBuilder().build()).serverAuthorityPublicKey("00")
+                .permanentLocationSecretKey(permanentLocationSecretKey).build();
+        assertThrows(CleaEncryptionException.class, () -> location.newDeepLink(periodStartTime));
+    }
+
+    @Test
+    public void testCleaEciesDecodingIntoCallerBuffers() throws Exception {
+        byte[] message = Hex.decode("9F7213093CEDBBE66356550296A37DD18077E8646185EA2EA0EAFE88630F8C861A2E05F35BB2D863A28841CF");
+        byte[] header = Hex.decode("7D1BBFB6CAD6C2E862A7AEAD7DA27FB814");
+        CleaPrivateKey privateKey = CleaPrivateKey.fromHex(serverAuthorityKeyPair[0]);
+        byte[] encrypted = cleaEciesEncoder.encrypt(header, message, serverAuthorityKeyPair[1]);
+        byte[] expected = cleaEciesEncoder.concat(header, message);
+
+        /* byte arrays with offsets */
+        byte[] in = new byte[encrypted.length + 5];
+        System.arraycopy(encrypted, 0, in, 5, encrypted.length);
+        byte[] out = new byte[expected.length + 3];
+        int length = cleaEciesEncoder.decrypt(in, 5, encrypted.length, privateKey, true, out, 3);
+        assertThat(length).isEqualTo(expected.length);
+        assertThat(Arrays.copyOfRange(out, 3, 3 + length)).containsExactly(expected);
+
+        /* direct byte buffers */
+        ByteBuffer directIn = ByteBuffer.allocateDirect(encrypted.length);
+        ((Buffer) directIn.put(encrypted)).flip();
+        ByteBuffer directOut = ByteBuffer.allocateDirect(expected.length);
+        cleaEciesEncoder.decrypt(directIn, privateKey, true, directOut);
+        assertThat(directIn.hasRemaining()).isFalse();
+        byte[] decrypted = new byte[expected.length];
+        ((ByteBuffer) ((Buffer) directOut).flip()).get(decrypted);
+        assertThat(decrypted).containsExactly(expected);
+
+        /* ranges out of the buffers are rejected before decrypting, the output buffer being untouched */
+        byte[] untouched = new byte[expected.length];
+        assertThrows(IndexOutOfBoundsException.class,
+                () -> cleaEciesEncoder.decrypt(in, 6, encrypted.length, privateKey, true, untouched, 0));
+        assertThrows(IndexOutOfBoundsException.class,
+                () -> cleaEciesEncoder.decrypt(in, -1, encrypted.length, privateKey, true, untouched, 0));
+        assertThrows(IndexOutOfBoundsException.class,
+                () -> cleaEciesEncoder.decrypt(in, 5, encrypted.length, privateKey, true, untouched, 1));
+        assertThat(untouched).containsOnly(0);
+
+        /* a bad tag is rejected and leaves no plaintext in the output buffer */
+        in[5 + CleaEciesEncoder.HEADER_BYTES_SIZE] ^= 1;
+        byte[] wiped = new byte[expected.length];
+        assertThrows(InvalidCipherTextException.class, 
+                () -> cleaEciesEncoder.decrypt(in, 5, encrypted.length, privateKey, true, wiped, 0));
+        assertThat(wiped).containsOnly(0);
+    }
+
+    @Test
+    public void testCleaEciesBatchDecodingMatchesSingleDecoding() throws Exception {
+        byte[] header = Hex.decode("7D1BBFB6CAD6C2E862A7AEAD7DA27FB814");
+        CleaPrivateKey privateKey = CleaPrivateKey.fromHex(serverAuthorityKeyPair[0]);
+        byte[][] encryptedMessages = new byte[6][];
+        for (int i = 0; i < encryptedMessages.length; i++) {
+            byte[] message = new byte[CleaEciesEncoder.MSG_BYTES_SIZE];
+            new Random().nextBytes(message);
+            encryptedMessages[i] = cleaEciesEncoder.encrypt(header, message, serverAuthorityKeyPair[1]);
+        }
+        byte[][] expected = new byte[encryptedMessages.length][];
+        for (int i = 0; i < encryptedMessages.length; i++) {
+            expected[i] = cleaEciesEncoder.decrypt(encryptedMessages[i], privateKey, true);
+        }
+        /* invalid C0, bad tag, missing message */
+        Arrays.fill(encryptedMessages[1], encryptedMessages[1].length - CleaEciesEncoder.C0_BYTES_SIZE, encryptedMessages[1].length, (byte) 0);
+        encryptedMessages[4][CleaEciesEncoder.HEADER_BYTES_SIZE] ^= 1;
+        encryptedMessages[5] = null;
+        Exception[] failures = new Exception[encryptedMessages.length];
+
+        byte[][] decrypted = cleaEciesEncoder.decryptAll(encryptedMessages, privateKey, true, failures);
+
+        assertThat(decrypted[0]).containsExactly(expected[0]);
+        assertThat(decrypted[2]).containsExactly(expected[2]);
+        assertThat(decrypted[3]).containsExactly(expected[3]);
+        assertThat(decrypted[1]).isNull();
+        assertThat(failures[1]).isInstanceOf(IllegalArgumentException.class);
+        assertThat(decrypted[4]).isNull();
+        assertThat(failures[4]).isInstanceOf(InvalidCipherTextException.class);
+        assertThat(decrypted[5]).isNull();
+        assertThat(failures[5]).isNull();
+    }
+
+    @Test
+    public void testEphemeralKeyReservoirPrecomputesSingleUseEncapsulations() throws Exception {
+        byte[] message = Hex.decode("9F7213093CEDBBE66356550296A37DD18077E8646185EA2EA0EAFE88630F8C861A2E05F35BB2D863A28841CF");
+        byte[] header = Hex.decode("7D1BBFB6CAD6C2E862A7AEAD7DA27FB814");
+        CleaPublicKey publicKey = CleaPublicKey.fromHex(serverAuthorityKeyPair[1]);
+        CleaPrivateKey privateKey = CleaPrivateKey.fromHex(serverAuthorityKeyPair[0]);
+        try (CleaEphemeralKeyReservoir reservoir = new CleaEphemeralKeyReservoir(new BouncyCastleCryptoBackend(), 4)) {
+            CleaEciesEncoder encryptor = new CleaEciesEncoder(reservoir);
+            reservoir.reserve(publicKey);
+            long deadline = System.currentTimeMillis() + 10000;
+            while (reservoir.getAvailable(publicKey) < 4 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertThat(reservoir.getAvailable(publicKey)).isEqualTo(4);
+
+            /* more encryptions than the depth: the last ones may be encapsulated on the calling thread */
+            List<String> ephemeralKeys = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                byte[] encrypted = encryptor.encrypt(header, message, publicKey);
+                assertThat(cleaEciesEncoder.decrypt(encrypted, privateKey, true))
+                        .containsExactly(cleaEciesEncoder.concat(header, message));
+                ephemeralKeys.add(Hex.toHexString(Arrays.copyOfRange(encrypted,
+                        encrypted.length - CleaEciesEncoder.C0_BYTES_SIZE, encrypted.length)));
+            }
+            assertThat(ephemeralKeys).doesNotHaveDuplicates();
+        }
+    }
+
+    @Test
+    public void testEphemeralKeyReservoirKeepsNoEncapsulationComputedDuringItsClosing() throws Exception {
+        CleaPublicKey publicKey = CleaPublicKey.fromHex(serverAuthorityKeyPair[1]);
+        AtomicBoolean computing = new AtomicBoolean();
+        AtomicBoolean closed = new AtomicBoolean();
+        BouncyCastleCryptoBackend bouncyCastle = new BouncyCastleCryptoBackend();
+        /* the background thread finishes an encapsulation once the reservoir is closed */
+        CleaCryptoBackend slowBackend = new CleaCryptoBackend() {
+            @Override
+            public void encapsulate(CleaPublicKey publicKey, byte[] c0, byte[] secret) {
+                computing.set(true);
+                while (!closed.get()) {
+                    Thread.yield();
+                }
+                bouncyCastle.encapsulate(publicKey, c0, secret);
+            }
+
+            @Override
+            public void decapsulate(CleaPrivateKey privateKey, byte[] c0, byte[] secret) {
+                bouncyCastle.decapsulate(privateKey, c0, secret);
+            }
+        };
+        CleaEphemeralKeyReservoir reservoir = new CleaEphemeralKeyReservoir(slowBackend, 4);
+        reservoir.reserve(publicKey);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!computing.get() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+
+        reservoir.close();
+        closed.set(true);
+        Thread.sleep(100);
+
+        assertThat(reservoir.getAvailable(publicKey)).isZero();
+    }
+
+    @Test
+    public void testCleaEciesCryptoBackendsAreInteroperable() throws Exception {
+        byte[] message = Hex.decode("9F7213093CEDBBE66356550296A37DD18077E8646185EA2EA0EAFE88630F8C861A2E05F35BB2D863A28841CF");
+        byte[] header = Hex.decode("7D1BBFB6CAD6C2E862A7AEAD7DA27FB814");
+        CleaPublicKey publicKey = CleaPublicKey.fromHex(serverAuthorityKeyPair[1]);
+        CleaPrivateKey privateKey = CleaPrivateKey.fromHex(serverAuthorityKeyPair[0]);
+        CleaEciesEncoder[] encoders = { new CleaEciesEncoder(new BouncyCastleCryptoBackend()),
+                new CleaEciesEncoder(new JdkCryptoBackend()) };
+
+        for (CleaEciesEncoder encryptor : encoders) {
+            byte[][] encryptedMessages = { encryptor.encrypt(header, message, publicKey),
+                    encryptor.encrypt(header, message, publicKey) };
+            for (CleaEciesEncoder decryptor : encoders) {
+                assertThat(decryptor.decrypt(encryptedMessages[0], privateKey, true))
+                        .containsExactly(cleaEciesEncoder.concat(header, message));
+                byte[][] decrypted = decryptor.decryptAll(encryptedMessages, privateKey, true, null);
+                assertThat(decrypted[0]).containsExactly(cleaEciesEncoder.concat(header, message));
+                assertThat(decrypted[1]).containsExactly(cleaEciesEncoder.concat(header, message));
+            }
+        }
+    }
+
+    @Test
+    public void testCleaAeadCiphersGiveTheSameOutput() throws Exception {
+        Random random = new Random();
+        byte[] key = new byte[32];
+        byte[] iv = new byte[12];
+        byte[] header = new byte[CleaEciesEncoder.HEADER_BYTES_SIZE];
+        byte[] message = new byte[CleaEciesEncoder.MSG_BYTES_SIZE];
+        CleaAeadCipher bcCipher = new BouncyCastleAeadCipher();
+        CleaAeadCipher jdkCipher = new JdkAeadCipher();
+        assertThat(JdkAeadCipher.isAvailable()).isTrue();
+        assertThat(CleaAeadCipher.newInstance()).isInstanceOf(JdkAeadCipher.class);
+
+        for (int i = 0; i < 10; i++) {
+            random.nextBytes(key);
+            random.nextBytes(iv);
+            random.nextBytes(header);
+            random.nextBytes(message);
+            byte[] bcEncrypted = new byte[message.length + CleaEciesEncoder.TAG_BYTES_SIZE];
+            byte[] jdkEncrypted = new byte[message.length + CleaEciesEncoder.TAG_BYTES_SIZE];
+            bcCipher.encrypt(key, iv, header, 0, header.length, message, 0, message.length, bcEncrypted, 0);
+            jdkCipher.encrypt(key, iv, header, 0, header.length, message, 0, message.length, jdkEncrypted, 0);
+            assertThat(jdkEncrypted).containsExactly(bcEncrypted);
+            /* in place, with new instances not to reuse the key and IV */
+            for (CleaAeadCipher cipher : new CleaAeadCipher[] { new BouncyCastleAeadCipher(), new JdkAeadCipher() }) {
+                byte[] inPlace = Arrays.copyOf(message, message.length + CleaEciesEncoder.TAG_BYTES_SIZE);
+                cipher.encrypt(key, iv, header, 0, header.length, inPlace, 0, message.length, inPlace, 0);
+                assertThat(inPlace).containsExactly(bcEncrypted);
+            }
+
+            byte[] decrypted = new byte[message.length];
+            jdkCipher.decrypt(key, iv, header, 0, header.length, bcEncrypted, 0, bcEncrypted.length, decrypted, 0);
+            assertThat(decrypted).containsExactly(message);
+            header[0] ^= 1;
+            assertThrows(InvalidCipherTextException.class, () -> jdkCipher.decrypt(key, iv, header, 0, header.length, 
+                    bcEncrypted, 0, bcEncrypted.length, decrypted, 0));
+        }
+    }
+
+    /**
+     * The codec must give the same bytes as the bit-by-bit BitUtils encoding, including
+     * the saturation of the values exceeding their field
+     */
+    @Test
+    public void testCodecMatchesBitUtilsEncodingAndDecoding() throws Exception {
+        Random random = new Random();
+        LocationSpecificPartEncoder encoder = new LocationSpecificPartEncoder();
+        LocationSpecificPartDecoder decoder = new LocationSpecificPartDecoder();
+        for (int i = 0; i < 200; i++) {
+            byte[] locationTemporarySecretKey = new byte[32];
+            random.nextBytes(locationTemporarySecretKey);
+            byte[] encryptedLocationContactMessage = null;
+            if (random.nextBoolean()) {
+                encryptedLocationContactMessage = new byte[CleaEciesEncoder.LOC_BYTES_SIZE + CleaEciesEncoder.TAG_BYTES_SIZE
+                        + CleaEciesEncoder.C0_BYTES_SIZE];
+                random.nextBytes(encryptedLocationContactMessage);
+            }
+            /* 1 in 10 with values exceeding their field */
+            boolean outOfRange = i % 10 == 0;
+            LocationSpecificPart lsp = LocationSpecificPart.builder()
+                    .version(outOfRange ? 9 : random.nextInt(8))
+                    .type(outOfRange ? 9 : random.nextInt(8))
+                    .locationTemporaryPublicId(UUID.randomUUID())
+                    .staff(random.nextBoolean())
+                    .qrCodeRenewalIntervalExponentCompact(outOfRange ? 33 : random.nextInt(32))
+                    .venueType(outOfRange ? 40 : random.nextInt(32))
+                    .venueCategory1(outOfRange ? 17 : random.nextInt(16))
+                    .venueCategory2(outOfRange ? 100 : random.nextInt(16))
+                    .periodDuration(outOfRange ? 257 : random.nextInt(256))
+                    .compressedPeriodStartTime(outOfRange ? 16777217 : random.nextInt(16777216))
+                    .qrCodeValidityStartTime(TimeUtils.instantFromTimestamp(random.nextInt() & 0xFFFFFFFFL))
+                    .locationTemporarySecretKey(locationTemporarySecretKey)
+                    .encryptedLocationContactMessage(encryptedLocationContactMessage)
+                    .build();
+
+            byte[] header = encoder.binaryEncodedHeader(lsp);
+            byte[] message = encoder.binaryEncodedMessage(lsp);
+            assertThat(header).containsExactly(bitUtilsEncodedHeader(lsp));
+            assertThat(message).containsExactly(bitUtilsEncodedMessage(lsp));
+
+            byte[] binaryLsp = cleaEciesEncoder.concat(header, message);
+            LocationSpecificPart decodedLsp = decoder.decodeMessage(binaryLsp, LocationSpecificPart.builder()
+                    .version(lsp.getVersion()).type(lsp.getType()).locationTemporaryPublicId(lsp.getLocationTemporaryPublicId()));
+            assertThat(decodedLsp).isEqualTo(bitUtilsDecodedMessage(binaryLsp, lsp));
+            if (!outOfRange) {
+                assertThat(decodedLsp).isEqualTo(lsp);
+            }
+        }
+        /* a value of exactly 2^n is saturated and does not leak into the neighbouring field */
+        byte[] message = new byte[CleaEciesEncoder.MSG_BYTES_SIZE];
+        LocationSpecificPartCodec.encodeMessage(LocationSpecificPart.builder().venueType(32).venueCategory1(16)
+                .compressedPeriodStartTime(16777216).locationTemporarySecretKey(new byte[32]).build(), message, 0);
+        long fields = LocationSpecificPartCodec.getLong(message, 0);
+        assertThat(LocationSpecificPartCodec.qrCodeRenewalIntervalExponentCompact(fields)).isZero();
+        assertThat(LocationSpecificPartCodec.venueType(fields)).isEqualTo(31);
+        assertThat(LocationSpecificPartCodec.venueCategory1(fields)).isEqualTo(15);
+        assertThat(LocationSpecificPartCodec.venueCategory2(fields)).isZero();
+        assertThat(LocationSpecificPartCodec.periodDuration(fields)).isZero();
+        assertThat(LocationSpecificPartCodec.compressedPeriodStartTime(fields)).isEqualTo(16777215);
+    }
+
+    private byte[] bitUtilsEncodedHeader(LocationSpecificPart lsp) {
+        BitUtils header = new BitUtils(8 * CleaEciesEncoder.HEADER_BYTES_SIZE);
+        header.setNextInteger(lsp.getVersion(), 3);
+        header.setNextInteger(lsp.getType(), 3);
+        header.setNextInteger(0x0, 2);
+        header.setNextByte(cleaEciesEncoder.uuidToBytes(lsp.getLocationTemporaryPublicId()), 128);
+        return header.getData();
+    }
+
+    private byte[] bitUtilsEncodedMessage(LocationSpecificPart lsp) throws IOException {
+        BitUtils message = new BitUtils(8 * CleaEciesEncoder.MSG_BYTES_SIZE);
+        message.setNextInteger(lsp.isStaff() ? 1 : 0, 1);
+        message.setNextInteger(lsp.isLocationContactMessagePresent() ? 1 : 0, 1);
+        message.setNextInteger(0x0, 12);
+        message.setNextInteger(lsp.getQrCodeRenewalIntervalExponentCompact(), 5);
+        message.setNextInteger(lsp.getVenueType(), 5);
+        message.setNextInteger(lsp.getVenueCategory1(), 4);
+        message.setNextInteger(lsp.getVenueCategory2(), 4);
+        message.setNextInteger(lsp.getPeriodDuration(), 8);
+        message.setNextInteger(lsp.getCompressedPeriodStartTime(), 24);
+        message.setNextLong(TimeUtils.ntpTimestampFromInstant(lsp.getQrCodeValidityStartTime()), 32);
+        message.setNextByte(lsp.getLocationTemporarySecretKey(), 256);
+        return lsp.isLocationContactMessagePresent() ? 
+                cleaEciesEncoder.concat(message.getData(), lsp.getEncryptedLocationContactMessage()) : message.getData();
+    }
+
+    private LocationSpecificPart bitUtilsDecodedMessage(byte[] binaryLsp, LocationSpecificPart lsp) {
+        BitUtils message = new BitUtils(Arrays.copyOfRange(binaryLsp, CleaEciesEncoder.HEADER_BYTES_SIZE, 
+                CleaEciesEncoder.HEADER_BYTES_SIZE + CleaEciesEncoder.MSG_BYTES_SIZE));
+        boolean staff = message.getNextInteger(1) == 1;
+        message.getNextInteger(13);
+        return LocationSpecificPart.builder()
+                .version(lsp.getVersion()).type(lsp.getType()).locationTemporaryPublicId(lsp.getLocationTemporaryPublicId())
+                .staff(staff)
+                .qrCodeRenewalIntervalExponentCompact(message.getNextInteger(5))
+                .venueType(message.getNextInteger(5))
+                .venueCategory1(message.getNextInteger(4))
+                .venueCategory2(message.getNextInteger(4))
+                .periodDuration(message.getNextInteger(8))
+                .compressedPeriodStartTime(message.getNextInteger(24))
+                .qrCodeValidityStartTime(TimeUtils.instantFromTimestamp(message.getNextLong(32)))
+                .locationTemporarySecretKey(message.getNextByte(256))
+                .encryptedLocationContactMessage(lsp.getEncryptedLocationContactMessage())
+                .build();
+    }
+
     @Test
     public void testEncodinsAndDecodingOfALocationMessage() throws CleaCryptoException {
         Instant periodStartTime = Instant.now().truncatedTo(ChronoUnit.HOURS);
@@ -96,6 +465,44 @@ class LocationSpecificPartTest {
         assertThat(decodedLocationContact).isEqualTo(locationContact);
     }
 
+    /**
+     * The contact codec must give the same bytes as the bit-by-bit BitUtils encoding
+     */
+    @Test
+    public void testContactCodecMatchesBitUtilsEncodingAndDecoding() {
+        Random random = new Random();
+        LocationContactMessageEncoder encoder = new LocationContactMessageEncoder((String) null);
+        for (int i = 0; i < 200; i++) {
+            StringBuilder locationPhone = new StringBuilder();
+            for (int digit = 1 + random.nextInt(LocationContactCodec.PHONE_DIGITS); digit > 0; digit--) {
+                locationPhone.append(random.nextInt(10));
+            }
+            String locationPin = String.format("%06d", random.nextInt(1000000));
+            LocationContact locationContact = new LocationContact(locationPhone.toString(), random.nextInt(256),
+                    locationPin, TimeUtils.instantFromTimestamp(random.nextInt() & 0xFFFFFFFFL));
+
+            byte[] message = encoder.getBinaryMessage(locationContact);
+            assertThat(message).containsExactly(bitUtilsEncodedContactMessage(locationContact));
+            assertThat(LocationContactCodec.decode(message, 0)).isEqualTo(locationContact);
+            assertThat(new LocationContactView().wrap(message).toLocationContact()).isEqualTo(locationContact);
+        }
+    }
+
+    private byte[] bitUtilsEncodedContactMessage(LocationContact locationContact) {
+        BitUtils message = new BitUtils(8 * CleaEciesEncoder.LOC_BYTES_SIZE);
+        for (int i = 0; i < 15; i++) {
+            message.setNextInteger(i < locationContact.getLocationPhone().length() 
+                    ? locationContact.getLocationPhone().charAt(i) - '0' : 0x0f, 4);
+        }
+        message.setNextInteger(0x0, 4);
+        message.setNextInteger(locationContact.getLocationRegion(), 8);
+        for (int i = 0; i < 6; i++) {
+            message.setNextInteger(locationContact.getLocationPin().charAt(i) - '0', 4);
+        }
+        message.setNextLong(TimeUtils.ntpTimestampFromInstant(locationContact.getPeriodStartTime()), 32);
+        return message.getData();
+    }
+
     @Test
     public void testEncodingAndDecodingOfALocationSpecificPart() throws CleaCryptoException {
         Instant periodStartTime = Instant.now().truncatedTo(ChronoUnit.HOURS);
@@ -122,6 +529,39 @@ class LocationSpecificPartTest {
         assertThat(lsp.getEncryptedLocationContactMessage()).isNotNull();
     }
 
+    @Test
+    public void testTemplateEncodingPatchesOnlyTheQrCodeValidityStartTime() throws CleaCryptoException {
+        Instant periodStartTime = Instant.now().truncatedTo(ChronoUnit.HOURS);
+        LocationContact locationContact = new LocationContact("33800130000", 12, "012345", periodStartTime);
+        LocationSpecificPart lsp = LocationSpecificPart.builder().staff(true)
+                .qrCodeRenewalIntervalExponentCompact(10).venueType(4).venueCategory1(1).venueCategory2(2)
+                .periodDuration(3).build();
+        Location location = Location.builder().contact(locationContact).locationSpecificPart(lsp)
+                .manualContactTracingAuthorityPublicKey(manualContactTracingAuthorityKeyPair[1])
+                .serverAuthorityPublicKey(serverAuthorityKeyPair[1])
+                .permanentLocationSecretKey(permanentLocationSecretKey).build();
+        location.setPeriodStartTime(periodStartTime);
+        lsp.setEncryptedLocationContactMessage(location.getLocationContactMessageEncrypted());
+
+        LocationSpecificPartTemplate template = new LocationSpecificPartEncoder(serverAuthorityKeyPair[1]).newTemplate(lsp);
+        LocationSpecificPartDecoder decoder = new LocationSpecificPartDecoder(serverAuthorityKeyPair[0]);
+        assertThat(template.getEncodedLength()).isEqualTo(DeepLinkParser.LSP_WITH_CONTACT_BYTES_SIZE);
+        for (int renewal = 0; renewal < 4; renewal++) {
+            Instant qrCodeValidityStartTime = periodStartTime.plusSeconds(renewal * lsp.getQrCodeRenewalInterval());
+            LocationSpecificPart expectedLsp = lsp.toBuilder().qrCodeValidityStartTime(qrCodeValidityStartTime).build();
+
+            assertThat(decoder.decrypt(template.encode(qrCodeValidityStartTime))).isEqualTo(expectedLsp);
+
+            byte[] scratch = new byte[template.getEncodedLength()];
+            char[] chars = new char[Base64UrlUtils.encodedLength(template.getEncodedLength()) + 2];
+            int nbChars = template.encodeBase64(TimeUtils.ntpTimestampFromInstant(qrCodeValidityStartTime), scratch, chars, 2);
+            assertThat(decoder.decrypt(new String(chars, 2, nbChars))).isEqualTo(expectedLsp);
+        }
+        /* the template is validated once, at its creation */
+        assertThrows(CleaInvalidLocationMessageException.class, () -> new LocationSpecificPartEncoder(serverAuthorityKeyPair[1])
+                .newTemplate(lsp.toBuilder().venueType(40).build()));
+    }
+
     @Test
     public void testEncodingAndDecodingOfALocationSpecificPartWithoutLocationContact()
             throws CleaCryptoException {
@@ -145,6 +585,254 @@ class LocationSpecificPartTest {
         assertThat(decodedLsp).isEqualTo(lsp);
     }
 
+    @Test
+    public void testVerificationOfTheLocationTemporaryPublicIdRejectsForgedLocationSpecificParts() throws CleaCryptoException {
+        Instant periodStartTime = Instant.now().truncatedTo(ChronoUnit.HOURS);
+        LocationSpecificPart lsp = LocationSpecificPart.builder().staff(false)
+                .qrCodeRenewalIntervalExponentCompact(2).venueType(4).venueCategory1(0).venueCategory2(0)
+                .periodDuration(3).build();
+        Location location = Location.builder().locationSpecificPart(lsp)
+                .serverAuthorityPublicKey(serverAuthorityKeyPair[1])
+                .permanentLocationSecretKey(permanentLocationSecretKey).build();
+        location.setPeriodStartTime(periodStartTime);
+        location.setQrCodeValidityStartTime(periodStartTime, periodStartTime);
+        byte[] genuineLsp = location.getLocationSpecificPartEncrypted();
+        /* forged LTId, not derived from the LTKey */
+        lsp.setLocationTemporaryPublicId(UUID.randomUUID());
+        byte[] forgedLsp = new LocationSpecificPartEncoder(serverAuthorityKeyPair[1]).encode(lsp);
+        LocationSpecificPartDecoder decoder = new LocationSpecificPartDecoder(serverAuthorityKeyPair[0]);
+
+        assertThat(decoder.decrypt(forgedLsp).getLocationTemporaryPublicId()).isEqualTo(lsp.getLocationTemporaryPublicId());
+        decoder.setVerifier(new LocationSpecificPartVerifier());
+        assertThat(decoder.decrypt(genuineLsp).getLocationTemporaryPublicId()).isNotEqualTo(lsp.getLocationTemporaryPublicId());
+        assertThrows(CleaInvalidLocationTemporaryPublicIdException.class, () -> decoder.decrypt(forgedLsp));
+        List<LocationSpecificPartDecryptionResult> results = decoder.decryptAll(new byte[][] { genuineLsp, forgedLsp });
+        assertThat(results.get(0).isSuccess()).isTrue();
+        assertThat(results.get(1).getError()).isInstanceOf(CleaInvalidLocationTemporaryPublicIdException.class);
+    }
+
+    /**
+     * The header view must read the same fields as decodeHeader, from arrays and buffers
+     */
+    @ParameterizedTest
+    @CsvFileSource(resources = "/testLSPDecoding.csv", numLinesToSkip = 1)
+    public void testHeaderViewReadsTheSameFieldsAsTheDecoder(int staff, String locationTemporaryPublicID,
+            int qrCodeRenewalIntervalExponentCompact, int venueType, int venueCat1, int venueCat2, int periodDuration,
+            int periodStartTime, long qrStartTime, String locationTemporarySecretKey,
+            String serverAuthoritySecretKey, String serverAuthorityPublicKey,
+            String lspbase64) throws CleaCryptoException {
+        byte[] binaryLsp = Base64.getUrlDecoder().decode(lspbase64);
+        EncryptedLocationSpecificPart encryptedLsp = new LocationSpecificPartDecoder().decodeHeader(binaryLsp);
+        byte[] array = new byte[7 + binaryLsp.length];
+        System.arraycopy(binaryLsp, 0, array, 7, binaryLsp.length);
+        ByteBuffer direct = ByteBuffer.allocateDirect(array.length).order(ByteOrder.LITTLE_ENDIAN);
+        direct.put(array);
+        LocationSpecificPartHeaderView view = new LocationSpecificPartHeaderView();
+
+        for (LocationSpecificPartHeaderView header : new LocationSpecificPartHeaderView[] { view.wrap(binaryLsp, 0), 
+                view.wrap(array, 7), view.wrap(ByteBuffer.wrap(array), 7), view.wrap(direct, 7) }) {
+            assertThat(header.getVersion()).isEqualTo(encryptedLsp.getVersion());
+            assertThat(header.getType()).isEqualTo(encryptedLsp.getType());
+            assertThat(header.getPadding()).isZero();
+            assertThat(header.toLocationTemporaryPublicId()).isEqualTo(UUID.fromString(locationTemporaryPublicID));
+            assertThat(header.hasLocationTemporaryPublicId(encryptedLsp.getLocationTemporaryPublicId().getMostSignificantBits(),
+                    encryptedLsp.getLocationTemporaryPublicId().getLeastSignificantBits())).isTrue();
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> view.wrap(array, array.length - 16));
+    }
+
+    /**
+     * Deep links and bare LSPs, alone or in a larger text, must decode to the same LSP
+     */
+    @ParameterizedTest
+    @CsvFileSource(resources = "/testLSPDecoding.csv", numLinesToSkip = 1)
+    public void testDeepLinkParsingIntoCallerBuffers(int staff, String locationTemporaryPublicID,
+            int qrCodeRenewalIntervalExponentCompact, int venueType, int venueCat1, int venueCat2, int periodDuration,
+            int periodStartTime, long qrStartTime, String locationTemporarySecretKey,
+            String serverAuthoritySecretKey, String serverAuthorityPublicKey,
+            String lspbase64) throws CleaCryptoException {
+        DeepLinkParser parser = new DeepLinkParser();
+        LocationSpecificPartDecoder decoder = new LocationSpecificPartDecoder(serverAuthoritySecretKey);
+        byte[] expected = Base64.getUrlDecoder().decode(lspbase64);
+        String deepLink = Location.COUNTRY_SPECIFIC_PREFIX + lspbase64;
+        String payload = "[\"" + deepLink + "\",\"" + lspbase64 + "\"]";
+        byte[] in = new byte[2 + DeepLinkParser.LSP_WITH_CONTACT_BYTES_SIZE];
+        byte[] out = new byte[CleaEciesEncoder.decryptedLength(DeepLinkParser.LSP_WITH_CONTACT_BYTES_SIZE)];
+
+        assertThat(parser.parse(lspbase64)).containsExactly(expected);
+        assertThat(parser.parse(deepLink)).containsExactly(expected);
+        for (int linkStart : new int[] { 2, payload.lastIndexOf(lspbase64) }) {
+            int length = parser.parse(payload, linkStart, payload.indexOf('"', linkStart), in, 2);
+            assertThat(Arrays.copyOfRange(in, 2, 2 + length)).containsExactly(expected);
+            LocationSpecificPartView view = decoder.decrypt(in, 2, length, out, 0, new LocationSpecificPartView());
+            assertThat(view.toLocationSpecificPart()).isEqualTo(decoder.decrypt(lspbase64));
+        }
+        /* bad lengths are rejected before decoding */
+        assertThrows(CleaEncodingException.class, () -> parser.parse(lspbase64.substring(4)));
+        assertThrows(CleaEncodingException.class, () -> parser.parse(deepLink + "AAAA"));
+        assertThrows(CleaEncodingException.class, () -> parser.parse("https://other.org?v=0#" + lspbase64));
+        assertThrows(CleaEncodingException.class, () -> parser.parse(lspbase64.replace(lspbase64.charAt(5), '+')));
+    }
+
+    /**
+     * The view over the decrypted bytes must read the same fields as the decoder
+     */
+    @ParameterizedTest
+    @CsvFileSource(resources = "/testLSPDecoding.csv", numLinesToSkip = 1)
+    public void testViewReadsTheSameFieldsAsTheDecoder(int staff, String locationTemporaryPublicID,
+            int qrCodeRenewalIntervalExponentCompact, int venueType, int venueCat1, int venueCat2, int periodDuration,
+            int periodStartTime, long qrStartTime, String locationTemporarySecretKey,
+            String serverAuthoritySecretKey, String serverAuthorityPublicKey,
+            String lspbase64) throws CleaCryptoException {
+        LocationSpecificPartDecoder decoder = new LocationSpecificPartDecoder(serverAuthoritySecretKey);
+        LocationSpecificPart lsp = decoder.decrypt(lspbase64);
+        LocationSpecificPartView view = decoder.decrypt(Base64.getUrlDecoder().decode(lspbase64), new LocationSpecificPartView());
+        byte[] ltKey = new byte[LocationSpecificPartCodec.LT_KEY_BYTES_SIZE];
+        view.getLocationTemporarySecretKey(ltKey, 0);
+
+        assertThat(view.isStaff()).isEqualTo(staff == 1);
+        assertThat(view.getQrCodeRenewalIntervalExponentCompact()).isEqualTo(qrCodeRenewalIntervalExponentCompact);
+        assertThat(view.getQrCodeRenewalInterval()).isEqualTo(lsp.getQrCodeRenewalInterval());
+        assertThat(view.getVenueType()).isEqualTo(venueType);
+        assertThat(view.getVenueCategory1()).isEqualTo(venueCat1);
+        assertThat(view.getVenueCategory2()).isEqualTo(venueCat2);
+        assertThat(view.getPeriodDuration()).isEqualTo(periodDuration);
+        assertThat(view.getCompressedPeriodStartTime()).isEqualTo(periodStartTime);
+        assertThat(view.getPeriodStartTime()).isEqualTo(TimeUtils.ntpTimestampFromInstant(lsp.getPeriodStartTime()));
+        assertThat(view.getQrCodeValidityStartTime()).isEqualTo(qrStartTime);
+        assertThat(Hex.toHexString(ltKey)).isEqualTo(locationTemporarySecretKey);
+        assertThat(view.isLocationContactMessagePresent()).isEqualTo(lsp.isLocationContactMessagePresent());
+        assertThat(view.toLocationSpecificPart()).isEqualTo(lsp);
+    }
+
+    @ParameterizedTest
+    @CsvFileSource(resources = "/testLSPDecoding.csv", numLinesToSkip = 1)
+    public void testCompactLocationSpecificPartConvertsWithoutLoss(int staff, String locationTemporaryPublicID,
+            int qrCodeRenewalIntervalExponentCompact, int venueType, int venueCat1, int venueCat2, int periodDuration,
+            int periodStartTime, long qrStartTime, String locationTemporarySecretKey,
+            String serverAuthoritySecretKey, String serverAuthorityPublicKey,
+            String lspbase64) throws CleaCryptoException {
+        LocationSpecificPartDecoder decoder = new LocationSpecificPartDecoder(serverAuthoritySecretKey);
+        LocationSpecificPart lsp = decoder.decrypt(lspbase64);
+        CompactLocationSpecificPart compactLsp = decoder.decryptCompact(Base64.getUrlDecoder().decode(lspbase64), true);
+
+        assertThat(compactLsp.getLocationTemporaryPublicId()).isEqualTo(UUID.fromString(locationTemporaryPublicID));
+        assertThat(compactLsp.isStaff()).isEqualTo(staff == 1);
+        assertThat(compactLsp.getQrCodeRenewalIntervalExponentCompact()).isEqualTo(qrCodeRenewalIntervalExponentCompact);
+        assertThat(compactLsp.getVenueType()).isEqualTo(venueType);
+        assertThat(compactLsp.getVenueCategory1()).isEqualTo(venueCat1);
+        assertThat(compactLsp.getVenueCategory2()).isEqualTo(venueCat2);
+        assertThat(compactLsp.getPeriodDuration()).isEqualTo(periodDuration);
+        assertThat(compactLsp.getCompressedPeriodStartTime()).isEqualTo(periodStartTime);
+        assertThat(compactLsp.getQrCodeValidityStartTime()).isEqualTo(qrStartTime);
+        assertThat(Hex.toHexString(compactLsp.getLocationTemporarySecretKey())).isEqualTo(locationTemporarySecretKey);
+        assertThat(compactLsp.toLocationSpecificPart()).isEqualTo(lsp);
+        assertThat(CompactLocationSpecificPart.from(lsp)).isEqualTo(compactLsp);
+
+        CompactLocationSpecificPart withoutKey = decoder.decryptCompact(Base64.getUrlDecoder().decode(lspbase64), false);
+        assertThat(withoutKey).isEqualTo(compactLsp.withoutLocationTemporarySecretKey());
+        assertThat(withoutKey.isLocationTemporarySecretKeyPresent()).isFalse();
+        assertThat(withoutKey.toLocationSpecificPart()).isEqualTo(lsp.toBuilder().locationTemporarySecretKey(null).build());
+        assertThrows(IllegalStateException.class, () -> withoutKey.getLocationTemporarySecretKey(new byte[32], 0));
+        assertThrows(IllegalArgumentException.class, () -> CompactLocationSpecificPart.from(
+                lsp.toBuilder().venueType(32).build()));
+    }
+
+    /**
+     * The verifier must agree with computeLocationTemporaryPublicId on the testLSPDecoding.csv vectors
+     */
+    @ParameterizedTest
+    @CsvFileSource(resources = "/testLSPDecoding.csv", numLinesToSkip = 1)
+    public void testVerificationOfTheLocationTemporaryPublicIdOfTestVectors(int staff, String locationTemporaryPublicID,
+            int qrCodeRenewalIntervalExponentCompact, int venueType, int venueCat1, int venueCat2, int periodDuration,
+            int periodStartTime, long qrStartTime, String locationTemporarySecretKey,
+            String serverAuthoritySecretKey, String serverAuthorityPublicKey,
+            String lspbase64) throws CleaCryptoException {
+        LocationSpecificPartDecoder decoder = new LocationSpecificPartDecoder(serverAuthoritySecretKey);
+        decoder.setVerifier(new LocationSpecificPartVerifier());
+        /* the LTIds of some vectors are not derived from their LTKey */
+        boolean consistent = cleaEciesEncoder.computeLocationTemporaryPublicId(Hex.decode(locationTemporarySecretKey))
+                .equals(UUID.fromString(locationTemporaryPublicID));
+
+        if (consistent) {
+            assertThat(decoder.decrypt(lspbase64).getLocationTemporaryPublicId()).isEqualTo(UUID.fromString(locationTemporaryPublicID));
+        } else {
+            assertThrows(CleaInvalidLocationTemporaryPublicIdException.class, () -> decoder.decrypt(lspbase64));
+        }
+    }
+
+    @Test
+    public void testBatchDecryptionOfLocationSpecificPartsKeepsOrderAndReportsFailures() throws Exception {
+        Instant periodStartTime = Instant.now().truncatedTo(ChronoUnit.HOURS);
+        List<byte[]> encryptedLocationSpecificParts = new ArrayList<>();
+        List<LocationSpecificPart> lsps = new ArrayList<>();
+        for (int venueType = 0; venueType < 10; venueType++) {
+            LocationSpecificPart lsp = LocationSpecificPart.builder().staff(venueType % 2 == 0)
+                    .qrCodeRenewalIntervalExponentCompact(2).venueType(venueType).venueCategory1(0).venueCategory2(0)
+                    .periodDuration(3).build();
+            Location location = Location.builder().locationSpecificPart(lsp)
+                    .serverAuthorityPublicKey(serverAuthorityKeyPair[1])
+                    .permanentLocationSecretKey(permanentLocationSecretKey).build();
+            location.setPeriodStartTime(periodStartTime);
+            location.setQrCodeValidityStartTime(periodStartTime, periodStartTime);
+            encryptedLocationSpecificParts.add(location.getLocationSpecificPartEncrypted());
+            lsps.add(lsp);
+        }
+        /* corrupt the tag of the 4th LSP and truncate the 8th */
+        encryptedLocationSpecificParts.get(3)[CleaEciesEncoder.HEADER_BYTES_SIZE + CleaEciesEncoder.MSG_BYTES_SIZE] ^= 1;
+        encryptedLocationSpecificParts.set(7, new byte[CleaEciesEncoder.HEADER_BYTES_SIZE]);
+        /* the 6th is authentic but its plaintext is shorter than the header and the message */
+        byte[] shortLocationSpecificPart = shortEncryptedLocationSpecificPart(encryptedLocationSpecificParts.get(5));
+        encryptedLocationSpecificParts.set(5, shortLocationSpecificPart);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+
+        try {
+            List<LocationSpecificPartDecryptionResult> results = new LocationSpecificPartDecoder(serverAuthorityKeyPair[0])
+                    .decryptAll(encryptedLocationSpecificParts, executor);
+
+            assertThat(results).hasSize(10);
+            for (int i = 0; i < results.size(); i++) {
+                if (i == 3 || i == 5 || i == 7) {
+                    assertThat(results.get(i).isSuccess()).isFalse();
+                    assertThat(results.get(i).getError()).isNotNull();
+                } else {
+                    assertThat(results.get(i).isSuccess()).isTrue();
+                    assertThat(results.get(i).getLocationSpecificPart()).isEqualTo(lsps.get(i));
+                }
+            }
+            assertThat(results.get(5).getError()).isInstanceOf(CleaEncodingException.class);
+            assertThat(results.get(7).getError()).isInstanceOf(CleaEncodingException.class);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDecryptionOfAShortAuthenticLocationSpecificPartFailsWithAnEncodingError() throws Exception {
+        LocationSpecificPart lsp = LocationSpecificPart.builder().qrCodeRenewalIntervalExponentCompact(2)
+                .venueType(4).periodDuration(3).build();
+        Location location = Location.builder().locationSpecificPart(lsp)
+                .serverAuthorityPublicKey(serverAuthorityKeyPair[1])
+                .permanentLocationSecretKey(permanentLocationSecretKey).build();
+        Instant periodStartTime = Instant.now().truncatedTo(ChronoUnit.HOURS);
+        location.setPeriodStartTime(periodStartTime);
+        location.setQrCodeValidityStartTime(periodStartTime, periodStartTime);
+        byte[] shortLocationSpecificPart = shortEncryptedLocationSpecificPart(location.getLocationSpecificPartEncrypted());
+        LocationSpecificPartDecoder decoder = new LocationSpecificPartDecoder(serverAuthorityKeyPair[0]);
+
+        assertThrows(CleaEncodingException.class, () -> decoder.decrypt(shortLocationSpecificPart));
+        assertThat(decoder.decryptAll(Arrays.asList(shortLocationSpecificPart)).get(0).getError())
+                .isInstanceOf(CleaEncodingException.class);
+    }
+
+    /**
+     * @return a LSP encrypted with PK_SA, with the header of the given one and a message of 10 bytes
+     */
+    private byte[] shortEncryptedLocationSpecificPart(byte[] encryptedLocationSpecificPart) throws Exception {
+        return cleaEciesEncoder.encrypt(Arrays.copyOf(encryptedLocationSpecificPart, CleaEciesEncoder.HEADER_BYTES_SIZE),
+                new byte[10], CleaPublicKey.fromHex(serverAuthorityKeyPair[1]));
+    }
+
     @Disabled("compute new String values with c lib")
     @Test
     public void testDecryptionFromMessageEncryptedByCleaCLibrary() throws NoSuchAlgorithmException,
@@ -241,6 +929,51 @@ class LocationSpecificPartTest {
         assertThat(lsp.getQrCodeValidityStartTime()).isEqualTo(TimeUtils.instantFromTimestamp(qrStartTime));
     }
 
+    /**
+     * Testing the decoding of a LSP in base64 with the JDK ECDH backend
+     */
+    @ParameterizedTest
+    @CsvFileSource(resources = "/testLSPDecoding.csv", numLinesToSkip = 1)
+    public void testDecodingOfLocationSpecificPartInBase64WithJdkCryptoBackend(int staff, String locationTemporaryPublicID,
+            int qrCodeRenewalIntervalExponentCompact, int venueType, int venueCat1, int venueCat2, int periodDuration,
+            int periodStartTime, long qrStartTime, String locationTemporarySecretKey,
+            String serverAuthoritySecretKey, String serverAuthorityPublicKey,
+            String lspbase64) throws CleaCryptoException {
+        LocationSpecificPartDecoder decoder = new LocationSpecificPartDecoder(CleaPrivateKey.fromHex(serverAuthoritySecretKey),
+                new CleaEciesEncoder(new JdkCryptoBackend()));
+        LocationSpecificPart lsp = decoder.decrypt(lspbase64);
+
+        assertThat(lsp.getLocationTemporaryPublicId()).isEqualTo(UUID.fromString(locationTemporaryPublicID));
+        assertThat(lsp.getCompressedPeriodStartTime()).isEqualTo(periodStartTime);
+        String lsp_locationTemporarySecretKey = BytesUtils.bytesToStringNoSpace(lsp.getLocationTemporarySecretKey()).toLowerCase();
+        assertThat(lsp_locationTemporarySecretKey).isEqualTo(locationTemporarySecretKey);
+        assertThat(lsp.getQrCodeValidityStartTime()).isEqualTo(TimeUtils.instantFromTimestamp(qrStartTime));
+    }
+
+    /**
+     * Testing the decoding of a LSP in base64 with each AES-GCM implementation
+     */
+    @ParameterizedTest
+    @CsvFileSource(resources = "/testLSPDecoding.csv", numLinesToSkip = 1)
+    public void testDecodingOfLocationSpecificPartInBase64WithEachAeadCipher(int staff, String locationTemporaryPublicID,
+            int qrCodeRenewalIntervalExponentCompact, int venueType, int venueCat1, int venueCat2, int periodDuration,
+            int periodStartTime, long qrStartTime, String locationTemporarySecretKey,
+            String serverAuthoritySecretKey, String serverAuthorityPublicKey,
+            String lspbase64) throws CleaCryptoException {
+        CleaEciesEncoder[] encoders = { new CleaEciesEncoder(new BouncyCastleCryptoBackend(), BouncyCastleAeadCipher::new),
+                new CleaEciesEncoder(new BouncyCastleCryptoBackend(), JdkAeadCipher::new) };
+        for (CleaEciesEncoder encoder : encoders) {
+            LocationSpecificPartDecoder decoder = new LocationSpecificPartDecoder(CleaPrivateKey.fromHex(serverAuthoritySecretKey),
+                    encoder);
+            LocationSpecificPart lsp = decoder.decrypt(lspbase64);
+
+            assertThat(lsp.getLocationTemporaryPublicId()).isEqualTo(UUID.fromString(locationTemporaryPublicID));
+            String lsp_locationTemporarySecretKey = BytesUtils.bytesToStringNoSpace(lsp.getLocationTemporarySecretKey()).toLowerCase();
+            assertThat(lsp_locationTemporarySecretKey).isEqualTo(locationTemporarySecretKey);
+            assertThat(lsp.getQrCodeValidityStartTime()).isEqualTo(TimeUtils.instantFromTimestamp(qrStartTime));
+        }
+    }
+
     /**
      * Testing the encoding/decoding of a LSP in base64 testLSPDecoding.csv values
      * are generated by the interoperability test launched manually in python (in
@@ -316,6 +1049,32 @@ class LocationSpecificPartTest {
         assertThat(decodedLocationContact.getPeriodStartTime()).isEqualTo(TimeUtils.instantFromTimestamp(t_periodStart));
     }
 
+    @ParameterizedTest
+    @CsvFileSource(resources = "/testLocationDecoding.csv", numLinesToSkip = 1)
+    public void testContactViewReadsTheSameFieldsAsTheDecoder(String locationPhone, int locationRegion, String locationPin,
+            long t_periodStart, String serverAuthoritySecretKey, String serverAuthorityPublicKey,
+            String manualContactTracingAuthoritySecretKey, String manualContactTracingAuthorityPublicKey,
+            String lspbase64) throws CleaCryptoException {
+        byte[] encryptedLocationContactMessage = new LocationSpecificPartDecoder(serverAuthoritySecretKey)
+                .decrypt(lspbase64).getEncryptedLocationContactMessage();
+        LocationContactMessageEncoder encoder = new LocationContactMessageEncoder(manualContactTracingAuthoritySecretKey);
+
+        /* encrypted message in the middle of a buffer, decrypted at an offset */
+        byte[] in = new byte[encryptedLocationContactMessage.length + 5];
+        System.arraycopy(encryptedLocationContactMessage, 0, in, 3, encryptedLocationContactMessage.length);
+        byte[] out = new byte[CleaEciesEncoder.LOC_BYTES_SIZE + 7];
+        LocationContactView view = encoder.decode(in, 3, encryptedLocationContactMessage.length, out, 7,
+                new LocationContactView());
+
+        assertThat(view.getLocationPhone()).isEqualTo(locationPhone);
+        assertThat(view.getLocationRegion()).isEqualTo(locationRegion);
+        assertThat(view.getLocationPin()).isEqualTo(locationPin);
+        assertThat(view.getPeriodStartTime()).isEqualTo(t_periodStart);
+        assertThat(String.format("%015x", view.getLocationPhoneNibbles())).startsWith(locationPhone);
+        assertThat(String.format("%06x", view.getLocationPinNibbles())).isEqualTo(locationPin);
+        assertThat(view.toLocationContact()).isEqualTo(encoder.decode(encryptedLocationContactMessage));
+    }
+
     @Test
     public void testLocationSpecificPartBase64EciesDecryption() throws NoSuchAlgorithmException,
             InvalidKeySpecException, IllegalStateException, InvalidCipherTextException, IOException {
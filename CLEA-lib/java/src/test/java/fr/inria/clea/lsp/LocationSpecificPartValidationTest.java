@@ -4,8 +4,13 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.time.Instant;
+import java.util.List;
 import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Collectors;
+
+import javax.validation.ConstraintViolation;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -48,6 +53,34 @@ public class LocationSpecificPartValidationTest {
         this.validator.validateMessage(locationSpecificPartBuilder.build());
     }
 
+    @Test
+    public void testHandWrittenChecksGiveTheSameViolationsAsTheBeanValidation() {
+        LocationSpecificPartValidator beanValidator = LocationSpecificPartValidator.withBeanValidation();
+        int[] values = { -1, 0, 1, 7, 8, 9, 15, 16, 17, 31, 32, 33, 255, 256, 16777216, 16777217 };
+        for (int value : values) {
+            LocationSpecificPart[] lsps = {
+                locationSpecificPartBuilder.version(value).type(value).build(),
+                locationSpecificPartBuilder.version(0).type(0).qrCodeRenewalIntervalExponentCompact(value).venueType(value).build(),
+                locationSpecificPartBuilder.qrCodeRenewalIntervalExponentCompact(0).venueType(0)
+                        .venueCategory1(value).venueCategory2(value).build(),
+                locationSpecificPartBuilder.venueCategory1(0).venueCategory2(0)
+                        .periodDuration(value).compressedPeriodStartTime(value).build(),
+            };
+            for (LocationSpecificPart lsp : lsps) {
+                assertThat(messages(LocationSpecificPartValidator.getInstance().validate(lsp)))
+                        .containsExactlyInAnyOrderElementsOf(messages(beanValidator.validate(lsp)));
+            }
+        }
+        LocationSpecificPart lsp = LocationSpecificPart.builder().locationTemporarySecretKey(new byte[3]).build();
+        assertThat(messages(LocationSpecificPartValidator.getInstance().validate(lsp)))
+                .containsExactlyInAnyOrderElementsOf(messages(beanValidator.validate(lsp)))
+                .hasSize(3);
+    }
+
+    private static List<String> messages(Set<ConstraintViolation<LocationSpecificPart>> violations) {
+        return violations.stream().map(ConstraintViolation::getMessage).collect(Collectors.toList());
+    }
+
     @Test
     public void testWhenVersionHasNegativeValueThenValidationFails() {
         LocationSpecificPart lsp = locationSpecificPartBuilder.version(-1).build();
@@ -1,11 +1,21 @@
 package fr.inria.clea.lsp;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -36,6 +46,28 @@ public class LocationTest {
         locationContact = new LocationContact("3380013000", 10, "012345", periodStartTime);
     }
 
+    @Test
+    public void testBulkDerivationOfTemporaryKeysMatchesOnePeriodDerivation() throws CleaEncryptionException {
+        CleaEciesEncoder cleaEciesEncoder = new CleaEciesEncoder();
+        int nbPeriods = 48;
+        byte[] ltKeys = new byte[3 + nbPeriods * LocationTemporaryKeyDeriver.LT_KEY_BYTES_SIZE];
+        long[] ltIdsMsb = new long[1 + nbPeriods];
+        long[] ltIdsLsb = new long[1 + nbPeriods];
+
+        new LocationTemporaryKeyDeriver(permanentLocationSecretKey).derive(periodStartTime, nbPeriods, ltKeys, 3,
+                ltIdsMsb, ltIdsLsb, 1);
+
+        for (int i = 0; i < nbPeriods; i++) {
+            Instant period = periodStartTime.plus(i, ChronoUnit.HOURS);
+            byte[] ltKey = cleaEciesEncoder.computeLocationTemporarySecretKey(permanentLocationSecretKey, period);
+            UUID ltId = cleaEciesEncoder.computeLocationTemporaryPublicId(ltKey);
+            int offset = 3 + i * LocationTemporaryKeyDeriver.LT_KEY_BYTES_SIZE;
+            assertThat(Arrays.copyOfRange(ltKeys, offset, offset + LocationTemporaryKeyDeriver.LT_KEY_BYTES_SIZE))
+                    .containsExactly(ltKey);
+            assertThat(new UUID(ltIdsMsb[1 + i], ltIdsLsb[1 + i])).isEqualTo(ltId);
+        }
+    }
+
     @Test
     public void testWhenSettingQrCodeValidityStartTimeWithValidQrCodeRenewalIntervalThenQrValidityStartTimeUpdated() {
         int qrCodeRenewalIntervalExponentCompact = 2;
@@ -125,6 +157,146 @@ public class LocationTest {
         assertThat(deepLink3).isNotIn(deepLink, deepLink2);
     }
 
+    @Test
+    public void testNewDeepLinkIntoCallerBuffers() throws CleaCryptoException {
+        lsp = newLocationSpecificPart(2, 3);
+        location = newLocation(locationContact, lsp);
+        LocationSpecificPartDecoder decoder = new LocationSpecificPartDecoder(serverAuthorityKeyPair[0]);
+        /* compared without the encrypted location contact message */
+        LocationSpecificPart expected = withoutContactMessage(decoder.decrypt(location.newDeepLink(periodStartTime)
+                .substring(Location.COUNTRY_SPECIFIC_PREFIX.length())));
+
+        char[] chars = new char[1 + Location.DEEP_LINK_MAX_LENGTH];
+        int length = location.newDeepLink(periodStartTime, periodStartTime, chars, 1);
+        assertThat(length).isEqualTo(Location.DEEP_LINK_MAX_LENGTH);
+        byte[] binaryLsp = new DeepLinkParser().parse(new String(chars, 1, length));
+        assertThat(withoutContactMessage(decoder.decrypt(binaryLsp))).isEqualTo(expected);
+
+        for (ByteBuffer buffer : new ByteBuffer[] { ByteBuffer.allocate(300), ByteBuffer.allocateDirect(300) }) {
+            ((Buffer) buffer).position(5);
+            int lspLength = location.getLocationSpecificPartEncrypted(buffer);
+            assertThat(buffer.position()).isEqualTo(5 + lspLength);
+            byte[] encrypted = new byte[lspLength];
+            ((ByteBuffer) ((Buffer) buffer).position(5)).get(encrypted);
+            assertThat(withoutContactMessage(decoder.decrypt(encrypted))).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void testLocationContactMessageIsEncryptedOncePerPeriod() throws CleaCryptoException {
+        lsp = newLocationSpecificPart(2, 1);
+        location = newLocation(locationContact, lsp);
+        LocationSpecificPartDecoder decoder = new LocationSpecificPartDecoder(serverAuthorityKeyPair[0]);
+        LocationContactMessageEncoder contactDecoder = new LocationContactMessageEncoder(manualContactTracingAuthorityKeyPair[0]);
+        Instant nextPeriodStartTime = periodStartTime.plus(1, ChronoUnit.HOURS);
+
+        byte[] contactMessage = decryptDeepLink(decoder, location.newDeepLink(periodStartTime)).getEncryptedLocationContactMessage();
+        byte[] renewedContactMessage = decryptDeepLink(decoder, location.newDeepLink(periodStartTime, periodStartTime.plusSeconds(4)))
+                .getEncryptedLocationContactMessage();
+        byte[] nextContactMessage = decryptDeepLink(decoder, location.newDeepLink(nextPeriodStartTime))
+                .getEncryptedLocationContactMessage();
+
+        assertThat(renewedContactMessage).isEqualTo(contactMessage);
+        assertThat(nextContactMessage).isNotEqualTo(contactMessage);
+        assertThat(contactDecoder.decode(contactMessage).getPeriodStartTime()).isEqualTo(periodStartTime);
+        assertThat(contactDecoder.decode(nextContactMessage).getPeriodStartTime()).isEqualTo(nextPeriodStartTime);
+    }
+
+    @Test
+    public void testDeepLinksOfAPeriodAreCreatedConcurrentlyFromASharedLocation() throws Exception {
+        lsp = newLocationSpecificPart(10, 2);
+        location = newLocation(locationContact, lsp);
+        LocationSpecificPartDecoder decoder = new LocationSpecificPartDecoder(serverAuthorityKeyPair[0]);
+        LocationContactMessageEncoder contactDecoder = new LocationContactMessageEncoder(manualContactTracingAuthorityKeyPair[0]);
+        Instant nextPeriodStartTime = periodStartTime.plus(2, ChronoUnit.HOURS);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String[]>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    String[] deepLinks = new String[8];
+                    for (int i = 0; i < deepLinks.length; i++) {
+                        Instant start = (i % 2 == 0) ? periodStartTime : nextPeriodStartTime;
+                        deepLinks[i] = location.getPeriod(start).newDeepLink(start.plusSeconds(1024L * (i / 2)));
+                    }
+                    return deepLinks;
+                }));
+            }
+            UUID[] locationTemporaryPublicIds = new UUID[2];
+            for (Future<String[]> future : futures) {
+                String[] deepLinks = future.get();
+                for (int i = 0; i < deepLinks.length; i++) {
+                    Instant start = (i % 2 == 0) ? periodStartTime : nextPeriodStartTime;
+                    LocationSpecificPart decoded = decryptDeepLink(decoder, deepLinks[i]);
+                    assertThat(decoded.getPeriodStartTime()).isEqualTo(start);
+                    assertThat(decoded.getQrCodeValidityStartTime()).isEqualTo(start.plusSeconds(1024L * (i / 2)));
+                    assertThat(contactDecoder.decode(decoded.getEncryptedLocationContactMessage()).getPeriodStartTime())
+                            .isEqualTo(start);
+                    if (locationTemporaryPublicIds[i % 2] == null) {
+                        locationTemporaryPublicIds[i % 2] = decoded.getLocationTemporaryPublicId();
+                    }
+                    assertThat(decoded.getLocationTemporaryPublicId()).isEqualTo(locationTemporaryPublicIds[i % 2]);
+                }
+            }
+            assertThat(locationTemporaryPublicIds[0]).isNotEqualTo(locationTemporaryPublicIds[1]);
+        } finally {
+            executor.shutdown();
+        }
+        /* the snapshots do not change the location specific part of the location */
+        assertThat(location.getLocationSpecificPart()).isEqualTo(lsp);
+        assertThat(location.getLocationSpecificPart().getLocationTemporaryPublicId()).isNull();
+        assertThat(location.getPeriod(nextPeriodStartTime)).isSameAs(location.getPeriod(nextPeriodStartTime));
+    }
+
+    @Test
+    public void testSnapshotsOfTheCurrentAndNextPeriodsAreBothKept() throws CleaCryptoException {
+        lsp = newLocationSpecificPart(10, 1);
+        location = newLocation(locationContact, lsp);
+        Instant previousPeriodStartTime = periodStartTime.minus(1, ChronoUnit.HOURS);
+        Instant nextPeriodStartTime = periodStartTime.plus(1, ChronoUnit.HOURS);
+
+        LocationPeriod period = location.getPeriod(periodStartTime);
+        /* next period computed ahead of time */
+        LocationPeriod nextPeriod = location.getPeriod(nextPeriodStartTime);
+
+        assertThat(location.getPeriod(periodStartTime)).isSameAs(period);
+        assertThat(location.getPeriod(nextPeriodStartTime)).isSameAs(nextPeriod);
+        /* older than the two latest periods: computed again at each call */
+        LocationPeriod previousPeriod = location.getPeriod(previousPeriodStartTime);
+        assertThat(previousPeriod.getPeriodStartTime()).isEqualTo(previousPeriodStartTime);
+        assertThat(location.getPeriod(previousPeriodStartTime)).isNotSameAs(previousPeriod);
+        assertThat(location.getPeriod(periodStartTime)).isSameAs(period);
+        /* a later period drops the oldest one */
+        location.getPeriod(nextPeriodStartTime.plus(1, ChronoUnit.HOURS));
+        assertThat(location.getPeriod(nextPeriodStartTime)).isSameAs(nextPeriod);
+        assertThat(location.getPeriod(periodStartTime)).isNotSameAs(period);
+    }
+
+    @Test
+    public void testPeriodRejectsQrCodeValidityStartTimesOutOfItsRenewals() throws CleaCryptoException {
+        lsp = newLocationSpecificPart(10, 1);
+        location = newLocation(locationContact, lsp);
+        LocationPeriod period = location.getPeriod(periodStartTime);
+
+        assertThat(period.getPeriodEndTime()).isEqualTo(periodStartTime.plus(1, ChronoUnit.HOURS));
+        assertThat(period.getQrCodeValidityStartTime(periodStartTime.plusSeconds(1500))).isEqualTo(periodStartTime.plusSeconds(1024));
+        assertThat(period.getQrCodeValidUntil(periodStartTime.plusSeconds(3072))).isEqualTo(period.getPeriodEndTime());
+        assertThrows(IllegalArgumentException.class, () -> period.newDeepLink(periodStartTime.plusSeconds(1)));
+        assertThrows(IllegalArgumentException.class, () -> period.newDeepLink(periodStartTime.minusSeconds(1024)));
+        assertThrows(IllegalArgumentException.class, () -> period.newDeepLink(period.getPeriodEndTime()));
+        assertThrows(IllegalArgumentException.class, () -> location.getPeriod(periodStartTime.plusSeconds(60)));
+    }
+
+    protected LocationSpecificPart decryptDeepLink(LocationSpecificPartDecoder decoder, String deepLink) throws CleaCryptoException {
+        return decoder.decrypt(deepLink.substring(Location.COUNTRY_SPECIFIC_PREFIX.length()));
+    }
+
+    protected LocationSpecificPart withoutContactMessage(LocationSpecificPart lsp) {
+        assertThat(lsp.getEncryptedLocationContactMessage()).hasSize(CleaEciesEncoder.LOC_BYTES_SIZE
+                + CleaEciesEncoder.TAG_BYTES_SIZE + CleaEciesEncoder.C0_BYTES_SIZE);
+        return lsp.toBuilder().encryptedLocationContactMessage(null).build();
+    }
+
     protected LocationSpecificPart newLocationSpecificPart(int qrCodeRenewalIntervalExponentCompact,
             int periodDuration) {
         return LocationSpecificPart.builder().staff(true)
@@ -0,0 +1,55 @@
+package fr.inria.clea.lsp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class LspEncoderDecoderTest {
+    /* Example of a permanent Location Secret Key used for the tests */
+    private final String permanentLocationSecretKey = "23c9b8f36ac1c0cddaf869c3733b771c3dc409416a9695df40397cea53e7f39e21f76925fc0c74ca6ee7c7eafad92473fd8575";
+    private String[] serverAuthorityKeyPair;
+    private String[] manualContactTracingAuthorityKeyPair;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        CleaEciesEncoder cleaEciesEncoder = new CleaEciesEncoder();
+        serverAuthorityKeyPair = cleaEciesEncoder.genKeysPair(true);
+        manualContactTracingAuthorityKeyPair = cleaEciesEncoder.genKeysPair(true);
+    }
+
+    @Test
+    public void testServeModeAnswersEachCommandWithTheSameValuesAsTheCommandLine() throws Exception {
+        LspEncoderDecoder lspEncoderDecoder = new LspEncoderDecoder();
+        String[] encoded = lspEncoderDecoder.execute(new String[] { "encode", "1", "5", "12", "3", "4", "2",
+                serverAuthorityKeyPair[1], manualContactTracingAuthorityKeyPair[1], permanentLocationSecretKey,
+                "33800130000", "12", "012345" }).substring("=VALUES=".length()).split(" ");
+        String decodeCommand = "decode " + encoded[0] + " " + serverAuthorityKeyPair[0] + " " + manualContactTracingAuthorityKeyPair[0];
+
+        String commands = decodeCommand + "\n"
+                + "\n"
+                + "# comment\n"
+                + "decode AAAA " + serverAuthorityKeyPair[0] + " " + manualContactTracingAuthorityKeyPair[0] + "\n"
+                + "  " + decodeCommand + "  \n"
+                + "quit\n"
+                + decodeCommand + "\n";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        lspEncoderDecoder.serve(new ByteArrayInputStream(commands.getBytes(StandardCharsets.UTF_8)),
+                new PrintStream(out, true, "UTF-8"));
+        String[] answers = new String(out.toByteArray(), StandardCharsets.UTF_8).split(System.lineSeparator());
+
+        String expected = "=VALUES=1 5 12 3 4 2 " + encoded[1] + " " + encoded[2] + " " + encoded[3] + " " + encoded[4]
+                + " 33800130000 12 012345";
+        assertThat(answers).hasSize(3);
+        assertThat(answers[0]).isEqualTo(expected);
+        assertThat(answers[1]).startsWith(LspEncoderDecoder.ERROR_PREFIX);
+        assertThat(answers[2]).isEqualTo(expected);
+        /* same answer from a fresh instance, as on the command line */
+        assertThat(new LspEncoderDecoder().execute(decodeCommand.split(" "))).isEqualTo(expected);
+    }
+}
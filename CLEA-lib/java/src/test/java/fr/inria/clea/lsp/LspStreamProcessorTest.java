@@ -0,0 +1,131 @@
+package fr.inria.clea.lsp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import fr.inria.clea.lsp.exception.CleaCryptoException;
+import fr.inria.clea.lsp.exception.CleaEncodingException;
+
+public class LspStreamProcessorTest {
+    /* Server authority secret key of most of the rows of testLSPDecoding.csv */
+    private static final String SERVER_AUTHORITY_SECRET_KEY = "34af7f978c5a17772867d929e0b800dd2db74608322d73f2f0cfd19cdcaeccc8";
+
+    @TempDir
+    Path tempDir;
+    private List<String> rows;
+    private LocationSpecificPartDecoder decoder;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        rows = Files.readAllLines(Paths.get(getClass().getResource("/testLSPDecoding.csv").toURI()));
+        decoder = new LocationSpecificPartDecoder(SERVER_AUTHORITY_SECRET_KEY);
+    }
+
+    @Test
+    public void testCsvRecordsAreDecryptedInTheInputOrder() throws Exception {
+        /* repeated rows, a blank line and no end of line at the end of the file */
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            lines.addAll(rows.subList(1, rows.size()));
+        }
+        lines.add(3, "");
+        Path input = tempDir.resolve("lsps.csv");
+        Files.write(input, (rows.get(0) + "\r\n" + String.join("\r\n", lines)).getBytes(StandardCharsets.US_ASCII));
+
+        LspStreamProcessor processor = new LspStreamProcessor(decoder);
+        processor.setColumn(12);
+        processor.setHeaderLines(1);
+        processor.setChunkSize(3);
+        processor.setMaxChunksInFlight(2);
+        /* a few lines by window, the lines crossing the end of a window being read in the next one */
+        processor.setWindowSize(2000);
+        AtomicLong lastRecords = new AtomicLong();
+        AtomicLong lastBytesRead = new AtomicLong();
+        processor.setProgressListener((records, bytesRead, totalBytes) -> {
+            assertThat(records).isGreaterThan(lastRecords.get());
+            assertThat(totalBytes).isEqualTo(input.toFile().length());
+            lastRecords.set(records);
+            lastBytesRead.set(bytesRead);
+        });
+        List<Long> lineNumbers = new ArrayList<>();
+        List<LocationSpecificPartDecryptionResult> results = new ArrayList<>();
+        long count = processor.process(input, (lineNumber, result) -> {
+            lineNumbers.add(lineNumber);
+            results.add(result);
+        });
+
+        assertThat(count).isEqualTo(lines.size() - 1).isEqualTo(lastRecords.get());
+        assertThat(lastBytesRead.get()).isEqualTo(input.toFile().length());
+        int k = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            if (lines.get(i).isEmpty()) {
+                continue;
+            }
+            String[] fields = lines.get(i).split(",");
+            assertThat(lineNumbers.get(k)).isEqualTo(i + 2);
+            if (fields[10].trim().equals(SERVER_AUTHORITY_SECRET_KEY)) {
+                assertThat(results.get(k).isSuccess()).isTrue();
+                assertThat(results.get(k).getLocationSpecificPart()).isEqualTo(decoder.decrypt(fields[12].trim()));
+            } else {
+                assertThat(results.get(k).isSuccess()).isFalse();
+            }
+            k++;
+        }
+    }
+
+    @Test
+    public void testMalformedDeepLinksAreReportedWithoutStoppingTheProcessing() throws Exception {
+        String lsp = rows.get(1).split(",")[12].trim();
+        Path input = tempDir.resolve("deeplinks.txt");
+        Files.write(input, (Location.COUNTRY_SPECIFIC_PREFIX + lsp + "\n" + "not a deep link\n"
+                + Location.COUNTRY_SPECIFIC_PREFIX + lsp.substring(1) + "\n" + lsp + "\n").getBytes(StandardCharsets.US_ASCII));
+
+        List<LocationSpecificPartDecryptionResult> results = new ArrayList<>();
+        long count = new LspStreamProcessor(decoder).process(input, (lineNumber, result) -> results.add(result));
+
+        assertThat(count).isEqualTo(4);
+        LocationSpecificPart expected = decoder.decrypt(lsp);
+        assertThat(results.get(0).getLocationSpecificPart()).isEqualTo(expected);
+        assertThat(results.get(1).getError()).isInstanceOf(CleaEncodingException.class);
+        assertThat(results.get(2).getError()).isInstanceOf(CleaEncodingException.class);
+        assertThat(results.get(3).getLocationSpecificPart()).isEqualTo(expected);
+    }
+
+    @Test
+    public void testCrlfDeepLinksAreDecryptedWithoutTheirTrailingSpaces() throws Exception {
+        String lsp = rows.get(1).split(",")[12].trim();
+        Path input = tempDir.resolve("deeplinks-crlf.txt");
+        Files.write(input, (Location.COUNTRY_SPECIFIC_PREFIX + lsp + "\r\n" + "  " + Location.COUNTRY_SPECIFIC_PREFIX + lsp
+                + " \t\r\n" + lsp + "\r\n").getBytes(StandardCharsets.US_ASCII));
+
+        List<LocationSpecificPartDecryptionResult> results = new ArrayList<>();
+        long count = new LspStreamProcessor(decoder).process(input, (lineNumber, result) -> results.add(result));
+
+        assertThat(count).isEqualTo(3);
+        LocationSpecificPart expected = decoder.decrypt(lsp);
+        assertThat(results).allSatisfy(result -> assertThat(result.getLocationSpecificPart()).isEqualTo(expected));
+    }
+
+    @Test
+    public void testLineLongerThanTheWindowIsRejected() throws IOException, CleaCryptoException {
+        Path input = tempDir.resolve("long.txt");
+        Files.write(input, (rows.get(1) + "\n" + rows.get(2) + "\n").getBytes(StandardCharsets.US_ASCII));
+        LspStreamProcessor processor = new LspStreamProcessor(decoder);
+        processor.setWindowSize(100);
+
+        assertThrows(IOException.class, () -> processor.process(input, (lineNumber, result) -> { }));
+    }
+}
@@ -0,0 +1,161 @@
+package fr.inria.clea.lsp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import fr.inria.clea.lsp.QrCodeScheduler.ScheduledQrCode;
+import fr.inria.clea.lsp.exception.CleaCryptoException;
+
+public class QrCodeSchedulerTest {
+    /* Example of a permanent Location Secret Key used for the tests */
+    private final String permanentLocationSecretKey = "23c9b8f36ac1c0cddaf869c3733b771c3dc409416a9695df40397cea53e7f39e21f76925fc0c74ca6ee7c7eafad92473fd8575";
+    private String[] serverAuthorityKeyPair;
+    private String[] manualContactTracingAuthorityKeyPair;
+    private Instant periodStartTime;
+    private MutableClock clock;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        CleaEciesEncoder cleaEciesEncoder = new CleaEciesEncoder();
+        serverAuthorityKeyPair = cleaEciesEncoder.genKeysPair(true);
+        manualContactTracingAuthorityKeyPair = cleaEciesEncoder.genKeysPair(true);
+        periodStartTime = Instant.now().truncatedTo(ChronoUnit.HOURS);
+        clock = new MutableClock(periodStartTime.plusSeconds(100));
+    }
+
+    @Test
+    public void testDeepLinksFollowTheRenewalIntervalAndThePeriods() throws Exception {
+        /* renewal every 1024 seconds, periods of 1 hour */
+        Location location = newLocation(10, 1);
+        LocationSpecificPartDecoder decoder = new LocationSpecificPartDecoder(serverAuthorityKeyPair[0]);
+        DeepLinkParser parser = new DeepLinkParser();
+        try (QrCodeScheduler scheduler = new QrCodeScheduler(location, 4, clock)) {
+            scheduler.start();
+
+            ScheduledQrCode qrCode = scheduler.getCurrentQrCode();
+            LocationSpecificPart lsp = decoder.decrypt(parser.parse(qrCode.getDeepLink()));
+            assertThat(qrCode.getPeriodStartTime()).isEqualTo(periodStartTime);
+            assertThat(qrCode.getQrCodeValidityStartTime()).isEqualTo(periodStartTime);
+            assertThat(qrCode.getValidUntil()).isEqualTo(periodStartTime.plusSeconds(1024));
+            assertThat(lsp.getPeriodStartTime()).isEqualTo(periodStartTime);
+            assertThat(lsp.getQrCodeValidityStartTime()).isEqualTo(periodStartTime);
+            assertThat(lsp.getEncryptedLocationContactMessage()).isNotNull();
+
+            /* renewals within the period, the last one being cut at the end of the period */
+            Instant[] validUntil = { periodStartTime.plusSeconds(2048), periodStartTime.plusSeconds(3072),
+                    periodStartTime.plusSeconds(3600) };
+            for (Instant end : validUntil) {
+                clock.setInstant(qrCode.getValidUntil());
+                qrCode = awaitQrCodeStarting(scheduler, qrCode.getValidUntil());
+                assertThat(qrCode.getValidUntil()).isEqualTo(end);
+                LocationSpecificPart renewedLsp = decoder.decrypt(parser.parse(qrCode.getDeepLink()));
+                assertThat(renewedLsp.getLocationTemporaryPublicId()).isEqualTo(lsp.getLocationTemporaryPublicId());
+                assertThat(renewedLsp.getQrCodeValidityStartTime()).isEqualTo(qrCode.getQrCodeValidityStartTime());
+            }
+
+            /* next period: new LTId */
+            Instant nextPeriodStartTime = periodStartTime.plus(1, ChronoUnit.HOURS);
+            clock.setInstant(nextPeriodStartTime.plusSeconds(1));
+            qrCode = awaitQrCodeStarting(scheduler, nextPeriodStartTime);
+            LocationSpecificPart nextLsp = decoder.decrypt(parser.parse(qrCode.getDeepLink()));
+            assertThat(qrCode.getPeriodStartTime()).isEqualTo(nextPeriodStartTime);
+            assertThat(nextLsp.getPeriodStartTime()).isEqualTo(nextPeriodStartTime);
+            assertThat(nextLsp.getLocationTemporaryPublicId()).isNotEqualTo(lsp.getLocationTemporaryPublicId());
+        }
+    }
+
+    @Test
+    public void testSchedulerCatchesUpWithTheClockAfterAnInterruption() throws Exception {
+        Location location = newLocation(10, 4);
+        try (QrCodeScheduler scheduler = new QrCodeScheduler(location, 3, clock)) {
+            scheduler.start();
+            /* device asleep for 10 hours and a half */
+            Instant wakeUp = periodStartTime.plus(10, ChronoUnit.HOURS).plusSeconds(1800);
+            clock.setInstant(wakeUp);
+            Instant expectedPeriodStartTime = periodStartTime.plus(10, ChronoUnit.HOURS);
+            ScheduledQrCode qrCode = awaitQrCodeStarting(scheduler, expectedPeriodStartTime.plusSeconds(1024));
+
+            assertThat(qrCode.getPeriodStartTime()).isEqualTo(expectedPeriodStartTime);
+            assertThat(qrCode.getValidUntil()).isAfter(wakeUp);
+        }
+    }
+
+    @Test
+    public void testStaticQrCodeIsValidForTheWholePeriod() throws Exception {
+        Location location = newLocation(LocationSpecificPart.QRCODE_NO_RENEWAL, 3);
+        try (QrCodeScheduler scheduler = new QrCodeScheduler(location, 2, clock)) {
+            assertThrows(IllegalStateException.class, scheduler::getDeepLink);
+            scheduler.start();
+            ScheduledQrCode qrCode = scheduler.getCurrentQrCode();
+
+            assertThat(qrCode.getQrCodeValidityStartTime()).isEqualTo(periodStartTime);
+            assertThat(qrCode.getValidUntil()).isEqualTo(periodStartTime.plus(3, ChronoUnit.HOURS));
+            assertThrows(IllegalStateException.class, scheduler::start);
+        }
+    }
+
+    private Location newLocation(int qrCodeRenewalIntervalExponentCompact, int periodDuration) {
+        LocationSpecificPart lsp = LocationSpecificPart.builder()
+                .qrCodeRenewalIntervalExponentCompact(qrCodeRenewalIntervalExponentCompact)
+                .venueType(4).venueCategory1(1).venueCategory2(2)
+                .periodDuration(periodDuration).build();
+        return Location.builder()
+                .locationSpecificPart(lsp)
+                .contact(new LocationContact("33800130000", 12, "012345", periodStartTime))
+                .manualContactTracingAuthorityPublicKey(manualContactTracingAuthorityKeyPair[1])
+                .serverAuthorityPublicKey(serverAuthorityKeyPair[1])
+                .permanentLocationSecretKey(permanentLocationSecretKey).build();
+    }
+
+    /**
+     * Wait for the background thread to generate the QR code starting at the given time
+     */
+    private ScheduledQrCode awaitQrCodeStarting(QrCodeScheduler scheduler, Instant qrCodeValidityStartTime)
+            throws InterruptedException, CleaCryptoException {
+        long deadline = System.currentTimeMillis() + 10000;
+        ScheduledQrCode qrCode = scheduler.getCurrentQrCode();
+        while (!qrCode.getQrCodeValidityStartTime().equals(qrCodeValidityStartTime)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+            qrCode = scheduler.getCurrentQrCode();
+        }
+        assertThat(qrCode.getQrCodeValidityStartTime()).isEqualTo(qrCodeValidityStartTime);
+        return qrCode;
+    }
+
+    private static class MutableClock extends Clock {
+        private volatile Instant instant;
+
+        MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        void setInstant(Instant instant) {
+            this.instant = instant;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return this.instant;
+        }
+    }
+}